@@ -0,0 +1,109 @@
+package com.github.ddth.thriftpool;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.ddth.thriftpool.AbstractTProtocolFactory.HostAndPort;
+
+/**
+ * Base {@link IServerListProvider}: loads the server list at
+ * {@link #start(AbstractTProtocolFactory)} and publishes it (and later
+ * reloads) into the factory.
+ *
+ * <p>
+ * Empty server lists are not published (e.g. a file being rewritten, or a
+ * DNS record temporarily missing): the factory keeps its current list.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+public abstract class AbstractServerListProvider implements IServerListProvider {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(AbstractServerListProvider.class);
+
+    private volatile AbstractTProtocolFactory tprotocolFactory;
+
+    protected AbstractTProtocolFactory getTProtocolFactory() {
+        return tprotocolFactory;
+    }
+
+    /**
+     * Loads the current server list.
+     *
+     * @return
+     * @throws Exception
+     */
+    protected abstract List<HostAndPort> load() throws Exception;
+
+    /**
+     * Loads the server list and publishes it into the factory.
+     *
+     * @return {@code false} if the list is empty and has not been published
+     * @throws Exception
+     */
+    protected boolean reload() throws Exception {
+        AbstractTProtocolFactory tprotocolFactory = this.tprotocolFactory;
+        List<HostAndPort> hostAndPortList = load();
+        if (hostAndPortList.isEmpty()) {
+            LOGGER.warn("Empty server list from " + this + " ignored");
+            return false;
+        }
+        if (tprotocolFactory != null) {
+            tprotocolFactory.setHostAndPortList(hostAndPortList);
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>
+     * Loads and publishes the server list, then calls {@link #doStart()}.
+     * </p>
+     */
+    @Override
+    public synchronized void start(AbstractTProtocolFactory tprotocolFactory) throws Exception {
+        if (this.tprotocolFactory != null) {
+            throw new IllegalStateException(this + " already started");
+        }
+        this.tprotocolFactory = tprotocolFactory;
+        try {
+            if (!reload()) {
+                throw new IllegalStateException("Empty server list from " + this);
+            }
+            doStart();
+        } catch (Exception e) {
+            this.tprotocolFactory = null;
+            throw e;
+        }
+    }
+
+    /**
+     * Starts watching for changes (the server list has been published).
+     *
+     * @throws Exception
+     */
+    protected abstract void doStart() throws Exception;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void stop() {
+        if (tprotocolFactory != null) {
+            try {
+                doStop();
+            } finally {
+                tprotocolFactory = null;
+            }
+        }
+    }
+
+    /**
+     * Stops watching for changes.
+     */
+    protected abstract void doStop();
+}
@@ -0,0 +1,86 @@
+package com.github.ddth.thriftpool;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.thrift.transport.TNonblockingTransport;
+
+import com.github.ddth.thriftpool.AbstractTProtocolFactory.HostAndPort;
+
+/**
+ * Abstract implementation of {@link ITNonblockingTransportFactory}.
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+public abstract class AbstractTNonblockingTransportFactory implements
+        ITNonblockingTransportFactory {
+
+    private List<HostAndPort> hostAndPortList = Collections.emptyList();
+    private String hostsAndPorts;
+
+    /**
+     * Constructs a new {@link AbstractTNonblockingTransportFactory} object.
+     */
+    public AbstractTNonblockingTransportFactory() {
+    }
+
+    /**
+     * Constructs a new {@link AbstractTNonblockingTransportFactory} object.
+     * 
+     * @param hostsAndPorts
+     *            in format {@code host1:port1,host2:port2,host3:port3,...} or
+     *            {@code host1:port1:weight1,host2:port2:weight2,...}
+     */
+    public AbstractTNonblockingTransportFactory(String hostsAndPorts) {
+        setHostsAndPorts(hostsAndPorts);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumServers() {
+        return hostAndPortList.size();
+    }
+
+    public String getHostsAndPorts() {
+        return hostsAndPorts;
+    }
+
+    public AbstractTNonblockingTransportFactory setHostsAndPorts(String hostsAndPorts) {
+        this.hostsAndPorts = hostsAndPorts;
+        this.hostAndPortList = Collections.unmodifiableList(AbstractTProtocolFactory
+                .parseHostsAndPorts(hostsAndPorts));
+        return this;
+    }
+
+    protected List<HostAndPort> getHostAndPortList() {
+        return hostAndPortList;
+    }
+
+    protected HostAndPort getHostAndPort(int hash) {
+        List<HostAndPort> hostAndPortList = this.hostAndPortList;
+        if (hostAndPortList.size() == 0) {
+            return null;
+        }
+        return hostAndPortList.get(Math.abs(hash % hostAndPortList.size()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TNonblockingTransport create(int hash) throws Exception {
+        return create(getHostAndPort(hash));
+    }
+
+    /**
+     * Creates a new {@link TNonblockingTransport} object.
+     * 
+     * @param hostAndPort
+     * @return
+     * @throws Exception
+     */
+    protected abstract TNonblockingTransport create(HostAndPort hostAndPort) throws Exception;
+}
@@ -1,13 +1,36 @@
 package com.github.ddth.thriftpool;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransportException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Abstract implementation of {@link ITProtocolFactory}.
  * 
+ * <p>
+ * Since v0.2.3 the server list may be changed at any time: it is replaced
+ * atomically (readers always see a complete list) and
+ * {@link IServerListListener}s (e.g. pools using this factory) are notified
+ * of added and removed servers. Listeners are called after the list is
+ * replaced, outside of the update lock, one notification at a time: when
+ * updates race, intermediate lists may be skipped but the latest list is
+ * always notified last.
+ * </p>
+ * 
  * @author ThanhNB
  * @since 0.2.0
  */
@@ -17,6 +40,14 @@ public abstract class AbstractTProtocolFactory implements ITProtocolFactory {
         public String host;
         public int port;
 
+        /**
+         * Relative weight of the server (default {@code 1}): servers get
+         * traffic proportionally to their weights.
+         * 
+         * @since 0.2.3
+         */
+        public int weight = 1;
+
         public HostAndPort() {
         }
 
@@ -25,14 +56,54 @@ public abstract class AbstractTProtocolFactory implements ITProtocolFactory {
             this.port = port;
         }
 
+        /**
+         * @param host
+         * @param port
+         * @param weight
+         * @since 0.2.3
+         */
+        public HostAndPort(String host, int port, int weight) {
+            this.host = host;
+            this.port = port;
+            this.weight = weight;
+        }
+
         public HostAndPort(String url) {
             this.host = url;
             this.port = 0;
         }
+
+        /**
+         * {@inheritDoc}
+         * 
+         * @since 0.2.3
+         */
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
     }
 
-    private List<HostAndPort> hostAndPortList = new ArrayList<HostAndPort>();
-    private String hostsAndPorts;
+    private final Logger LOGGER = LoggerFactory.getLogger(AbstractTProtocolFactory.class);
+
+    private volatile List<HostAndPort> hostAndPortList = Collections.emptyList();
+    private volatile String hostsAndPorts;
+    private final Object updateLock = new Object();
+    private final List<IServerListListener> listeners = new CopyOnWriteArrayList<IServerListListener>();
+
+    /**
+     * Sequence number of the current server list, incremented under
+     * {@link #updateLock} each time the list is replaced.
+     */
+    private long listVersion;
+
+    /**
+     * Last list (and its sequence number) notified to listeners, only
+     * accessed by the thread holding {@link #notifying}.
+     */
+    private List<HostAndPort> notifiedList = Collections.emptyList();
+    private long notifiedVersion;
+    private final AtomicBoolean notifying = new AtomicBoolean();
 
     /**
      * Constructs a new {@link AbstractTProtocolFactory} object.
@@ -44,7 +115,9 @@ public abstract class AbstractTProtocolFactory implements ITProtocolFactory {
      * Constructs a new {@link AbstractTProtocolFactory} object.
      * 
      * @param hostAndPortList
-     *            in format {@code host1:port1,host2:port2,host3:port3,...}
+     *            in format {@code host1:port1,host2:port2,host3:port3,...};
+     *            since v0.2.3 an optional weight can be appended to each
+     *            server, e.g. {@code host1:port1:8,host2:port2:32}
      */
     public AbstractTProtocolFactory(String hostsAndPorts) {
         setHostsAndPorts(hostsAndPorts);
@@ -55,16 +128,26 @@ public abstract class AbstractTProtocolFactory implements ITProtocolFactory {
      */
     @Override
     public int getNumServers() {
-        return hostAndPortList != null ? hostAndPortList.size() : 0;
+        return hostAndPortList.size();
     }
 
     public String getHostsAndPorts() {
         return hostsAndPorts;
     }
 
+    /**
+     * Sets the server list, see {@link #setHostAndPortList(List)}.
+     * 
+     * @param hostsAndPorts
+     * @return
+     */
     public AbstractTProtocolFactory setHostsAndPorts(String hostsAndPorts) {
-        this.hostsAndPorts = hostsAndPorts;
-        parseHostAndPortList();
+        synchronized (updateLock) {
+            this.hostsAndPorts = hostsAndPorts;
+            parseHostAndPortList();
+            this.hostsAndPorts = hostsAndPorts;
+        }
+        notifyListeners();
         return this;
     }
 
@@ -73,31 +156,173 @@ public abstract class AbstractTProtocolFactory implements ITProtocolFactory {
      * @since 0.2.1.2
      */
     protected AbstractTProtocolFactory clearHostAndPortList() {
-        this.hostAndPortList.clear();
+        setHostAndPortList(Collections.<HostAndPort> emptyList());
         return this;
     }
 
     /**
+     * Appends a server to the list. Each call is a separate update, use
+     * {@link #setHostAndPortList(List)} to change several servers at once.
+     * 
      * @param hostAndPort
      * @since 0.2.1.2
      */
     protected AbstractTProtocolFactory addHostAndPort(HostAndPort hostAndPort) {
-        this.hostAndPortList.add(hostAndPort);
+        synchronized (updateLock) {
+            List<HostAndPort> hostAndPortList = new ArrayList<HostAndPort>(this.hostAndPortList);
+            hostAndPortList.add(hostAndPort);
+            setHostAndPortList(hostAndPortList);
+        }
+        notifyListeners();
         return this;
     }
 
     /**
-     * @return
+     * Gets the current server list.
+     * 
+     * @return an immutable snapshot (since v0.2.3)
      * @since 0.2.1.2
      */
     protected List<HostAndPort> getHostAndPortList() {
         return this.hostAndPortList;
     }
 
-    protected void parseHostAndPortList() {
+    /**
+     * Replaces the server list atomically. If the list has changed, listeners
+     * are then notified with the servers added and removed since the last
+     * notified list (servers are identified by {@code host:port}; a server
+     * whose weight changed is neither added nor removed). If another thread
+     * is notifying listeners, this method returns without waiting and that
+     * thread notifies this list.
+     * 
+     * <p>
+     * {@link HostAndPort} objects must not be modified once passed to this
+     * method.
+     * </p>
+     * 
+     * @param hostAndPortList
+     * @return
+     * @since 0.2.3
+     */
+    public AbstractTProtocolFactory setHostAndPortList(List<HostAndPort> hostAndPortList) {
+        synchronized (updateLock) {
+            List<HostAndPort> newList = Collections
+                    .unmodifiableList(new ArrayList<HostAndPort>(hostAndPortList));
+            this.hostAndPortList = newList;
+            this.hostsAndPorts = formatHostsAndPorts(newList);
+            listVersion++;
+        }
+        notifyListeners();
+        return this;
+    }
+
+    /**
+     * @param listener
+     * @return
+     * @since 0.2.3
+     */
+    public AbstractTProtocolFactory addServerListListener(IServerListListener listener) {
+        listeners.add(listener);
+        return this;
+    }
+
+    /**
+     * @param listener
+     * @return
+     * @since 0.2.3
+     */
+    public AbstractTProtocolFactory removeServerListListener(IServerListListener listener) {
+        listeners.remove(listener);
+        return this;
+    }
+
+    /**
+     * Notifies listeners of the current server list, if not yet notified.
+     * Listeners are not called while {@link #updateLock} is held (e.g. by an
+     * update in progress on this thread, the outermost update notifies), nor
+     * by two threads at once: a thread finding another one notifying returns
+     * immediately, the other one notifies the latest list after its current
+     * notification.
+     */
+    private void notifyListeners() {
+        if (Thread.holdsLock(updateLock)) {
+            return;
+        }
+        while (notifying.compareAndSet(false, true)) {
+            try {
+                while (true) {
+                    List<HostAndPort> newList;
+                    long version;
+                    synchronized (updateLock) {
+                        newList = this.hostAndPortList;
+                        version = this.listVersion;
+                    }
+                    if (version == notifiedVersion) {
+                        break;
+                    }
+                    List<HostAndPort> oldList = notifiedList;
+                    notifiedList = newList;
+                    notifiedVersion = version;
+                    notifyListeners(oldList, newList);
+                }
+            } finally {
+                notifying.set(false);
+            }
+            synchronized (updateLock) {
+                if (listVersion == notifiedVersion) {
+                    // else: updated after the check above, by a thread that
+                    // found this one notifying
+                    return;
+                }
+            }
+        }
+    }
+
+    private void notifyListeners(List<HostAndPort> oldList, List<HostAndPort> newList) {
+        Map<String, HostAndPort> oldServers = new HashMap<String, HostAndPort>();
+        for (HostAndPort hap : oldList) {
+            oldServers.put(hap.toString(), hap);
+        }
+        List<HostAndPort> added = new ArrayList<HostAndPort>();
+        boolean changed = oldList.size() != newList.size();
+        for (int i = 0; i < newList.size(); i++) {
+            HostAndPort hap = newList.get(i);
+            HostAndPort oldHap = oldServers.remove(hap.toString());
+            if (oldHap == null) {
+                added.add(hap);
+            } else if (!changed) {
+                HostAndPort sameIndex = oldList.get(i);
+                changed = sameIndex != oldHap || sameIndex.weight != hap.weight;
+            }
+        }
+        List<HostAndPort> removed = new ArrayList<HostAndPort>(oldServers.values());
+        if (!changed && added.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+        added = Collections.unmodifiableList(added);
+        removed = Collections.unmodifiableList(removed);
+        for (IServerListListener listener : listeners) {
+            try {
+                listener.onServerListChanged(newList, added, removed);
+            } catch (Exception e) {
+                LOGGER.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Parses a list of hosts and ports.
+     * 
+     * @param hostsAndPorts
+     *            in format {@code host1:port1,host2:port2,host3:port3,...} or
+     *            {@code host1:port1:weight1,host2:port2:weight2,...}
+     * @return
+     * @since 0.2.3
+     */
+    public static List<HostAndPort> parseHostsAndPorts(String hostsAndPorts) {
         String[] hostAndPortTokens = hostsAndPorts.split("[,\\s]+");
 
-        this.hostAndPortList.clear();
+        List<HostAndPort> result = new ArrayList<HostAndPort>();
         for (String hostAndPort : hostAndPortTokens) {
             String[] tokens = hostAndPort.split("[:]+");
             HostAndPort hap = new HostAndPort();
@@ -107,12 +332,38 @@ public abstract class AbstractTProtocolFactory implements ITProtocolFactory {
             } catch (Exception e) {
                 hap.port = 0;
             }
-            addHostAndPort(hap);
+            try {
+                hap.weight = tokens.length > 2 ? Math.max(1, Integer.parseInt(tokens[2])) : 1;
+            } catch (Exception e) {
+                hap.weight = 1;
+            }
+            result.add(hap);
+        }
+        return result;
+    }
+
+    /**
+     * Formats a server list as {@code host1:port1,host2:port2:weight2,...}
+     * (weights other than {@code 1} only).
+     */
+    private static String formatHostsAndPorts(List<HostAndPort> hostAndPortList) {
+        StringBuilder sb = new StringBuilder();
+        for (HostAndPort hap : hostAndPortList) {
+            sb.append(sb.length() > 0 ? "," : "").append(hap);
+            if (hap.weight != 1) {
+                sb.append(':').append(hap.weight);
+            }
         }
+        return sb.toString();
+    }
+
+    protected void parseHostAndPortList() {
+        setHostAndPortList(parseHostsAndPorts(hostsAndPorts));
     }
 
     protected HostAndPort getHostAndPort(int hash) {
-        if (hostAndPortList == null || hostAndPortList.size() == 0) {
+        List<HostAndPort> hostAndPortList = this.hostAndPortList;
+        if (hostAndPortList.size() == 0) {
             return null;
         }
         return hostAndPortList.get(Math.abs(hash % hostAndPortList.size()));
@@ -126,6 +377,43 @@ public abstract class AbstractTProtocolFactory implements ITProtocolFactory {
         return create(getHostAndPort(hash));
     }
 
+    /**
+     * Opens a {@link TSocket} backed by a {@link SocketChannel}, so that pooled
+     * connections closed by the server (or a load balancer) are detected
+     * without waiting, see {@link PoolConfig#setLivenessCheckIdleMs(long)}.
+     * Drop-in replacement for {@code new TSocket(host, port, timeout)} followed
+     * by {@code open()}.
+     * 
+     * @param host
+     * @param port
+     * @param timeoutMs
+     *            connect and socket timeout
+     * @return
+     * @throws TTransportException
+     * @since 0.2.3
+     */
+    public static TSocket openChannelSocket(String host, int port, int timeoutMs)
+            throws TTransportException {
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            Socket socket = channel.socket();
+            socket.setTcpNoDelay(true);
+            socket.setSoLinger(false, 0);
+            socket.setSoTimeout(timeoutMs);
+            socket.connect(new InetSocketAddress(host, port), timeoutMs);
+            return new TSocket(socket);
+        } catch (IOException e) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e1) {
+                }
+            }
+            throw new TTransportException(TTransportException.NOT_OPEN, e);
+        }
+    }
+
     /**
      * Creates a new {@link TProtocol} object.
      * 
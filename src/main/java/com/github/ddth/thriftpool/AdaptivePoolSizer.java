@@ -0,0 +1,345 @@
+package com.github.ddth.thriftpool;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adaptive pool sizing: every {@code intervalMs}, adjusts the effective
+ * {@code maxActive} of a pool, within {@code [minActive, maxActive]}, from the
+ * calls made in the last interval.
+ *
+ * <ul>
+ * <li>{@link Mode#LITTLES_LAW}: by Little's law, the average concurrency
+ * needed is {@code L = arrival rate * mean latency}; the limit is set to
+ * {@code L * headroom} (plus the number of borrowers waiting when the pool is
+ * exhausted). The limit grows by up to {@code headroom} times per interval
+ * while the pool is saturated and shrinks as soon as the load drops.</li>
+ * <li>{@link Mode#AIMD}: additive-increase/multiplicative-decrease on latency.
+ * The lowest mean latency observed is the no-load baseline; if the mean
+ * latency of the interval exceeds {@code baseline * latencyTolerance}, the
+ * server is queueing and the limit is multiplied by {@code backoffRatio};
+ * otherwise, if the pool is saturated (borrowers waiting, or average
+ * concurrency of at least {@code utilization} of the limit), the limit grows
+ * by {@code increaseStep}.</li>
+ * </ul>
+ *
+ * <p>
+ * Resizing never interrupts borrowed clients: when the limit shrinks, no new
+ * clients are created above it, and clients returned above it are closed
+ * instead of being pooled. With per-server sub-pools, the limit is shared
+ * among sub-pools proportionally to server weights.
+ * </p>
+ *
+ * <p>
+ * An instance belongs to a single pool, see
+ * {@link ThriftClientPool#setAdaptivePoolSizer(AdaptivePoolSizer)}. Settings
+ * must not be changed once in use.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+public class AdaptivePoolSizer {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(AdaptivePoolSizer.class);
+
+    public static enum Mode {
+        LITTLES_LAW, AIMD
+    }
+
+    public final static long DEFAULT_INTERVAL_MS = 1000;
+    public final static int DEFAULT_MIN_ACTIVE = 1;
+    public final static int DEFAULT_MAX_ACTIVE = 256;
+    public final static double DEFAULT_HEADROOM = 1.5;
+    public final static double DEFAULT_LATENCY_TOLERANCE = 2.0;
+    public final static double DEFAULT_BACKOFF_RATIO = 0.9;
+    public final static int DEFAULT_INCREASE_STEP = 2;
+    public final static double DEFAULT_UTILIZATION = 0.8;
+
+    /**
+     * Weight of a new interval in the baseline latency when it is above the
+     * baseline, so that the baseline follows a permanent latency change.
+     */
+    private final static double BASELINE_DRIFT = 0.05;
+
+    private Mode mode = Mode.LITTLES_LAW;
+    private long intervalMs = DEFAULT_INTERVAL_MS;
+    private int minActive = DEFAULT_MIN_ACTIVE, maxActive = DEFAULT_MAX_ACTIVE;
+    private double headroom = DEFAULT_HEADROOM;
+    private double latencyTolerance = DEFAULT_LATENCY_TOLERANCE;
+    private double backoffRatio = DEFAULT_BACKOFF_RATIO;
+    private int increaseStep = DEFAULT_INCREASE_STEP;
+    private double utilization = DEFAULT_UTILIZATION;
+
+    private volatile int limit = -1;
+    private volatile double lastConcurrency, lastLatencyNs, baselineLatencyNs;
+    private long lastTimestampNs;
+
+    /**
+     * Counters of each server at the previous adjustment:
+     * {@code [calls, totalLatencyNs]}.
+     */
+    private Map<ServerNode, long[]> lastCounters = new HashMap<ServerNode, long[]>();
+
+    public AdaptivePoolSizer() {
+    }
+
+    public AdaptivePoolSizer(Mode mode) {
+        this.mode = mode;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public AdaptivePoolSizer setMode(Mode mode) {
+        this.mode = mode;
+        return this;
+    }
+
+    public long getIntervalMs() {
+        return intervalMs;
+    }
+
+    public AdaptivePoolSizer setIntervalMs(long intervalMs) {
+        this.intervalMs = intervalMs;
+        return this;
+    }
+
+    /**
+     * Lower bound of the effective {@code maxActive}.
+     *
+     * @return
+     */
+    public int getMinActive() {
+        return minActive;
+    }
+
+    public AdaptivePoolSizer setMinActive(int minActive) {
+        this.minActive = minActive;
+        return this;
+    }
+
+    /**
+     * Upper bound of the effective {@code maxActive}.
+     *
+     * @return
+     */
+    public int getMaxActive() {
+        return maxActive;
+    }
+
+    public AdaptivePoolSizer setMaxActive(int maxActive) {
+        this.maxActive = maxActive;
+        return this;
+    }
+
+    /**
+     * ({@link Mode#LITTLES_LAW}) Ratio of the limit to the measured
+     * concurrency.
+     *
+     * @return
+     */
+    public double getHeadroom() {
+        return headroom;
+    }
+
+    public AdaptivePoolSizer setHeadroom(double headroom) {
+        this.headroom = headroom;
+        return this;
+    }
+
+    /**
+     * ({@link Mode#AIMD}) Ratio of the mean latency to the baseline latency
+     * above which the limit is decreased.
+     *
+     * @return
+     */
+    public double getLatencyTolerance() {
+        return latencyTolerance;
+    }
+
+    public AdaptivePoolSizer setLatencyTolerance(double latencyTolerance) {
+        this.latencyTolerance = latencyTolerance;
+        return this;
+    }
+
+    /**
+     * ({@link Mode#AIMD}) Multiplier of the limit on latency increase.
+     *
+     * @return
+     */
+    public double getBackoffRatio() {
+        return backoffRatio;
+    }
+
+    public AdaptivePoolSizer setBackoffRatio(double backoffRatio) {
+        this.backoffRatio = backoffRatio;
+        return this;
+    }
+
+    /**
+     * ({@link Mode#AIMD}) Increase of the limit per interval while the pool
+     * is saturated.
+     *
+     * @return
+     */
+    public int getIncreaseStep() {
+        return increaseStep;
+    }
+
+    public AdaptivePoolSizer setIncreaseStep(int increaseStep) {
+        this.increaseStep = increaseStep;
+        return this;
+    }
+
+    /**
+     * ({@link Mode#AIMD}) Ratio of the average concurrency to the limit above
+     * which the pool is considered saturated.
+     *
+     * @return
+     */
+    public double getUtilization() {
+        return utilization;
+    }
+
+    public AdaptivePoolSizer setUtilization(double utilization) {
+        this.utilization = utilization;
+        return this;
+    }
+
+    /*----------------------------------------------------------------------*/
+    /**
+     * Current effective {@code maxActive}.
+     *
+     * @return {@code -1} if not yet in use
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Average concurrency (arrival rate times mean latency) measured over the
+     * last interval.
+     *
+     * @return
+     */
+    public double getLastConcurrency() {
+        return lastConcurrency;
+    }
+
+    /**
+     * Mean latency of the calls of the last interval, in nanoseconds.
+     *
+     * @return
+     */
+    public double getLastLatencyNs() {
+        return lastLatencyNs;
+    }
+
+    /**
+     * ({@link Mode#AIMD}) Baseline (no-load) latency, in nanoseconds.
+     *
+     * @return
+     */
+    public double getBaselineLatencyNs() {
+        return baselineLatencyNs;
+    }
+
+    private int bound(long value) {
+        return (int) Math.max(minActive, Math.min(maxActive, value));
+    }
+
+    /**
+     * Sets the initial limit. Called by the pool at init.
+     *
+     * @param initialLimit
+     * @return the bounded initial limit
+     */
+    synchronized int start(int initialLimit) {
+        limit = bound(initialLimit >= 0 ? initialLimit : maxActive);
+        lastTimestampNs = System.nanoTime();
+        lastCounters.clear();
+        return limit;
+    }
+
+    /**
+     * Evaluates the calls made since the previous adjustment and computes the
+     * new limit. Called by the pool every {@code intervalMs}.
+     *
+     * @param serverNodes
+     * @param numWaiters
+     *            number of borrowers currently waiting for a client
+     * @return the new limit
+     */
+    synchronized int adjust(List<ServerNode> serverNodes, int numWaiters) {
+        long now = System.nanoTime();
+        long elapsedNs = now - lastTimestampNs;
+        lastTimestampNs = now;
+
+        long calls = 0, latencyNs = 0;
+        Map<ServerNode, long[]> counters = new HashMap<ServerNode, long[]>();
+        for (ServerNode node : serverNodes) {
+            long[] current = { node.getNumCalls(), node.getTotalLatencyNs() };
+            counters.put(node, current);
+            long[] last = lastCounters.get(node);
+            if (last != null) {
+                calls += current[0] - last[0];
+                latencyNs += current[1] - last[1];
+            }
+        }
+        lastCounters = counters;
+
+        int limit = this.limit;
+        if (calls <= 0 || elapsedNs <= 0) {
+            lastConcurrency = 0;
+            return limit;
+        }
+        double meanLatencyNs = (double) latencyNs / calls;
+        // L = lambda * W = (calls / elapsed) * (latency / calls)
+        double concurrency = (double) latencyNs / elapsedNs;
+        lastLatencyNs = meanLatencyNs;
+        lastConcurrency = concurrency;
+
+        int newLimit = limit;
+        if (mode == Mode.AIMD) {
+            double baseline = baselineLatencyNs;
+            baseline = baseline <= 0 || meanLatencyNs < baseline ? meanLatencyNs : baseline
+                    + BASELINE_DRIFT * (meanLatencyNs - baseline);
+            baselineLatencyNs = baseline;
+            if (meanLatencyNs > baseline * latencyTolerance) {
+                newLimit = bound((long) Math.floor(limit * backoffRatio));
+            } else if (numWaiters > 0 || concurrency >= limit * utilization) {
+                newLimit = bound((long) limit + increaseStep);
+            }
+        } else {
+            newLimit = bound((long) Math.ceil(concurrency * headroom) + numWaiters);
+        }
+        if (newLimit != limit) {
+            LOGGER.debug("Pool limit adjusted " + limit + " -> " + newLimit + ": "
+                    + String.format("concurrency %.1f, mean latency %.2fms, waiters %d",
+                            concurrency, meanLatencyNs / 1E6, numWaiters));
+            this.limit = newLimit;
+        }
+        return newLimit;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        ToStringBuilder tsb = new ToStringBuilder(this);
+        tsb.append("mode", mode).append("intervalMs", intervalMs)
+                .append("minActive", minActive).append("maxActive", maxActive)
+                .append("headroom", headroom).append("latencyTolerance", latencyTolerance)
+                .append("backoffRatio", backoffRatio).append("increaseStep", increaseStep)
+                .append("utilization", utilization).append("limit", limit);
+        return tsb.toString();
+    }
+}
@@ -0,0 +1,739 @@
+package com.github.ddth.thriftpool;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.reflect.ConstructorUtils;
+import org.apache.thrift.async.AsyncMethodCallback;
+import org.apache.thrift.async.TAsyncClient;
+import org.apache.thrift.async.TAsyncClientManager;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TNonblockingTransport;
+import org.apache.thrift.transport.TTransportException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Non-blocking pool of asynchronous Thrift clients.
+ *
+ * <p>
+ * Calls are executed on {@link TAsyncClientManager} selector threads over
+ * {@link TNonblockingTransport}s and results are delivered via
+ * {@link CompletableFuture}s; no caller thread is blocked. When all clients
+ * are busy, calls are queued (never blocking the caller) until a client is
+ * available or {@link PoolConfig#getMaxWaitTime()} elapses.
+ * </p>
+ *
+ * <p>
+ * {@link PoolConfig} ({@code maxActive}, {@code maxIdle}, {@code maxWaitTime},
+ * {@code maxWaiters}) and {@link RetryPolicy} (number of retries, sleep
+ * between retries and server selection) have the same semantics as with
+ * {@link ThriftClientPool}; retries are scheduled without blocking.
+ * </p>
+ *
+ * <p>
+ * Note: futures are completed on selector threads; use the {@code xxxAsync}
+ * methods of {@link CompletableFuture} for heavy continuations.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ *
+ * @param <T>
+ *            Thrift async client class
+ * @param <I>
+ *            Thrift async client interface
+ * @since 0.2.3
+ */
+public class AsyncThriftClientPool<T extends TAsyncClient, I> {
+
+    /**
+     * Invokes a method on an async Thrift client.
+     *
+     * @param <I>
+     *            Thrift async client interface
+     * @param <C>
+     *            method call type passed to the callback (e.g.
+     *            {@code AsyncClient.xxx_call})
+     */
+    public static interface IAsyncInvocation<I, C> {
+        public void invoke(I client, AsyncMethodCallback<C> callback) throws Exception;
+    }
+
+    /**
+     * Extracts the result from a completed method call (e.g.
+     * {@code call.getResult()}).
+     *
+     * @param <C>
+     *            method call type
+     * @param <R>
+     *            result type
+     */
+    public static interface IAsyncResultExtractor<C, R> {
+        public R extract(C call) throws Exception;
+    }
+
+    private final Logger LOGGER = LoggerFactory.getLogger(AsyncThriftClientPool.class);
+
+    private Class<T> clientClass;
+    private Class<I> clientInterface;
+    private ITNonblockingTransportFactory transportFactory;
+    private TProtocolFactory protocolFactory = new TBinaryProtocol.Factory();
+    private PoolConfig poolConfig;
+    private RetryPolicy retryPolicy;
+    private RetryBudget retryBudget;
+    private int numSelectorThreads = 1;
+    private long callTimeoutMs = 0;
+
+    private TAsyncClientManager[] clientManagers;
+    private ScheduledExecutorService scheduler;
+    private WeightedServerTable serverWeights;
+    private volatile boolean closed = true;
+    private final AtomicInteger managerCounter = new AtomicInteger();
+    private final ConcurrentLinkedDeque<PooledClient> idleClients = new ConcurrentLinkedDeque<PooledClient>();
+    private final ConcurrentLinkedDeque<PendingCall> pendingCalls = new ConcurrentLinkedDeque<PendingCall>();
+    private final AtomicInteger numTotal = new AtomicInteger(), numIdle = new AtomicInteger(),
+            numActive = new AtomicInteger(), numPending = new AtomicInteger();
+
+    public AsyncThriftClientPool() {
+        // EMPTY
+    }
+
+    public AsyncThriftClientPool(Class<T> clientClass, Class<I> clientInterface,
+            ITNonblockingTransportFactory transportFactory) {
+        this.clientClass = clientClass;
+        this.clientInterface = clientInterface;
+        this.transportFactory = transportFactory;
+    }
+
+    public AsyncThriftClientPool(Class<T> clientClass, Class<I> clientInterface,
+            ITNonblockingTransportFactory transportFactory, PoolConfig poolConfig,
+            RetryPolicy retryPolicy) {
+        this.clientClass = clientClass;
+        this.clientInterface = clientInterface;
+        this.transportFactory = transportFactory;
+        this.poolConfig = poolConfig;
+        this.retryPolicy = retryPolicy;
+    }
+
+    /*----------------------------------------------------------------------*/
+    public Class<T> getClientClass() {
+        return clientClass;
+    }
+
+    public AsyncThriftClientPool<T, I> setClientClass(Class<T> clientClass) {
+        this.clientClass = clientClass;
+        return this;
+    }
+
+    public Class<I> getClientInterface() {
+        return clientInterface;
+    }
+
+    public AsyncThriftClientPool<T, I> setClientInterface(Class<I> clientInterface) {
+        this.clientInterface = clientInterface;
+        return this;
+    }
+
+    public ITNonblockingTransportFactory getTransportFactory() {
+        return transportFactory;
+    }
+
+    public AsyncThriftClientPool<T, I> setTransportFactory(
+            ITNonblockingTransportFactory transportFactory) {
+        this.transportFactory = transportFactory;
+        return this;
+    }
+
+    public TProtocolFactory getProtocolFactory() {
+        return protocolFactory;
+    }
+
+    /**
+     * Sets the protocol factory for async clients (default
+     * {@link TBinaryProtocol.Factory}).
+     *
+     * @param protocolFactory
+     * @return
+     */
+    public AsyncThriftClientPool<T, I> setProtocolFactory(TProtocolFactory protocolFactory) {
+        this.protocolFactory = protocolFactory;
+        return this;
+    }
+
+    public PoolConfig getPoolConfig() {
+        return poolConfig;
+    }
+
+    public AsyncThriftClientPool<T, I> setPoolConfig(PoolConfig poolConfig) {
+        this.poolConfig = poolConfig;
+        return this;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    public AsyncThriftClientPool<T, I> setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    /**
+     * @return
+     */
+    public RetryBudget getRetryBudget() {
+        return retryBudget;
+    }
+
+    /**
+     * Sets a pool-wide retry budget, see
+     * {@link ThriftClientPool#setRetryBudget(RetryBudget)}.
+     *
+     * @param retryBudget
+     * @return
+     */
+    public AsyncThriftClientPool<T, I> setRetryBudget(RetryBudget retryBudget) {
+        this.retryBudget = retryBudget;
+        return this;
+    }
+
+    public int getNumSelectorThreads() {
+        return numSelectorThreads;
+    }
+
+    /**
+     * Sets number of selector threads (i.e. {@link TAsyncClientManager}s),
+     * default {@code 1}.
+     *
+     * @param numSelectorThreads
+     * @return
+     */
+    public AsyncThriftClientPool<T, I> setNumSelectorThreads(int numSelectorThreads) {
+        this.numSelectorThreads = numSelectorThreads;
+        return this;
+    }
+
+    public long getCallTimeoutMs() {
+        return callTimeoutMs;
+    }
+
+    /**
+     * Sets timeout (ms) of each call attempt, {@code 0} means no timeout.
+     *
+     * @param callTimeoutMs
+     * @return
+     */
+    public AsyncThriftClientPool<T, I> setCallTimeoutMs(long callTimeoutMs) {
+        this.callTimeoutMs = callTimeoutMs;
+        return this;
+    }
+
+    synchronized public AsyncThriftClientPool<T, I> init() throws IOException {
+        if (clientManagers == null) {
+            if (transportFactory == null) {
+                throw new IllegalStateException("No ITNonblockingTransportFactory instance found!");
+            }
+            if (protocolFactory == null) {
+                protocolFactory = new TBinaryProtocol.Factory();
+            }
+            if (poolConfig == null) {
+                poolConfig = new PoolConfig();
+            }
+            if (retryPolicy == null) {
+                retryPolicy = RetryPolicy.DEFAULT;
+            }
+            TAsyncClientManager[] clientManagers = new TAsyncClientManager[Math.max(1,
+                    numSelectorThreads)];
+            try {
+                for (int i = 0; i < clientManagers.length; i++) {
+                    clientManagers[i] = new TAsyncClientManager();
+                }
+            } catch (IOException e) {
+                for (TAsyncClientManager clientManager : clientManagers) {
+                    if (clientManager != null) {
+                        clientManager.stop();
+                    }
+                }
+                throw e;
+            }
+            serverWeights = transportFactory instanceof AbstractTNonblockingTransportFactory ? WeightedServerTable
+                    .build(((AbstractTNonblockingTransportFactory) transportFactory)
+                            .getHostAndPortList()) : null;
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setDaemon(true).setNameFormat("thriftpool-async-scheduler-%d").build());
+            this.clientManagers = clientManagers;
+            closed = false;
+        }
+        return this;
+    }
+
+    synchronized public void destroy() {
+        if (clientManagers != null) {
+            closed = true;
+            try {
+                PendingCall pendingCall;
+                while ((pendingCall = pendingCalls.pollFirst()) != null) {
+                    if (pendingCall.claim()) {
+                        numPending.decrementAndGet();
+                        pendingCall.call.fail(new IllegalStateException("Pool closed"));
+                    }
+                }
+                PooledClient client;
+                while ((client = idleClients.pollFirst()) != null) {
+                    numIdle.decrementAndGet();
+                    discard(client);
+                }
+                scheduler.shutdownNow();
+                for (TAsyncClientManager clientManager : clientManagers) {
+                    clientManager.stop();
+                }
+            } finally {
+                clientManagers = null;
+                scheduler = null;
+            }
+        }
+    }
+
+    /*----------------------------------------------------------------------*/
+    /**
+     * Number of clients currently executing a call.
+     *
+     * @return
+     */
+    public int getNumActive() {
+        return numActive.get();
+    }
+
+    /**
+     * Number of idle clients.
+     *
+     * @return
+     */
+    public int getNumIdle() {
+        return numIdle.get();
+    }
+
+    /**
+     * Number of calls waiting for a client.
+     *
+     * @return
+     */
+    public int getNumPending() {
+        return numPending.get();
+    }
+
+    /**
+     * Executes a call, completing the returned future with the method call
+     * object (on which {@code getResult()} can be called).
+     *
+     * @param invocation
+     * @return
+     */
+    public <C> CompletableFuture<C> execute(IAsyncInvocation<I, C> invocation) {
+        return execute(invocation, new IAsyncResultExtractor<C, C>() {
+            @Override
+            public C extract(C call) {
+                return call;
+            }
+        });
+    }
+
+    /**
+     * Executes a call, completing the returned future with the extracted
+     * result, e.g.
+     *
+     * <pre>
+     * pool.execute((client, callback) -&gt; client.Log(messages, callback),
+     *         (scribe.AsyncClient.Log_call call) -&gt; call.getResult());
+     * </pre>
+     *
+     * @param invocation
+     * @param extractor
+     * @return
+     */
+    public <C, R> CompletableFuture<R> execute(IAsyncInvocation<I, C> invocation,
+            IAsyncResultExtractor<C, R> extractor) {
+        CompletableFuture<R> future = new CompletableFuture<R>();
+        if (closed) {
+            future.completeExceptionally(new IllegalStateException("Pool not open"));
+            return future;
+        }
+        RetryPolicy callRetryPolicy;
+        try {
+            callRetryPolicy = retryPolicy.clone();
+        } catch (CloneNotSupportedException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        callRetryPolicy.reset();
+        dispatch(new Call<C, R>(invocation, extractor, future, callRetryPolicy), -1);
+        return future;
+    }
+
+    /*----------------------------------------------------------------------*/
+    private int normalizeServerIndex(int serverIndexHash) {
+        int numServers = transportFactory.getNumServers();
+        return numServers > 0 ? Math.abs(serverIndexHash % numServers) : serverIndexHash;
+    }
+
+    /**
+     * Dispatches a call to an idle/new client, or queues it.
+     *
+     * @param call
+     * @param serverIndex
+     *            server to execute the call on, {@code -1} for any server
+     */
+    private void dispatch(Call<?, ?> call, int serverIndex) {
+        if (closed) {
+            call.fail(new IllegalStateException("Pool not open"));
+            return;
+        }
+        PooledClient client;
+        try {
+            client = acquire(call, serverIndex);
+        } catch (Exception e) {
+            call.onAttemptError(null, e);
+            return;
+        }
+        if (client != null) {
+            call.start(client);
+            return;
+        }
+
+        // no client available, queue the call
+        while (true) {
+            int pending = numPending.get();
+            int max = poolConfig.getMaxWaiters();
+            if (max >= 0 && pending >= max) {
+                call.fail(new NoSuchElementException("Too many calls waiting for an idle client"));
+                return;
+            }
+            if (numPending.compareAndSet(pending, pending + 1)) {
+                break;
+            }
+        }
+        final PendingCall pendingCall = new PendingCall(call, serverIndex);
+        pendingCalls.offerLast(pendingCall);
+        long maxWaitTime = poolConfig.getMaxWaitTime();
+        if (maxWaitTime >= 0) {
+            try {
+                pendingCall.timeout = scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (pendingCall.claim()) {
+                            pendingCalls.remove(pendingCall);
+                            numPending.decrementAndGet();
+                            pendingCall.call.fail(new NoSuchElementException(
+                                    "Timeout waiting for idle client"));
+                        }
+                    }
+                }, maxWaitTime, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                // scheduler has been shut down, pool is closing
+            }
+        }
+        drainPendingCalls();
+    }
+
+    /**
+     * Matches queued calls with idle clients/free capacity.
+     */
+    private void drainPendingCalls() {
+        PendingCall pendingCall;
+        while ((pendingCall = pendingCalls.pollFirst()) != null) {
+            if (pendingCall.isClaimed()) {
+                continue;
+            }
+            PooledClient client;
+            try {
+                client = acquire(pendingCall.call, pendingCall.serverIndex);
+            } catch (Exception e) {
+                if (pendingCall.claim()) {
+                    numPending.decrementAndGet();
+                    pendingCall.cancelTimeout();
+                    pendingCall.call.onAttemptError(null, e);
+                }
+                continue;
+            }
+            if (client == null) {
+                pendingCalls.offerFirst(pendingCall);
+                return;
+            }
+            if (!pendingCall.claim()) {
+                release(client);
+                continue;
+            }
+            numPending.decrementAndGet();
+            pendingCall.cancelTimeout();
+            pendingCall.call.start(client);
+        }
+    }
+
+    /**
+     * Obtains an idle client or creates a new one if capacity allows.
+     *
+     * @param call
+     * @param serverIndex
+     *            {@code -1} for any server
+     * @return {@code null} if no client is available
+     * @throws Exception
+     */
+    private PooledClient acquire(Call<?, ?> call, int serverIndex) throws Exception {
+        if (serverIndex < 0) {
+            PooledClient client = idleClients.pollFirst();
+            if (client != null) {
+                numIdle.decrementAndGet();
+                return client;
+            }
+        } else {
+            for (PooledClient client : idleClients) {
+                if (client.serverIndex == serverIndex && idleClients.remove(client)) {
+                    numIdle.decrementAndGet();
+                    return client;
+                }
+            }
+        }
+
+        while (true) {
+            int total = numTotal.get();
+            int max = poolConfig.getMaxActive();
+            if (max >= 0 && total >= max) {
+                if (serverIndex < 0) {
+                    return null;
+                }
+                // make room for a client to the requested server
+                PooledClient other = idleClients.pollLast();
+                if (other == null) {
+                    return null;
+                }
+                numIdle.decrementAndGet();
+                discard(other);
+                continue;
+            }
+            if (numTotal.compareAndSet(total, total + 1)) {
+                break;
+            }
+        }
+        try {
+            int targetServer = serverIndex >= 0 ? serverIndex : normalizeServerIndex(call.retryPolicy
+                    .calcServerIndexHash(transportFactory.getNumServers(), serverWeights));
+            return newClient(targetServer);
+        } catch (Exception e) {
+            numTotal.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private PooledClient newClient(int serverIndex) throws Exception {
+        TNonblockingTransport transport = transportFactory.create(serverIndex);
+        try {
+            TAsyncClientManager clientManager = clientManagers[(managerCounter.getAndIncrement() & Integer.MAX_VALUE)
+                    % clientManagers.length];
+            T client = ConstructorUtils.invokeConstructor(clientClass, protocolFactory,
+                    clientManager, transport);
+            if (callTimeoutMs > 0) {
+                client.setTimeout(callTimeoutMs);
+            }
+            return new PooledClient(client, transport, serverIndex);
+        } catch (Exception e) {
+            transport.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Releases a client after a successful call.
+     *
+     * @param client
+     */
+    private void release(PooledClient client) {
+        if (closed || client.client.hasError()) {
+            discard(client);
+        } else {
+            int maxIdle = poolConfig.getMaxIdle();
+            if (numPending.get() == 0 && maxIdle >= 0 && numIdle.get() >= maxIdle) {
+                discard(client);
+            } else {
+                numIdle.incrementAndGet();
+                idleClients.offerFirst(client);
+            }
+        }
+        drainPendingCalls();
+    }
+
+    private void discard(PooledClient client) {
+        numTotal.decrementAndGet();
+        try {
+            client.transport.close();
+        } catch (Exception e) {
+            LOGGER.debug(e.getMessage(), e);
+        }
+    }
+
+    private static boolean isRetryable(Exception e) {
+        if (e instanceof TTransportException) {
+            return ThriftClientPool.RESTARTABLE_CAUSES.contains(((TTransportException) e)
+                    .getType());
+        }
+        return e instanceof IOException || e instanceof TimeoutException;
+    }
+
+    /*----------------------------------------------------------------------*/
+    private final class PooledClient {
+        private final T client;
+        private final TNonblockingTransport transport;
+        private final int serverIndex;
+
+        public PooledClient(T client, TNonblockingTransport transport, int serverIndex) {
+            this.client = client;
+            this.transport = transport;
+            this.serverIndex = serverIndex;
+        }
+    }
+
+    private final class PendingCall {
+        private final Call<?, ?> call;
+        private final int serverIndex;
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+        private volatile ScheduledFuture<?> timeout;
+
+        public PendingCall(Call<?, ?> call, int serverIndex) {
+            this.call = call;
+            this.serverIndex = serverIndex;
+        }
+
+        public boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        public boolean isClaimed() {
+            return claimed.get();
+        }
+
+        public void cancelTimeout() {
+            ScheduledFuture<?> timeout = this.timeout;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+        }
+    }
+
+    private final class Call<C, R> {
+        private final IAsyncInvocation<I, C> invocation;
+        private final IAsyncResultExtractor<C, R> extractor;
+        private final CompletableFuture<R> future;
+        private final RetryPolicy retryPolicy;
+
+        public Call(IAsyncInvocation<I, C> invocation, IAsyncResultExtractor<C, R> extractor,
+                CompletableFuture<R> future, RetryPolicy retryPolicy) {
+            this.invocation = invocation;
+            this.extractor = extractor;
+            this.future = future;
+            this.retryPolicy = retryPolicy;
+        }
+
+        public void fail(Throwable t) {
+            future.completeExceptionally(t);
+        }
+
+        /**
+         * Starts an attempt on a client.
+         *
+         * @param client
+         */
+        public void start(final PooledClient client) {
+            numActive.incrementAndGet();
+            try {
+                invocation.invoke(clientInterface.cast(client.client),
+                        new AsyncMethodCallback<C>() {
+                            @Override
+                            public void onComplete(C response) {
+                                numActive.decrementAndGet();
+                                release(client);
+                                if (retryBudget != null) {
+                                    retryBudget.recordSuccess();
+                                }
+                                try {
+                                    future.complete(extractor.extract(response));
+                                } catch (Throwable t) {
+                                    future.completeExceptionally(t);
+                                }
+                            }
+
+                            @Override
+                            public void onError(Exception e) {
+                                numActive.decrementAndGet();
+                                onAttemptError(client, e);
+                            }
+                        });
+            } catch (Exception e) {
+                numActive.decrementAndGet();
+                onAttemptError(client, e);
+            }
+        }
+
+        /**
+         * Handles a failed attempt: discards the client and schedules a
+         * retry if allowed.
+         *
+         * @param client
+         *            may be {@code null} if no client was obtained
+         * @param e
+         */
+        public void onAttemptError(PooledClient client, Exception e) {
+            if (client != null) {
+                discard(client);
+                drainPendingCalls();
+                retryPolicy.setLastServerIndexHash(client.serverIndex);
+            }
+            if (closed || !isRetryable(e)) {
+                fail(e);
+                return;
+            }
+            retryPolicy.incCounter();
+            if (retryPolicy.exceedsMaxRetries()) {
+                fail(e);
+                return;
+            }
+            final int serverIndex = normalizeServerIndex(retryPolicy.calcServerIndexHash(
+                    transportFactory.getNumServers(), serverWeights));
+            long sleepMs = retryPolicy.calcSleepMs(client == null
+                    || serverIndex == client.serverIndex);
+            if (!retryPolicy.canRetryWithin(sleepMs)
+                    || (retryBudget != null && !retryBudget.tryAcquireRetry())) {
+                fail(e);
+                return;
+            }
+            LOGGER.info("Attempting to retry [" + retryPolicy.getCounter() + "/"
+                    + retryPolicy.getNumRetries() + "]...");
+            Runnable retry = new Runnable() {
+                @Override
+                public void run() {
+                    dispatch(Call.this, serverIndex);
+                }
+            };
+            try {
+                if (sleepMs > 0) {
+                    scheduler.schedule(retry, sleepMs, TimeUnit.MILLISECONDS);
+                } else {
+                    retry.run();
+                }
+            } catch (Exception ex) {
+                // scheduler has been shut down, pool is closing
+                fail(e);
+            }
+        }
+    }
+}
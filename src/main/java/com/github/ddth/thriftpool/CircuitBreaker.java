@@ -0,0 +1,255 @@
+package com.github.ddth.thriftpool;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * Per-server circuit breaker.
+ *
+ * <ul>
+ * <li>{@link State#CLOSED}: calls are allowed; successes and transport
+ * failures are counted over a rolling window of {@code windowMs}. Once at
+ * least {@code minimumNumberOfCalls} calls have been counted and the failure
+ * rate reaches {@code failureRateThreshold} percent, the breaker opens.</li>
+ * <li>{@link State#OPEN}: the server is skipped for {@code openDurationMs}.</li>
+ * <li>{@link State#HALF_OPEN}: a single trial call is allowed; the breaker
+ * closes if it succeeds and opens again if it fails. A trial that has not
+ * finished within {@code openDurationMs} is considered lost and another trial
+ * is allowed.</li>
+ * </ul>
+ *
+ * <p>
+ * An instance configured via {@link ThriftClientPool#setCircuitBreaker(CircuitBreaker)}
+ * is a prototype: each server gets its own clone, with a fresh state.
+ * Attempts aborted by the pool (the losing attempt of a hedged call) are
+ * reported neither as successes nor as failures.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+public class CircuitBreaker implements Cloneable {
+
+    public static enum State {
+        CLOSED, OPEN, HALF_OPEN;
+    }
+
+    public final static int NUM_BUCKETS = 10;
+
+    public final static int DEFAULT_FAILURE_RATE_THRESHOLD = 50;
+    public final static int DEFAULT_MINIMUM_NUMBER_OF_CALLS = 20;
+    public final static long DEFAULT_WINDOW_MS = 10000;
+    public final static long DEFAULT_OPEN_DURATION_MS = 5000;
+
+    private final static int COUNTER_SUCCESSES = 0, COUNTER_FAILURES = 1;
+
+    private int failureRateThreshold = DEFAULT_FAILURE_RATE_THRESHOLD;
+    private int minimumNumberOfCalls = DEFAULT_MINIMUM_NUMBER_OF_CALLS;
+    private long windowMs = DEFAULT_WINDOW_MS;
+    private long openDurationMs = DEFAULT_OPEN_DURATION_MS;
+
+    private AtomicInteger state = new AtomicInteger(State.CLOSED.ordinal());
+    private volatile long openedTimestamp;
+    private AtomicLong trialTimestamp = new AtomicLong();
+    private RollingWindow window;
+
+    public CircuitBreaker() {
+    }
+
+    public CircuitBreaker(int failureRateThreshold, int minimumNumberOfCalls, long windowMs,
+            long openDurationMs) {
+        this.failureRateThreshold = failureRateThreshold;
+        this.minimumNumberOfCalls = minimumNumberOfCalls;
+        this.windowMs = windowMs;
+        this.openDurationMs = openDurationMs;
+    }
+
+    /**
+     * Failure rate (percent) at which the breaker opens.
+     *
+     * @return
+     */
+    public int getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    public CircuitBreaker setFailureRateThreshold(int failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+        return this;
+    }
+
+    /**
+     * Minimum number of calls in the window before the failure rate is
+     * evaluated.
+     *
+     * @return
+     */
+    public int getMinimumNumberOfCalls() {
+        return minimumNumberOfCalls;
+    }
+
+    public CircuitBreaker setMinimumNumberOfCalls(int minimumNumberOfCalls) {
+        this.minimumNumberOfCalls = minimumNumberOfCalls;
+        return this;
+    }
+
+    public long getWindowMs() {
+        return windowMs;
+    }
+
+    public CircuitBreaker setWindowMs(long windowMs) {
+        this.windowMs = windowMs;
+        return this;
+    }
+
+    /**
+     * How long the breaker stays open before a trial call is allowed.
+     *
+     * @return
+     */
+    public long getOpenDurationMs() {
+        return openDurationMs;
+    }
+
+    public CircuitBreaker setOpenDurationMs(long openDurationMs) {
+        this.openDurationMs = openDurationMs;
+        return this;
+    }
+
+    /*----------------------------------------------------------------------*/
+    private RollingWindow window() {
+        RollingWindow window = this.window;
+        if (window == null) {
+            synchronized (this) {
+                if (this.window == null) {
+                    this.window = new RollingWindow(windowMs, NUM_BUCKETS, 2);
+                }
+                window = this.window;
+            }
+        }
+        return window;
+    }
+
+    public State getState() {
+        return State.values()[state.get()];
+    }
+
+    private boolean transition(State from, State to) {
+        return state.compareAndSet(from.ordinal(), to.ordinal());
+    }
+
+    private void open() {
+        openedTimestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * Can a call be made to the server? Does not claim the half-open trial,
+     * use for server selection.
+     *
+     * @return
+     */
+    public boolean isAvailable() {
+        switch (getState()) {
+        case OPEN:
+            return System.currentTimeMillis() - openedTimestamp >= openDurationMs;
+        case HALF_OPEN:
+            return System.currentTimeMillis() - trialTimestamp.get() >= openDurationMs;
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * Asks for permission to make a call to the server; in half-open state,
+     * only the caller claiming the trial is allowed.
+     *
+     * @return
+     */
+    public boolean allowRequest() {
+        long now = System.currentTimeMillis();
+        switch (getState()) {
+        case OPEN:
+            if (now - openedTimestamp < openDurationMs) {
+                return false;
+            }
+            trialTimestamp.set(now);
+            return transition(State.OPEN, State.HALF_OPEN);
+        case HALF_OPEN: {
+            long trial = trialTimestamp.get();
+            return now - trial >= openDurationMs && trialTimestamp.compareAndSet(trial, now);
+        }
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * Records a successful call.
+     */
+    public void onSuccess() {
+        switch (getState()) {
+        case HALF_OPEN:
+            if (transition(State.HALF_OPEN, State.CLOSED)) {
+                window().reset();
+            }
+            break;
+        case CLOSED:
+            window().increment(COUNTER_SUCCESSES);
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Records a call failed with a transport error.
+     */
+    public void onFailure() {
+        switch (getState()) {
+        case HALF_OPEN:
+            open();
+            transition(State.HALF_OPEN, State.OPEN);
+            break;
+        case CLOSED: {
+            RollingWindow window = window();
+            window.increment(COUNTER_FAILURES);
+            long failures = window.sum(COUNTER_FAILURES);
+            long calls = failures + window.sum(COUNTER_SUCCESSES);
+            if (calls >= minimumNumberOfCalls && failures * 100 >= failureRateThreshold * calls) {
+                open();
+                transition(State.CLOSED, State.OPEN);
+            }
+            break;
+        }
+        default:
+            break;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        ToStringBuilder tsb = new ToStringBuilder(this);
+        tsb.append("state", getState()).append("failureRateThreshold", failureRateThreshold)
+                .append("minimumNumberOfCalls", minimumNumberOfCalls)
+                .append("windowMs", windowMs).append("openDurationMs", openDurationMs);
+        return tsb.toString();
+    }
+
+    /**
+     * Clones the configuration; the clone starts closed, with an empty window.
+     */
+    @Override
+    public CircuitBreaker clone() throws CloneNotSupportedException {
+        CircuitBreaker obj = (CircuitBreaker) super.clone();
+        obj.state = new AtomicInteger(State.CLOSED.ordinal());
+        obj.trialTimestamp = new AtomicLong();
+        obj.openedTimestamp = 0;
+        obj.window = null;
+        return obj;
+    }
+}
@@ -0,0 +1,754 @@
+package com.github.ddth.thriftpool;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.PooledObjectFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Lock-free {@link IPoolEngine}, in the style of HikariCP's
+ * {@code ConcurrentBag}.
+ *
+ * <ul>
+ * <li>Fast path: each thread first tries the object it returned last
+ * (thread-local).</li>
+ * <li>Then all pooled objects are scanned and claimed via CAS.</li>
+ * <li>When the pool is exhausted, borrowers wait on a hand-off queue; returned
+ * objects are handed directly to waiting borrowers.</li>
+ * <li>If {@link PoolConfig#getConnectorThreads()} is positive, new objects are
+ * created on dedicated connector threads (no more than there are waiting
+ * borrowers) rather than by the borrower: a borrower waits for whichever
+ * object becomes available first, a returned or a newly created one, and is
+ * not blocked behind a slow creation.</li>
+ * </ul>
+ *
+ * <p>
+ * Honours {@link PoolConfig} {@code maxActive}, {@code maxIdle},
+ * {@code minIdle}, {@code maxWaitTime}, {@code maxWaiters} and
+ * {@code testOnBorrow/testOnCreate/testWhileIdle}.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @param <I>
+ *            Thrift client interface
+ * @since 0.2.3
+ */
+public class ConcurrentBagPoolEngine<I> implements IPoolEngine<I> {
+
+    public final static IPoolEngineFactory FACTORY = new IPoolEngineFactory() {
+        @Override
+        public <T> IPoolEngine<T> createPoolEngine(PooledObjectFactory<T> objectFactory,
+                PoolConfig poolConfig) {
+            return new ConcurrentBagPoolEngine<T>(objectFactory, poolConfig);
+        }
+    };
+
+    private final static int STATE_REMOVED = -1, STATE_IDLE = 0, STATE_IN_USE = 1;
+
+    /**
+     * Max time (ns) a waiting borrower sleeps before re-checking the pool,
+     * e.g. for capacity freed by invalidated objects.
+     */
+    private final static long WAIT_SLICE_NS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final static long HOUSEKEEPING_PERIOD_MS = 10000;
+
+    /**
+     * Timer shared by all engines: only triggers housekeeping, which runs on
+     * each engine's own housekeeper thread, so that a slow validation or
+     * connection (e.g. to an unreachable server) does not stall the other
+     * engines.
+     */
+    private final static ScheduledExecutorService HOUSEKEEPING_TIMER = Executors
+            .newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true)
+                    .setNameFormat("thriftpool-housekeeping-timer-%d").build());
+
+    private final static class Entry<I> {
+        private final PooledObject<I> pooledObj;
+        private final AtomicInteger state = new AtomicInteger(STATE_IN_USE);
+
+        public Entry(PooledObject<I> pooledObj) {
+            this.pooledObj = pooledObj;
+        }
+
+        public I getObject() {
+            return pooledObj.getObject();
+        }
+    }
+
+    private final Logger LOGGER = LoggerFactory.getLogger(ConcurrentBagPoolEngine.class);
+
+    private final PooledObjectFactory<I> objectFactory;
+    private volatile int maxActive, maxIdle, minIdle, maxWaiters;
+    private volatile long maxWaitTimeMs;
+    private volatile boolean testOnBorrow, testOnCreate, testWhileIdle;
+
+    private final CopyOnWriteArrayList<Entry<I>> sharedList = new CopyOnWriteArrayList<Entry<I>>();
+    private final ThreadLocal<Entry<I>> lastUsed = new ThreadLocal<Entry<I>>();
+    private final SynchronousQueue<Entry<I>> handoffQueue = new SynchronousQueue<Entry<I>>(true);
+    private final AtomicInteger numTotal = new AtomicInteger(), numIdle = new AtomicInteger(),
+            numWaiters = new AtomicInteger();
+    private final ScheduledFuture<?> housekeeping;
+    private final ThreadPoolExecutor housekeeper, connector;
+    private final AtomicInteger numPendingCreates = new AtomicInteger();
+    private final AtomicLong createdCount = new AtomicLong(), destroyedCount = new AtomicLong();
+    private final LongAdder numBorrows = new LongAdder(), borrowWaitNs = new LongAdder();
+    private volatile boolean closed = false;
+
+    public ConcurrentBagPoolEngine(PooledObjectFactory<I> objectFactory, PoolConfig poolConfig) {
+        this.objectFactory = objectFactory;
+        this.maxActive = poolConfig.getMaxActive();
+        this.maxIdle = poolConfig.getMaxIdle();
+        this.minIdle = poolConfig.getMinIdle();
+        this.maxWaiters = poolConfig.getMaxWaiters();
+        this.maxWaitTimeMs = poolConfig.getMaxWaitTime();
+        this.testOnBorrow = poolConfig.isTestOnBorrow();
+        this.testOnCreate = poolConfig.isTestOnCreate();
+        this.testWhileIdle = poolConfig.isTestWhileIdle();
+        int connectorThreads = poolConfig.getConnectorThreads();
+        if (connectorThreads > 0) {
+            connector = new ThreadPoolExecutor(connectorThreads, connectorThreads, 60,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactoryBuilder().setDaemon(true)
+                            .setNameFormat("thriftpool-connector-%d").build());
+            connector.allowCoreThreadTimeOut(true);
+        } else {
+            connector = null;
+        }
+
+        // a single run at a time, runs triggered meanwhile are dropped; the
+        // thread is released between runs
+        housekeeper = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactoryBuilder().setDaemon(true)
+                        .setNameFormat("thriftpool-housekeeper-%d").build(),
+                new ThreadPoolExecutor.DiscardPolicy());
+        housekeeper.allowCoreThreadTimeOut(true);
+        final Runnable housekeepingTask = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    housekeep();
+                } catch (Exception e) {
+                    LOGGER.warn(e.getMessage(), e);
+                }
+            }
+        };
+        housekeeping = HOUSEKEEPING_TIMER.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                housekeeper.execute(housekeepingTask);
+            }
+        }, HOUSEKEEPING_PERIOD_MS, HOUSEKEEPING_PERIOD_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void assertOpen() {
+        if (closed) {
+            throw new IllegalStateException("Pool not open");
+        }
+    }
+
+    /*----------------------------------------------------------------------*/
+    /**
+     * Claims an idle entry via CAS.
+     *
+     * @param entry
+     * @return
+     */
+    private boolean claim(Entry<I> entry) {
+        if (entry.state.compareAndSet(STATE_IDLE, STATE_IN_USE)) {
+            numIdle.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Activates (and validates if configured) a claimed entry before handing
+     * it to the borrower. Destroys the entry on failure.
+     *
+     * @param entry
+     * @return
+     */
+    private boolean prepare(Entry<I> entry) {
+        try {
+            objectFactory.activateObject(entry.pooledObj);
+            if (testOnBorrow && !objectFactory.validateObject(entry.pooledObj)) {
+                destroy(entry);
+                return false;
+            }
+            return true;
+        } catch (Exception e) {
+            destroy(entry);
+            return false;
+        }
+    }
+
+    /**
+     * Scans the shared list for an idle entry.
+     *
+     * @return
+     */
+    private Entry<I> scan() {
+        for (Entry<I> entry : sharedList) {
+            if (entry.state.get() == STATE_IDLE && claim(entry)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reserves capacity for a new entry.
+     *
+     * @return {@code false} if pool is at max capacity
+     */
+    private boolean reserve() {
+        while (true) {
+            int total = numTotal.get();
+            int max = maxActive;
+            if (max >= 0 && total >= max) {
+                return false;
+            }
+            if (numTotal.compareAndSet(total, total + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Creates a new entry (in in-use state) if capacity allows.
+     *
+     * @return {@code null} if pool is at max capacity
+     * @throws Exception
+     */
+    private Entry<I> tryCreate() throws Exception {
+        return reserve() ? create() : null;
+    }
+
+    /**
+     * Creates a new entry (in in-use state) on a connector thread, if
+     * capacity allows and fewer creations than waiting borrowers are in
+     * progress. The entry is handed off to a waiting borrower, or left idle.
+     *
+     * @param waiting
+     *            is the caller counted as a waiting borrower?
+     * @return {@code true} if a creation has been started
+     */
+    private boolean tryCreateAsync(boolean waiting) {
+        int borrowers = numWaiters.get() + (waiting ? 0 : 1);
+        if (numPendingCreates.get() >= borrowers || !reserve()) {
+            return false;
+        }
+        numPendingCreates.incrementAndGet();
+        try {
+            connector.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (closed || numWaiters.get() == 0) {
+                            // borrowers served meanwhile (e.g. by returned
+                            // objects)
+                            numTotal.decrementAndGet();
+                            return;
+                        }
+                        Entry<I> entry = create();
+                        if (closed) {
+                            destroy(entry);
+                        } else {
+                            requite(entry);
+                        }
+                    } catch (Exception e) {
+                        LOGGER.warn("Cannot create pooled object: " + e.getMessage(), e);
+                    } finally {
+                        numPendingCreates.decrementAndGet();
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            numTotal.decrementAndGet();
+            numPendingCreates.decrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Creates a new entry (in in-use state), capacity must have been
+     * reserved.
+     *
+     * @return
+     * @throws Exception
+     */
+    private Entry<I> create() throws Exception {
+        PooledObject<I> pooledObj;
+        try {
+            pooledObj = objectFactory.makeObject();
+        } catch (Exception e) {
+            numTotal.decrementAndGet();
+            throw e;
+        }
+        createdCount.incrementAndGet();
+        Entry<I> entry = new Entry<I>(pooledObj);
+        sharedList.add(entry);
+        if (testOnCreate && !objectFactory.validateObject(pooledObj)) {
+            destroy(entry);
+            throw new NoSuchElementException("Unable to validate object");
+        }
+        return entry;
+    }
+
+    /**
+     * Destroys an entry that is owned (i.e. not idle) by the caller.
+     *
+     * @param entry
+     */
+    private void destroy(Entry<I> entry) {
+        if (entry.state.getAndSet(STATE_REMOVED) == STATE_REMOVED) {
+            return;
+        }
+        sharedList.remove(entry);
+        numTotal.decrementAndGet();
+        destroyedCount.incrementAndGet();
+        try {
+            objectFactory.destroyObject(entry.pooledObj);
+        } catch (Exception e) {
+            LOGGER.warn(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Puts an owned entry back to idle state, handing it off to a waiting
+     * borrower if any.
+     *
+     * @param entry
+     */
+    private void requite(Entry<I> entry) {
+        numIdle.incrementAndGet();
+        entry.state.set(STATE_IDLE);
+        lastUsed.set(entry);
+        for (int i = 0; numWaiters.get() > 0 && !closed; i++) {
+            if (entry.state.get() != STATE_IDLE || handoffQueue.offer(entry)) {
+                return;
+            }
+            if ((i & 0xff) == 0xff) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Puts an owned entry back to idle state without waiting for a borrower
+     * to take it (waiting borrowers find it when they re-check the pool).
+     * Used by housekeeping, which must not spin.
+     *
+     * @param entry
+     */
+    private void release(Entry<I> entry) {
+        numIdle.incrementAndGet();
+        entry.state.set(STATE_IDLE);
+        if (numWaiters.get() > 0) {
+            handoffQueue.offer(entry);
+        }
+    }
+
+    private Entry<I> findEntry(I obj) {
+        Entry<I> entry = lastUsed.get();
+        if (entry != null && entry.getObject() == obj) {
+            return entry;
+        }
+        for (Entry<I> e : sharedList) {
+            if (e.getObject() == obj) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /*----------------------------------------------------------------------*/
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public I borrowObject() throws Exception {
+        I obj = doBorrowObject();
+        numBorrows.increment();
+        return obj;
+    }
+
+    private I doBorrowObject() throws Exception {
+        assertOpen();
+
+        // fast path: the object this thread returned last
+        Entry<I> entry = lastUsed.get();
+        if (entry != null && claim(entry) && prepare(entry)) {
+            return entry.getObject();
+        }
+
+        while ((entry = scan()) != null) {
+            if (prepare(entry)) {
+                return entry.getObject();
+            }
+        }
+        boolean creating = false;
+        if (connector == null) {
+            if ((entry = tryCreate()) != null) {
+                return entry.getObject();
+            }
+        } else {
+            creating = tryCreateAsync(false);
+        }
+
+        // pool exhausted (or object being created), wait
+        while (true) {
+            int waiters = numWaiters.get();
+            int max = maxWaiters;
+            if (!creating && max >= 0 && waiters >= max) {
+                throw new NoSuchElementException("Too many threads waiting for an idle object");
+            }
+            if (numWaiters.compareAndSet(waiters, waiters + 1)) {
+                break;
+            }
+        }
+        long startNs = System.nanoTime();
+        try {
+            long waitMs = maxWaitTimeMs;
+            long deadline = waitMs < 0 ? Long.MAX_VALUE : startNs
+                    + TimeUnit.MILLISECONDS.toNanos(waitMs);
+            while (true) {
+                // re-check now that we are registered as a waiter
+                while ((entry = scan()) != null) {
+                    if (prepare(entry)) {
+                        return entry.getObject();
+                    }
+                }
+                if (connector == null) {
+                    if ((entry = tryCreate()) != null) {
+                        return entry.getObject();
+                    }
+                } else {
+                    tryCreateAsync(true);
+                }
+
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new NoSuchElementException("Timeout waiting for idle object");
+                }
+                entry = handoffQueue.poll(Math.min(remaining, WAIT_SLICE_NS),
+                        TimeUnit.NANOSECONDS);
+                if (entry != null && claim(entry) && prepare(entry)) {
+                    return entry.getObject();
+                }
+                assertOpen();
+            }
+        } finally {
+            numWaiters.decrementAndGet();
+            borrowWaitNs.add(System.nanoTime() - startNs);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * A new object is created on the caller's thread, even if
+     * {@link PoolConfig#getConnectorThreads()} is positive.
+     * </p>
+     */
+    @Override
+    public I tryBorrowObject() throws Exception {
+        assertOpen();
+        Entry<I> entry;
+        while ((entry = scan()) != null) {
+            if (prepare(entry)) {
+                numBorrows.increment();
+                return entry.getObject();
+            }
+        }
+        if ((entry = tryCreate()) != null) {
+            numBorrows.increment();
+            return entry.getObject();
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void returnObject(I obj) throws Exception {
+        Entry<I> entry = findEntry(obj);
+        if (entry == null) {
+            throw new IllegalStateException("Returned object not currently part of this pool");
+        }
+        if (entry.state.get() != STATE_IN_USE) {
+            throw new IllegalStateException(
+                    "Object has already been returned to this pool or is invalid");
+        }
+        if (closed) {
+            destroy(entry);
+            return;
+        }
+        try {
+            objectFactory.passivateObject(entry.pooledObj);
+        } catch (Exception e) {
+            destroy(entry);
+            return;
+        }
+        int max = maxIdle;
+        if (max >= 0 && numIdle.get() >= max && numWaiters.get() == 0) {
+            destroy(entry);
+            return;
+        }
+        max = maxActive;
+        if (max >= 0 && numTotal.get() > max) {
+            // maxActive has been lowered
+            destroy(entry);
+            return;
+        }
+        requite(entry);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void invalidateObject(I obj) throws Exception {
+        Entry<I> entry = findEntry(obj);
+        if (entry == null) {
+            throw new IllegalStateException("Invalidated object not currently part of this pool");
+        }
+        destroy(entry);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addObject() throws Exception {
+        assertOpen();
+        Entry<I> entry = tryCreate();
+        if (entry != null) {
+            requite(entry);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumIdle() {
+        return numIdle.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumActive() {
+        return Math.max(0, numTotal.get() - numIdle.get());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumWaiters() {
+        return numWaiters.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxActive() {
+        return maxActive;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMaxActive(int maxActive) {
+        this.maxActive = maxActive;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMaxIdle(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMinIdle(int minIdle) {
+        this.minIdle = minIdle;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMaxWaitTime() {
+        return maxWaitTimeMs;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMaxWaitTime(long maxWaitTime) {
+        this.maxWaitTimeMs = maxWaitTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getDestroyedCount() {
+        return destroyedCount.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * Mean since the pool was created (borrowers served without waiting
+     * count as no wait).
+     * </p>
+     */
+    @Override
+    public long getMeanBorrowWaitTimeMillis() {
+        long n = numBorrows.sum();
+        return n > 0 ? TimeUnit.NANOSECONDS.toMillis(borrowWaitNs.sum() / n) : 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        for (Entry<I> entry : sharedList) {
+            if (claim(entry)) {
+                destroy(entry);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            housekeeping.cancel(false);
+            housekeeper.shutdown();
+            if (connector != null) {
+                connector.shutdown();
+            }
+            clear();
+        }
+    }
+
+    /*----------------------------------------------------------------------*/
+    /**
+     * Validates idle objects (if {@code testWhileIdle}), trims idle objects
+     * above {@code maxIdle} (or {@code maxActive}) and creates idle objects up to
+     * {@code minIdle}.
+     */
+    private void housekeep() throws Exception {
+        if (testWhileIdle) {
+            for (Entry<I> entry : sharedList) {
+                if (closed) {
+                    return;
+                }
+                if (claim(entry)) {
+                    if (objectFactory.validateObject(entry.pooledObj)) {
+                        release(entry);
+                    } else {
+                        destroy(entry);
+                    }
+                }
+            }
+        }
+
+        int max = maxIdle;
+        if (max >= 0) {
+            for (Entry<I> entry : sharedList) {
+                if (numIdle.get() <= max) {
+                    break;
+                }
+                if (claim(entry)) {
+                    destroy(entry);
+                }
+            }
+        }
+        max = maxActive;
+        if (max >= 0) {
+            // maxActive has been lowered
+            for (Entry<I> entry : sharedList) {
+                if (numTotal.get() <= max) {
+                    break;
+                }
+                if (claim(entry)) {
+                    destroy(entry);
+                }
+            }
+        }
+
+        while (!closed && numIdle.get() < minIdle) {
+            Entry<I> entry = tryCreate();
+            if (entry == null) {
+                break;
+            }
+            release(entry);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.github.ddth.thriftpool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+/**
+ * Immutable ketama-style consistent-hash ring over servers.
+ *
+ * <p>
+ * Each server is placed on the ring at {@code 160 * weight} points derived
+ * from MD5 digests of its {@code host:port} (4 points per digest, as ketama
+ * does), so adding or removing a server only remaps the keys owned by that
+ * server, regardless of its position in the host list. A key is owned by the
+ * first point clockwise from the key's hash; next distinct servers clockwise
+ * are the key's failover servers.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+public final class ConsistentHashRing {
+
+    /**
+     * Number of ring points per unit of server weight.
+     */
+    public final static int POINTS_PER_WEIGHT = 160;
+
+    private final int numServers;
+    private final long[] points;
+    private final int[] owners;
+
+    /**
+     * Builds the ring.
+     *
+     * @param serverNodes
+     *            servers are identified by {@code host:port} (or
+     *            {@code #index} if unknown)
+     */
+    public ConsistentHashRing(List<ServerNode> serverNodes) {
+        this.numServers = serverNodes.size();
+        List<long[]> ring = new ArrayList<long[]>();
+        for (ServerNode node : serverNodes) {
+            String id = node.toString();
+            int numDigests = POINTS_PER_WEIGHT * node.getWeight() / 4;
+            for (int i = 0; i < numDigests; i++) {
+                byte[] digest = md5(id + "-" + i);
+                for (int h = 0; h < 4; h++) {
+                    ring.add(new long[] { hash(digest, h), node.getIndex() });
+                }
+            }
+        }
+        long[][] sorted = ring.toArray(new long[ring.size()][]);
+        Arrays.sort(sorted, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return Long.compare(a[0], b[0]);
+            }
+        });
+        points = new long[sorted.length];
+        owners = new int[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            points[i] = sorted[i][0];
+            owners[i] = (int) sorted[i][1];
+        }
+    }
+
+    private static byte[] md5(String value) {
+        return Hashing.md5().hashString(value, Charsets.UTF_8).asBytes();
+    }
+
+    /**
+     * Ketama hash: the {@code n}-th little-endian unsigned 32-bit word of an
+     * MD5 digest.
+     */
+    private static long hash(byte[] digest, int n) {
+        return ((long) (digest[3 + n * 4] & 0xFF) << 24)
+                | ((long) (digest[2 + n * 4] & 0xFF) << 16)
+                | ((long) (digest[1 + n * 4] & 0xFF) << 8) | (digest[n * 4] & 0xFF);
+    }
+
+    private int findPoint(String key) {
+        long hash = hash(md5(key), 0);
+        int i = Arrays.binarySearch(points, hash);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return i < points.length ? i : 0;
+    }
+
+    public int getNumServers() {
+        return numServers;
+    }
+
+    /**
+     * Gets the server owning a key.
+     *
+     * @param key
+     * @return server index, {@code -1} if the ring is empty
+     */
+    public int getServer(String key) {
+        return points.length > 0 ? owners[findPoint(key)] : -1;
+    }
+
+    /**
+     * Gets the servers of a key in ring order: the owner first, followed by
+     * its failover servers.
+     *
+     * @param key
+     * @param maxServers
+     * @return distinct server indexes
+     */
+    public int[] getServers(String key, int maxServers) {
+        int n = Math.min(maxServers, numServers);
+        if (points.length == 0 || n <= 0) {
+            return new int[0];
+        }
+        int[] result = new int[n];
+        int count = 0;
+        boolean[] seen = new boolean[numServers];
+        for (int i = findPoint(key), steps = 0; count < n && steps < points.length; i = (i + 1)
+                % points.length, steps++) {
+            int owner = owners[i];
+            if (!seen[owner]) {
+                seen[owner] = true;
+                result[count++] = owner;
+            }
+        }
+        return count == n ? result : Arrays.copyOf(result, count);
+    }
+}
@@ -0,0 +1,272 @@
+package com.github.ddth.thriftpool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.Context;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.ddth.thriftpool.AbstractTProtocolFactory.HostAndPort;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * {@link IServerListProvider} resolving the server list from DNS, refreshed
+ * every {@code refreshIntervalMs}:
+ *
+ * <ul>
+ * <li>SRV records (e.g. {@code _thrift._tcp.example.com}): servers are the
+ * records' targets and ports, weighted by the records' weights. Only the
+ * records of the lowest priority are used.</li>
+ * <li>A records of a host name: servers are the addresses, with a fixed
+ * port.</li>
+ * </ul>
+ *
+ * <p>
+ * Lookups go through JNDI's DNS provider, which does not expose record TTLs:
+ * set {@code refreshIntervalMs} to about the records' TTL. Lookups are not
+ * cached by the JVM's {@code InetAddress} cache. Servers are sorted, so that
+ * DNS round-robin ordering is not seen as a change. A failed lookup or an
+ * empty answer keeps the current list.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+public class DnsServerListProvider extends AbstractServerListProvider {
+
+    public final static long DEFAULT_REFRESH_INTERVAL_MS = 30000;
+    public final static int DEFAULT_TIMEOUT_MS = 1000;
+
+    private final Logger LOGGER = LoggerFactory.getLogger(DnsServerListProvider.class);
+
+    private final String name;
+    private final int port;
+    private String dnsServer;
+    private long refreshIntervalMs = DEFAULT_REFRESH_INTERVAL_MS;
+    private int timeoutMs = DEFAULT_TIMEOUT_MS;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Resolves SRV records.
+     *
+     * @param srvName
+     *            e.g. {@code _thrift._tcp.example.com}
+     */
+    public DnsServerListProvider(String srvName) {
+        this.name = srvName;
+        this.port = -1;
+    }
+
+    /**
+     * Resolves A records.
+     *
+     * @param hostName
+     * @param port
+     *            port of the servers
+     */
+    public DnsServerListProvider(String hostName, int port) {
+        this.name = hostName;
+        this.port = port;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return {@code -1} if resolving SRV records
+     */
+    public int getPort() {
+        return port;
+    }
+
+    public String getDnsServer() {
+        return dnsServer;
+    }
+
+    /**
+     * Sets the DNS server(s) to query, e.g. {@code dns://10.0.0.2} or
+     * {@code dns://127.0.0.1:5353} (space separated if several);
+     * {@code null} (default) means the system's DNS servers.
+     *
+     * @param dnsServer
+     * @return
+     */
+    public DnsServerListProvider setDnsServer(String dnsServer) {
+        this.dnsServer = dnsServer;
+        return this;
+    }
+
+    public long getRefreshIntervalMs() {
+        return refreshIntervalMs;
+    }
+
+    /**
+     * Must be set before {@link #start(AbstractTProtocolFactory)}.
+     *
+     * @param refreshIntervalMs
+     * @return
+     */
+    public DnsServerListProvider setRefreshIntervalMs(long refreshIntervalMs) {
+        this.refreshIntervalMs = refreshIntervalMs;
+        return this;
+    }
+
+    public int getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    /**
+     * Timeout of a DNS query (retried once).
+     *
+     * @param timeoutMs
+     * @return
+     */
+    public DnsServerListProvider setTimeoutMs(int timeoutMs) {
+        this.timeoutMs = timeoutMs;
+        return this;
+    }
+
+    /*----------------------------------------------------------------------*/
+    private static String stripDot(String host) {
+        return host.endsWith(".") ? host.substring(0, host.length() - 1) : host;
+    }
+
+    /**
+     * Parses SRV records ({@code priority weight port target}), keeping those
+     * of the lowest priority.
+     *
+     * @param records
+     * @return
+     */
+    static List<HostAndPort> parseSrvRecords(List<String> records) {
+        List<HostAndPort> result = new ArrayList<HostAndPort>();
+        int minPriority = Integer.MAX_VALUE;
+        for (String record : records) {
+            String[] tokens = record.trim().split("\\s+");
+            int priority, weight, port;
+            try {
+                priority = Integer.parseInt(tokens[0]);
+                weight = Integer.parseInt(tokens[1]);
+                port = Integer.parseInt(tokens[2]);
+            } catch (RuntimeException e) {
+                continue;
+            }
+            if (tokens.length != 4 || priority > minPriority) {
+                continue;
+            }
+            if (priority < minPriority) {
+                minPriority = priority;
+                result.clear();
+            }
+            result.add(new HostAndPort(stripDot(tokens[3]), port, Math.max(1, weight)));
+        }
+        return result;
+    }
+
+    private List<String> lookup(String type) throws NamingException {
+        Hashtable<String, String> env = new Hashtable<String, String>();
+        env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.dns.DnsContextFactory");
+        if (dnsServer != null) {
+            env.put(Context.PROVIDER_URL, dnsServer);
+        }
+        env.put("com.sun.jndi.dns.timeout.initial", String.valueOf(timeoutMs));
+        env.put("com.sun.jndi.dns.timeout.retries", "1");
+        List<String> result = new ArrayList<String>();
+        DirContext ctx = new InitialDirContext(env);
+        try {
+            Attribute attr = ctx.getAttributes(name, new String[] { type }).get(type);
+            if (attr != null) {
+                NamingEnumeration<?> values = attr.getAll();
+                while (values.hasMore()) {
+                    result.add(String.valueOf(values.next()));
+                }
+            }
+        } catch (NameNotFoundException e) {
+            // no such name: empty list
+        } finally {
+            ctx.close();
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected List<HostAndPort> load() throws NamingException {
+        List<HostAndPort> result;
+        if (port < 0) {
+            result = parseSrvRecords(lookup("SRV"));
+        } else {
+            result = new ArrayList<HostAndPort>();
+            for (String address : lookup("A")) {
+                result.add(new HostAndPort(address, port));
+            }
+        }
+        Collections.sort(result, new Comparator<HostAndPort>() {
+            @Override
+            public int compare(HostAndPort a, HostAndPort b) {
+                int c = a.host.compareTo(b.host);
+                return c != 0 ? c : Integer.compare(a.port, b.port);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doStart() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactoryBuilder().setDaemon(true)
+                        .setNameFormat("thriftpool-serverlist-dns-%d").build());
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    reload();
+                } catch (Exception e) {
+                    LOGGER.warn("Cannot resolve server list [" + name + "]: " + e.getMessage());
+                }
+            }
+        }, refreshIntervalMs, refreshIntervalMs, TimeUnit.MILLISECONDS);
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doStop() {
+        scheduler.shutdownNow();
+        scheduler = null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        ToStringBuilder tsb = new ToStringBuilder(this);
+        tsb.append("name", name).append("type", port < 0 ? "SRV" : "A").append("port", port)
+                .append("dnsServer", dnsServer).append("refreshIntervalMs", refreshIntervalMs);
+        return tsb.toString();
+    }
+}
@@ -0,0 +1,76 @@
+package com.github.ddth.thriftpool;
+
+import java.lang.reflect.InvocationTargetException;
+
+import org.apache.commons.lang3.reflect.MethodUtils;
+import org.apache.thrift.TServiceClient;
+
+/**
+ * Probes servers implementing fb303's {@code FacebookService}.
+ *
+ * <p>
+ * The method is called via reflection so that fb303 is not a dependency of
+ * this library:
+ * </p>
+ * <ul>
+ * <li>{@link #GET_STATUS}: healthy if {@code getStatus()} returns
+ * {@code ALIVE} or {@code WARNING}.</li>
+ * <li>{@link #ALIVE_SINCE}: healthy if {@code aliveSince()} returns a positive
+ * value.</li>
+ * </ul>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+public class Fb303HealthProbe implements IHealthProbe {
+
+    public final static Fb303HealthProbe GET_STATUS = new Fb303HealthProbe("getStatus");
+    public final static Fb303HealthProbe ALIVE_SINCE = new Fb303HealthProbe("aliveSince");
+
+    private final String methodName;
+
+    private Fb303HealthProbe(String methodName) {
+        this.methodName = methodName;
+    }
+
+    public String getMethodName() {
+        return methodName;
+    }
+
+    /**
+     * Does a client class have the probed method?
+     *
+     * @param clientClass
+     * @return
+     */
+    public boolean supports(Class<?> clientClass) {
+        return MethodUtils.getAccessibleMethod(clientClass, methodName) != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isHealthy(TServiceClient client) throws Exception {
+        Object result;
+        try {
+            result = MethodUtils.invokeMethod(client, methodName);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+        if (result instanceof Number) {
+            return ((Number) result).longValue() > 0;
+        }
+        String status = String.valueOf(result);
+        return "ALIVE".equals(status) || "WARNING".equals(status);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return Fb303HealthProbe.class.getSimpleName() + "[" + methodName + "]";
+    }
+}
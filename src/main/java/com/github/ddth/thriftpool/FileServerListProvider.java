@@ -0,0 +1,226 @@
+package com.github.ddth.thriftpool;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.ddth.thriftpool.AbstractTProtocolFactory.HostAndPort;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * {@link IServerListProvider} reading the server list from a local file,
+ * reloaded when the file changes.
+ *
+ * <p>
+ * The file lists servers as {@code host:port} or {@code host:port:weight},
+ * separated by commas, spaces or new lines; {@code #} starts a comment.
+ * </p>
+ *
+ * <p>
+ * Changes are detected with a {@link WatchService} on the file's directory,
+ * and by checking the file's modification time and size every
+ * {@code pollIntervalMs} (for file systems where watch events are late or
+ * missing). Replace the file atomically (write a temporary file, then
+ * rename it) so that a half-written list is never read; an empty or missing
+ * file is ignored.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+public class FileServerListProvider extends AbstractServerListProvider {
+
+    public final static long DEFAULT_POLL_INTERVAL_MS = 5000;
+    public final static long DEFAULT_SETTLE_MS = 100;
+
+    private final Logger LOGGER = LoggerFactory.getLogger(FileServerListProvider.class);
+
+    private final Path file;
+    private long pollIntervalMs = DEFAULT_POLL_INTERVAL_MS;
+    private long settleMs = DEFAULT_SETTLE_MS;
+    private WatchService watchService;
+    private ExecutorService watcher;
+
+    /**
+     * Modification time and size of the file when last read.
+     */
+    private long lastModified = -1, lastSize = -1;
+
+    public FileServerListProvider(Path file) {
+        this.file = file.toAbsolutePath();
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public long getPollIntervalMs() {
+        return pollIntervalMs;
+    }
+
+    /**
+     * Interval between checks of the file's modification time and size, in
+     * addition to watch events. Must be set before
+     * {@link #start(AbstractTProtocolFactory)}.
+     *
+     * @param pollIntervalMs
+     * @return
+     */
+    public FileServerListProvider setPollIntervalMs(long pollIntervalMs) {
+        this.pollIntervalMs = pollIntervalMs;
+        return this;
+    }
+
+    public long getSettleMs() {
+        return settleMs;
+    }
+
+    /**
+     * Delay between a watch event and reloading the file, so that the events
+     * of a single update are handled once.
+     *
+     * @param settleMs
+     * @return
+     */
+    public FileServerListProvider setSettleMs(long settleMs) {
+        this.settleMs = settleMs;
+        return this;
+    }
+
+    /*----------------------------------------------------------------------*/
+    /**
+     * Parses the content of a server list file.
+     *
+     * @param content
+     * @return
+     */
+    public static List<HostAndPort> parse(String content) {
+        StringBuilder sb = new StringBuilder();
+        for (String line : content.split("\\r?\\n")) {
+            int comment = line.indexOf('#');
+            sb.append(comment >= 0 ? line.substring(0, comment) : line).append(',');
+        }
+        String hostsAndPorts = sb.toString().replaceAll("^[,\\s]+|[,\\s]+$", "");
+        return hostsAndPorts.isEmpty() ? Collections.<HostAndPort> emptyList()
+                : AbstractTProtocolFactory.parseHostsAndPorts(hostsAndPorts);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected List<HostAndPort> load() throws IOException {
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        byte[] content = Files.readAllBytes(file);
+        lastModified = modified;
+        lastSize = content.length;
+        return parse(new String(content, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Has the file changed since it was last read?
+     */
+    private boolean isModified() {
+        try {
+            return Files.getLastModifiedTime(file).toMillis() != lastModified
+                    || Files.size(file) != lastSize;
+        } catch (IOException e) {
+            // missing file, keep the current list
+            return false;
+        }
+    }
+
+    private void watch(WatchService watchService) {
+        Path fileName = file.getFileName();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                WatchKey key = watchService.poll(pollIntervalMs, TimeUnit.MILLISECONDS);
+                boolean changed = false;
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        changed |= event.kind() == StandardWatchEventKinds.OVERFLOW
+                                || fileName.equals(event.context());
+                    }
+                    key.reset();
+                    if (changed && settleMs > 0) {
+                        Thread.sleep(settleMs);
+                    }
+                }
+                if (changed || isModified()) {
+                    reload();
+                }
+            } catch (InterruptedException e) {
+                break;
+            } catch (ClosedWatchServiceException e) {
+                break;
+            } catch (Exception e) {
+                LOGGER.warn("Cannot reload server list from [" + file + "]: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doStart() throws IOException {
+        final WatchService watchService = FileSystems.getDefault().newWatchService();
+        try {
+            file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            watchService.close();
+            throw e;
+        }
+        this.watchService = watchService;
+        watcher = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("thriftpool-serverlist-file-%d").build());
+        watcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                watch(watchService);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doStop() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            LOGGER.warn(e.getMessage(), e);
+        }
+        watcher.shutdownNow();
+        watchService = null;
+        watcher = null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        ToStringBuilder tsb = new ToStringBuilder(this);
+        tsb.append("file", file).append("pollIntervalMs", pollIntervalMs);
+        return tsb.toString();
+    }
+}
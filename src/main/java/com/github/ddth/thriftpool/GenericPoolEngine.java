@@ -0,0 +1,124 @@
+package com.github.ddth.thriftpool;
+
+import java.util.NoSuchElementException;
+
+import org.apache.commons.pool2.PooledObjectFactory;
+import org.apache.commons.pool2.impl.GenericObjectPool;
+
+/**
+ * {@link IPoolEngine} backed by commons-pool2's {@link GenericObjectPool}.
+ * This is the default pool engine.
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @param <I>
+ *            Thrift client interface
+ * @since 0.2.3
+ */
+public class GenericPoolEngine<I> extends GenericObjectPool<I> implements IPoolEngine<I> {
+
+    public final static IPoolEngineFactory FACTORY = new IPoolEngineFactory() {
+        @Override
+        public <T> IPoolEngine<T> createPoolEngine(PooledObjectFactory<T> objectFactory,
+                PoolConfig poolConfig) {
+            return new GenericPoolEngine<T>(objectFactory, poolConfig);
+        }
+    };
+
+    private int maxWaiters;
+
+    public GenericPoolEngine(PooledObjectFactory<I> objectFactory, PoolConfig poolConfig) {
+        super(objectFactory);
+        setBlockWhenExhausted(true);
+        setTestOnReturn(false);
+        setMaxTotal(poolConfig.getMaxActive());
+        setMaxIdle(poolConfig.getMaxIdle());
+        setMinIdle(poolConfig.getMinIdle());
+        setMaxWaitMillis(poolConfig.getMaxWaitTime());
+        setTestOnBorrow(poolConfig.isTestOnBorrow());
+        setTestOnCreate(poolConfig.isTestOnCreate());
+        setTestWhileIdle(poolConfig.isTestWhileIdle());
+        setTimeBetweenEvictionRunsMillis(10000);
+        maxWaiters = poolConfig.getMaxWaiters();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * {@link PoolConfig#getMaxWaiters()} is checked on a best-effort basis.
+     * </p>
+     */
+    @Override
+    public I borrowObject() throws Exception {
+        if (maxWaiters >= 0 && getNumIdle() == 0 && getNumWaiters() >= maxWaiters) {
+            throw new NoSuchElementException("Too many threads waiting for an idle object");
+        }
+        return super.borrowObject();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public I tryBorrowObject() throws Exception {
+        try {
+            return super.borrowObject(0);
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * Objects returned while the pool holds more than {@code maxActive}
+     * objects (after {@link #setMaxActive(int)} lowered it) are destroyed.
+     * </p>
+     */
+    @Override
+    public void returnObject(I obj) {
+        int max = getMaxTotal();
+        if (max >= 0 && getNumActive() + getNumIdle() > max) {
+            try {
+                invalidateObject(obj);
+                return;
+            } catch (Exception e) {
+                // fall back to a normal return
+            }
+        }
+        super.returnObject(obj);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxActive() {
+        return getMaxTotal();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMaxActive(int maxActive) {
+        setMaxTotal(maxActive);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMaxWaitTime() {
+        return getMaxWaitMillis();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMaxWaitTime(long maxWaitTime) {
+        setMaxWaitMillis(maxWaitTime);
+    }
+}
@@ -0,0 +1,213 @@
+package com.github.ddth.thriftpool;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.reflect.ConstructorUtils;
+import org.apache.thrift.TServiceClient;
+import org.apache.thrift.protocol.TProtocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Active health checking: every {@code intervalMs}, probes each server of a
+ * pool (see {@link IHealthProbe}, default {@link Fb303HealthProbe#GET_STATUS})
+ * on a connection dedicated to health checking.
+ *
+ * <p>
+ * A server is marked unhealthy after {@code unhealthyThreshold} consecutive
+ * failed probes, and healthy again after {@code healthyThreshold} consecutive
+ * successful probes. Unhealthy servers are skipped by server selection, and
+ * pooled connections to them fail validation (see
+ * {@link PoolConfig#setTestOnBorrow(boolean)},
+ * {@link PoolConfig#setTestWhileIdle(boolean)}).
+ * </p>
+ *
+ * <p>
+ * Servers are probed one after another on a thread dedicated to the pool's
+ * health checks, so a probe must be cheap; a hanging server delays the others
+ * by up to the socket timeout of the {@link ITProtocolFactory}.
+ * </p>
+ *
+ * <p>
+ * An instance belongs to a single pool, see
+ * {@link ThriftClientPool#setHealthChecker(HealthChecker)}. Settings must not
+ * be changed once in use.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+public class HealthChecker {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(HealthChecker.class);
+
+    public final static long DEFAULT_INTERVAL_MS = 5000;
+    public final static int DEFAULT_UNHEALTHY_THRESHOLD = 2;
+    public final static int DEFAULT_HEALTHY_THRESHOLD = 1;
+
+    private long intervalMs = DEFAULT_INTERVAL_MS;
+    private int unhealthyThreshold = DEFAULT_UNHEALTHY_THRESHOLD;
+    private int healthyThreshold = DEFAULT_HEALTHY_THRESHOLD;
+    private IHealthProbe probe = Fb303HealthProbe.GET_STATUS;
+
+    /**
+     * Dedicated health-check connection of each server.
+     */
+    private final Map<ServerNode, TServiceClient> connections = new HashMap<ServerNode, TServiceClient>();
+
+    public HealthChecker() {
+    }
+
+    public HealthChecker(IHealthProbe probe) {
+        this.probe = probe;
+    }
+
+    public long getIntervalMs() {
+        return intervalMs;
+    }
+
+    public HealthChecker setIntervalMs(long intervalMs) {
+        this.intervalMs = intervalMs;
+        return this;
+    }
+
+    /**
+     * Number of consecutive failed probes before a server is marked
+     * unhealthy.
+     *
+     * @return
+     */
+    public int getUnhealthyThreshold() {
+        return unhealthyThreshold;
+    }
+
+    public HealthChecker setUnhealthyThreshold(int unhealthyThreshold) {
+        this.unhealthyThreshold = unhealthyThreshold;
+        return this;
+    }
+
+    /**
+     * Number of consecutive successful probes before an unhealthy server is
+     * marked healthy.
+     *
+     * @return
+     */
+    public int getHealthyThreshold() {
+        return healthyThreshold;
+    }
+
+    public HealthChecker setHealthyThreshold(int healthyThreshold) {
+        this.healthyThreshold = healthyThreshold;
+        return this;
+    }
+
+    public IHealthProbe getProbe() {
+        return probe;
+    }
+
+    public HealthChecker setProbe(IHealthProbe probe) {
+        this.probe = probe;
+        return this;
+    }
+
+    /*----------------------------------------------------------------------*/
+    private static void close(TServiceClient client) {
+        try {
+            client.getInputProtocol().getTransport().close();
+        } catch (Exception e) {
+        }
+    }
+
+    /**
+     * Probes a server.
+     *
+     * @param node
+     * @param tprotocolFactory
+     * @param clientClass
+     * @return
+     */
+    private boolean probe(ServerNode node, ITProtocolFactory tprotocolFactory,
+            Class<? extends TServiceClient> clientClass) {
+        TServiceClient client = connections.get(node);
+        try {
+            if (client == null) {
+                TProtocol protocol = node.createProtocol(tprotocolFactory);
+                client = ConstructorUtils.invokeConstructor(clientClass, protocol);
+                connections.put(node, client);
+            }
+            if (probe.isHealthy(client)) {
+                return true;
+            }
+        } catch (Exception e) {
+            LOGGER.debug("Health probe failed [" + node + "]: " + e.getMessage());
+        }
+        if (client != null) {
+            connections.remove(node);
+            close(client);
+        }
+        return false;
+    }
+
+    /**
+     * Probes all servers and updates their health. Called by the pool every
+     * {@code intervalMs}.
+     *
+     * @param serverNodes
+     * @param tprotocolFactory
+     * @param clientClass
+     */
+    synchronized void checkAll(List<ServerNode> serverNodes, ITProtocolFactory tprotocolFactory,
+            Class<? extends TServiceClient> clientClass) {
+        for (ServerNode node : serverNodes) {
+            if (probe(node, tprotocolFactory, clientClass)) {
+                node.numHealthCheckFailures = 0;
+                node.numHealthCheckSuccesses++;
+                if (!node.isHealthy() && node.numHealthCheckSuccesses >= healthyThreshold) {
+                    node.setHealthy(true);
+                    LOGGER.info("Server is healthy: " + node);
+                }
+            } else {
+                node.numHealthCheckSuccesses = 0;
+                node.numHealthCheckFailures++;
+                if (node.isHealthy() && node.numHealthCheckFailures >= unhealthyThreshold) {
+                    node.setHealthy(false);
+                    LOGGER.warn("Server is unhealthy: " + node);
+                }
+            }
+        }
+        // servers no longer known to the pool
+        for (Iterator<Map.Entry<ServerNode, TServiceClient>> it = connections.entrySet()
+                .iterator(); it.hasNext();) {
+            Map.Entry<ServerNode, TServiceClient> entry = it.next();
+            if (!serverNodes.contains(entry.getKey())) {
+                close(entry.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Closes all health-check connections. Called when the pool is destroyed.
+     */
+    synchronized void close() {
+        for (TServiceClient client : connections.values()) {
+            close(client);
+        }
+        connections.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        ToStringBuilder tsb = new ToStringBuilder(this);
+        tsb.append("intervalMs", intervalMs).append("unhealthyThreshold", unhealthyThreshold)
+                .append("healthyThreshold", healthyThreshold).append("probe", probe);
+        return tsb.toString();
+    }
+}
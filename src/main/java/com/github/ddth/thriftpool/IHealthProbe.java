@@ -0,0 +1,27 @@
+package com.github.ddth.thriftpool;
+
+import org.apache.thrift.TServiceClient;
+
+/**
+ * A cheap call made by a {@link HealthChecker} to find out whether a server is
+ * healthy.
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+public interface IHealthProbe {
+
+    /**
+     * Probes a server.
+     *
+     * @param client
+     *            a client of the pool's client class, on a connection
+     *            dedicated to health checking
+     * @return {@code true} if the server is healthy
+     * @throws Exception
+     *             the server is considered unhealthy, and the connection is
+     *             closed
+     */
+    public boolean isHealthy(TServiceClient client) throws Exception;
+
+}
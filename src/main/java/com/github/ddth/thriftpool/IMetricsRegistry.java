@@ -0,0 +1,109 @@
+package com.github.ddth.thriftpool;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Receives the metrics of a {@link ThriftClientPool}, see
+ * {@link ThriftClientPool#setMetricsRegistry(IMetricsRegistry)}.
+ *
+ * <p>
+ * Methods are called on the calling threads of the pool, so implementations
+ * must be thread-safe and cheap (no allocation, no blocking). Per-method
+ * metrics are resolved once per method when the pool is initialized (see
+ * {@link #methodMetrics(String)}), so that calls do no lookup by name.
+ * {@link NoopMetricsRegistry} (default) disables metrics,
+ * {@link SimpleMetricsRegistry} keeps them in memory.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+public interface IMetricsRegistry {
+
+    public final static String GAUGE_ACTIVE = "pool.active";
+    public final static String GAUGE_IDLE = "pool.idle";
+    public final static String GAUGE_WAITERS = "pool.waiters";
+    public final static String GAUGE_MAX_ACTIVE = "pool.maxActive";
+
+    /**
+     * Metrics of a method, see {@link IMetricsRegistry#methodMetrics(String)}.
+     *
+     * @author Thanh Nguyen <btnguyen2k@gmail.com>
+     * @since 0.2.3
+     */
+    public static interface IMethodMetrics {
+        /**
+         * Records an RPC of the method made on a server.
+         *
+         * @param node
+         * @param latencyNs
+         * @param failed
+         *            has the call failed with a transport error?
+         */
+        public void recordCall(ServerNode node, long latencyNs, boolean failed);
+
+        /**
+         * Records a retry of a failed RPC of the method.
+         *
+         * @param node
+         *            server of the failed attempt
+         */
+        public void recordRetry(ServerNode node);
+    }
+
+    /**
+     * Records the time spent borrowing a client from the pool.
+     *
+     * @param waitNs
+     * @param success
+     *            {@code false} if no client could be borrowed (e.g. timeout)
+     */
+    public void recordBorrow(long waitNs, boolean success);
+
+    /**
+     * Gets the metrics of a method. Called once per method of the client
+     * interface when the pool is initialized; the pool records the method's
+     * calls and retries on the returned object.
+     *
+     * @param methodName
+     * @return
+     */
+    public IMethodMetrics methodMetrics(String methodName);
+
+    /**
+     * Records a connection made by a pooled client (first connection or
+     * reconnection).
+     *
+     * @param node
+     * @param success
+     */
+    public void recordConnect(ServerNode node, boolean success);
+
+    /**
+     * Records a transport error.
+     *
+     * @param node
+     * @param type
+     *            see {@code TTransportException.getType()}
+     */
+    public void recordTransportError(ServerNode node, int type);
+
+    /**
+     * Called when a server is removed from the pool's server list (see
+     * {@link AbstractTProtocolFactory#setHostAndPortList(java.util.List)}):
+     * metrics kept for the server can be dropped.
+     *
+     * @param node
+     */
+    public void removeServer(ServerNode node);
+
+    /**
+     * Registers a gauge of the pool (e.g. {@link #GAUGE_ACTIVE}). Called when
+     * the pool is initialized.
+     *
+     * @param name
+     * @param gauge
+     */
+    public void registerGauge(String name, LongSupplier gauge);
+
+}
@@ -0,0 +1,33 @@
+package com.github.ddth.thriftpool;
+
+/**
+ * Gets notified when an {@link OutlierDetector} ejects or re-admits a server.
+ *
+ * <p>
+ * Called from the pool's scheduler thread; implementations should return
+ * quickly.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+public interface IOutlierEjectionListener {
+
+    /**
+     * A server has been ejected from selection.
+     *
+     * @param node
+     * @param reason
+     *            human-readable reason, e.g. success rate or latency compared
+     *            to its peers
+     */
+    public void onEjected(ServerNode node, String reason);
+
+    /**
+     * An ejected server has been re-admitted.
+     *
+     * @param node
+     */
+    public void onReadmitted(ServerNode node);
+
+}
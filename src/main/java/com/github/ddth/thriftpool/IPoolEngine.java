@@ -0,0 +1,103 @@
+package com.github.ddth.thriftpool;
+
+import org.apache.commons.pool2.ObjectPool;
+
+/**
+ * Object pool implementation that backs a {@link ThriftClientPool}.
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @param <I>
+ *            Thrift client interface
+ * @since 0.2.3
+ */
+public interface IPoolEngine<I> extends ObjectPool<I> {
+
+    /**
+     * Borrows an object without waiting: an idle object, or a new one if the
+     * pool is below its maximum number of objects.
+     * 
+     * @return {@code null} if no object is available
+     * @throws Exception
+     */
+    public I tryBorrowObject() throws Exception;
+
+    /**
+     * Returns number of threads currently blocked waiting for an object from
+     * the pool.
+     * 
+     * @return
+     */
+    public int getNumWaiters();
+
+    /**
+     * Returns the maximum number of objects (borrowed or idle) in the pool.
+     * 
+     * @return
+     */
+    public int getMaxActive();
+
+    /**
+     * Changes the maximum number of objects at runtime. Borrowed objects are
+     * not affected: when the maximum is lowered, objects above it are
+     * destroyed when returned.
+     * 
+     * @param maxActive
+     */
+    public void setMaxActive(int maxActive);
+
+    public int getMaxIdle();
+
+    /**
+     * Changes the maximum number of idle objects at runtime.
+     * 
+     * @param maxIdle
+     */
+    public void setMaxIdle(int maxIdle);
+
+    public int getMinIdle();
+
+    /**
+     * Changes the minimum number of idle objects at runtime.
+     * 
+     * @param minIdle
+     */
+    public void setMinIdle(int minIdle);
+
+    /**
+     * Returns the maximum time (in milliseconds) to wait for an object,
+     * negative means no limit.
+     * 
+     * @return
+     */
+    public long getMaxWaitTime();
+
+    /**
+     * Changes the maximum time to wait for an object at runtime.
+     * 
+     * @param maxWaitTime
+     */
+    public void setMaxWaitTime(long maxWaitTime);
+
+    /**
+     * Returns the total number of objects created by the pool.
+     * 
+     * @return
+     */
+    public long getCreatedCount();
+
+    /**
+     * Returns the total number of objects destroyed by the pool.
+     * 
+     * @return
+     */
+    public long getDestroyedCount();
+
+    /**
+     * Returns the mean time (in milliseconds) borrowers waited for an
+     * object.
+     * 
+     * @return
+     */
+    public long getMeanBorrowWaitTimeMillis();
+
+}
@@ -0,0 +1,25 @@
+package com.github.ddth.thriftpool;
+
+import org.apache.commons.pool2.PooledObjectFactory;
+
+/**
+ * Factory to create {@link IPoolEngine}s.
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+public interface IPoolEngineFactory {
+
+    /**
+     * Creates a new {@link IPoolEngine}.
+     * 
+     * @param objectFactory
+     *            factory to create pooled objects
+     * @param poolConfig
+     *            pool configurations, never {@code null}
+     * @return
+     */
+    public <I> IPoolEngine<I> createPoolEngine(PooledObjectFactory<I> objectFactory,
+            PoolConfig poolConfig);
+
+}
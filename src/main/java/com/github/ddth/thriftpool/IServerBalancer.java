@@ -0,0 +1,23 @@
+package com.github.ddth.thriftpool;
+
+import java.util.List;
+
+/**
+ * Chooses the server sub-pool to borrow a client from, when a
+ * {@link ThriftClientPool} uses per-server sub-pools.
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+public interface IServerBalancer {
+
+    /**
+     * Selects a server to borrow a client from.
+     * 
+     * @param serverNodes
+     *            all servers of the pool, including unavailable ones
+     * @return an available server, or {@code null} if none is available
+     */
+    public ServerNode select(List<ServerNode> serverNodes);
+
+}
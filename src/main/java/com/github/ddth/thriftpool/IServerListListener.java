@@ -0,0 +1,35 @@
+package com.github.ddth.thriftpool;
+
+import java.util.List;
+
+import com.github.ddth.thriftpool.AbstractTProtocolFactory.HostAndPort;
+
+/**
+ * Gets notified when the server list of an {@link AbstractTProtocolFactory}
+ * changes, see {@link AbstractTProtocolFactory#setHostAndPortList(List)}.
+ *
+ * <p>
+ * Called from the thread that updates the server list, one change at a time
+ * and in order.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+public interface IServerListListener {
+
+    /**
+     * The server list has changed (servers added or removed, weights or
+     * order changed).
+     *
+     * @param hostAndPortList
+     *            the new server list (immutable)
+     * @param added
+     *            servers ({@code host:port}) not in the previous list
+     * @param removed
+     *            servers of the previous list no longer in the list
+     */
+    public void onServerListChanged(List<HostAndPort> hostAndPortList, List<HostAndPort> added,
+            List<HostAndPort> removed);
+
+}
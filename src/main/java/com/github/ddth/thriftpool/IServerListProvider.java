@@ -0,0 +1,38 @@
+package com.github.ddth.thriftpool;
+
+import java.util.List;
+
+/**
+ * Source of the server list (service discovery): pushes the list, and each
+ * change, into an {@link AbstractTProtocolFactory} (see
+ * {@link AbstractTProtocolFactory#setHostAndPortList(List)}), so that pools
+ * using the factory follow membership changes without restarts.
+ *
+ * <p>
+ * Can be started and stopped by the pool, see
+ * {@link ThriftClientPool#setServerListProvider(IServerListProvider)}.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ * @see FileServerListProvider
+ * @see DnsServerListProvider
+ */
+public interface IServerListProvider {
+
+    /**
+     * Starts pushing the server list into a factory. The current list is
+     * pushed before this method returns.
+     *
+     * @param tprotocolFactory
+     * @throws Exception
+     *             if the current list cannot be obtained
+     */
+    public void start(AbstractTProtocolFactory tprotocolFactory) throws Exception;
+
+    /**
+     * Stops pushing changes.
+     */
+    public void stop();
+
+}
@@ -0,0 +1,33 @@
+package com.github.ddth.thriftpool;
+
+import org.apache.thrift.transport.TNonblockingTransport;
+
+/**
+ * Factory to create {@link TNonblockingTransport}.
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+public interface ITNonblockingTransportFactory {
+
+    /**
+     * Creates a new {@link TNonblockingTransport} object. The transport does
+     * not need to be connected yet.
+     * 
+     * @param serverIndexHash
+     *            When there are 2 or more servers, use {@code serverIndexHash}
+     *            to determine which server to connect to. The server is chosen
+     *            as {@code serverIndexHash % getNumServers()}
+     * @return
+     * @throws Exception
+     */
+    public TNonblockingTransport create(int serverIndexHash) throws Exception;
+
+    /**
+     * Returns number of servers.
+     * 
+     * @return
+     */
+    public int getNumServers();
+
+}
@@ -0,0 +1,143 @@
+package com.github.ddth.thriftpool;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * Latency histogram with log-linear buckets (as HdrHistogram): each power of
+ * two is split in {@link #SUB_BUCKETS} buckets, so values are recorded with a
+ * relative error below {@code 1/SUB_BUCKETS} (about 3%) up to
+ * {@link #MAX_VALUE_NS} (about 18 minutes).
+ *
+ * <p>
+ * Recording is lock-free and allocation-free; reads are not atomic snapshots
+ * of concurrent recordings.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+public class LatencyHistogram {
+
+    private final static int SUB_BUCKET_BITS = 5;
+    public final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    public final static long MAX_VALUE_NS = (1L << 40) - 1;
+    private final static int NUM_BUCKETS = bucketIndex(MAX_VALUE_NS) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+    private final AtomicLong count = new AtomicLong(), sum = new AtomicLong(),
+            max = new AtomicLong();
+
+    /**
+     * Values below {@code 2 * SUB_BUCKETS} have their own bucket; above, the
+     * bucket is given by the highest bit and the next
+     * {@code SUB_BUCKET_BITS} bits.
+     */
+    private static int bucketIndex(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * Highest value of a bucket.
+     */
+    private static long bucketUpperBound(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param valueNs
+     *            negative values are recorded as {@code 0}, values above
+     *            {@link #MAX_VALUE_NS} as {@link #MAX_VALUE_NS}
+     */
+    public void record(long valueNs) {
+        long value = Math.max(0, Math.min(MAX_VALUE_NS, valueNs));
+        counts.incrementAndGet(bucketIndex(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long currentMax;
+        while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return mean value, {@code 0} if no value has been recorded
+     */
+    public double getMean() {
+        long n = count.get();
+        return n > 0 ? (double) sum.get() / n : 0;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Gets a percentile.
+     *
+     * @param percentile
+     *            e.g. {@code 99.9}
+     * @return upper bound of the bucket holding the percentile (capped at
+     *         {@link #getMax()}), {@code 0} if no value has been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, percentile) / 100));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Clears all recorded values.
+     */
+    public void reset() {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        ToStringBuilder tsb = new ToStringBuilder(this);
+        tsb.append("count", getCount())
+                .append("meanUs", String.format("%.1f", getMean() / 1E3))
+                .append("p50Us", String.format("%.1f", getValueAtPercentile(50) / 1E3))
+                .append("p99Us", String.format("%.1f", getValueAtPercentile(99) / 1E3))
+                .append("maxUs", String.format("%.1f", getMax() / 1E3));
+        return tsb.toString();
+    }
+}
@@ -0,0 +1,64 @@
+package com.github.ddth.thriftpool;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tracks recent latencies of a method and estimates percentiles.
+ *
+ * <p>
+ * Keeps the last {@link #NUM_SAMPLES} samples in a ring buffer; percentiles
+ * are recomputed every {@link #RECALC_INTERVAL} samples, so reading them is
+ * cheap. Lock-free and approximate under contention.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+final class LatencyTracker {
+
+    public final static int NUM_SAMPLES = 512;
+    public final static int RECALC_INTERVAL = 64;
+    public final static int MIN_SAMPLES = 32;
+
+    private final AtomicLongArray samples = new AtomicLongArray(NUM_SAMPLES);
+    private final AtomicLong counter = new AtomicLong();
+    private volatile long[] sorted;
+
+    /**
+     * Records a latency sample.
+     *
+     * @param latencyNs
+     */
+    public void record(long latencyNs) {
+        long n = counter.getAndIncrement();
+        samples.set((int) (n % NUM_SAMPLES), latencyNs);
+        long count = n + 1;
+        if (count == MIN_SAMPLES || (count > MIN_SAMPLES && count % RECALC_INTERVAL == 0)) {
+            int size = (int) Math.min(count, NUM_SAMPLES);
+            long[] snapshot = new long[size];
+            for (int i = 0; i < size; i++) {
+                snapshot[i] = samples.get(i);
+            }
+            Arrays.sort(snapshot);
+            sorted = snapshot;
+        }
+    }
+
+    /**
+     * Gets a latency percentile.
+     *
+     * @param percentile
+     *            e.g. {@code 95}
+     * @return latency in nanoseconds, {@code -1} if not enough samples
+     */
+    public long percentile(double percentile) {
+        long[] sorted = this.sorted;
+        if (sorted == null) {
+            return -1;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
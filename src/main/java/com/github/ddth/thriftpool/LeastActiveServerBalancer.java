@@ -0,0 +1,43 @@
+package com.github.ddth.thriftpool;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@link IServerBalancer} that selects the available server with fewest
+ * borrowed clients relative to its weight ({@code numActive / weight});
+ * ties are broken randomly.
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+public class LeastActiveServerBalancer implements IServerBalancer {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ServerNode select(List<ServerNode> serverNodes) {
+        ServerNode result = null;
+        long minActive = 0, minWeight = 1;
+        int numTies = 0;
+        for (ServerNode node : serverNodes) {
+            if (!node.isAvailable()) {
+                continue;
+            }
+            long numActive = node.getNumActive(), weight = node.getWeight();
+            // compare numActive/weight without division
+            long cmp = result == null ? -1 : numActive * minWeight - minActive * weight;
+            if (cmp < 0) {
+                minActive = numActive;
+                minWeight = weight;
+                result = node;
+                numTies = 1;
+            } else if (cmp == 0 && ThreadLocalRandom.current().nextInt(++numTies) == 0) {
+                // reservoir sampling: uniform pick among ties
+                result = node;
+            }
+        }
+        return result;
+    }
+}
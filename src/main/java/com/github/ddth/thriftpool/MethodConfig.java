@@ -0,0 +1,139 @@
+package com.github.ddth.thriftpool;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * Per-method settings of a Thrift client interface.
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+public class MethodConfig implements Cloneable {
+
+    private boolean idempotent = false, retryable = true;
+    private int timeoutMs = -1;
+    private long hedgeDelayMs = -1;
+    private double hedgeDelayPercentile = 0;
+
+    public MethodConfig() {
+    }
+
+    public MethodConfig(boolean idempotent, boolean retryable) {
+        this.idempotent = idempotent;
+        this.retryable = retryable;
+    }
+
+    /**
+     * Is the method safe to be executed more than once (e.g. a read-only
+     * call)?
+     *
+     * @return
+     */
+    public boolean isIdempotent() {
+        return idempotent;
+    }
+
+    public MethodConfig setIdempotent(boolean idempotent) {
+        this.idempotent = idempotent;
+        return this;
+    }
+
+    /**
+     * Should the method be retried on restartable transport errors?
+     *
+     * @return
+     */
+    public boolean isRetryable() {
+        return retryable;
+    }
+
+    public MethodConfig setRetryable(boolean retryable) {
+        this.retryable = retryable;
+        return this;
+    }
+
+    public int getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    /**
+     * Socket timeout of the method's calls, e.g. shorter for a fast lookup
+     * than for a batch call on the same connection. Only applied to
+     * connections over a {@code TSocket} (possibly wrapped, e.g. by a
+     * {@code TFramedTransport}). {@code 0} means no timeout; negative value
+     * (default) means the connection's own socket timeout.
+     *
+     * @param timeoutMs
+     * @return
+     */
+    public MethodConfig setTimeoutMs(int timeoutMs) {
+        this.timeoutMs = timeoutMs;
+        return this;
+    }
+
+    /**
+     * Delay before a hedged request is sent, see
+     * {@link #setHedgeDelayMs(long)}.
+     *
+     * @return
+     */
+    public long getHedgeDelayMs() {
+        return hedgeDelayMs;
+    }
+
+    /**
+     * Enables hedging for an idempotent method: if no response is received
+     * after {@code hedgeDelayMs}, the same call is sent to another server on
+     * another pooled connection and the first successful response is used.
+     * Negative value (default) disables hedging.
+     *
+     * @param hedgeDelayMs
+     * @return
+     */
+    public MethodConfig setHedgeDelayMs(long hedgeDelayMs) {
+        this.hedgeDelayMs = hedgeDelayMs;
+        return this;
+    }
+
+    public double getHedgeDelayPercentile() {
+        return hedgeDelayPercentile;
+    }
+
+    /**
+     * If {@code >0} (e.g. {@code 95}), the hedge delay is the observed latency
+     * percentile of the method's primary calls (hedges are not observed, so
+     * that hedging does not lower the delay); {@code hedgeDelayMs} is used
+     * until enough calls have been observed.
+     *
+     * @param hedgeDelayPercentile
+     * @return
+     */
+    public MethodConfig setHedgeDelayPercentile(double hedgeDelayPercentile) {
+        this.hedgeDelayPercentile = hedgeDelayPercentile;
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        ToStringBuilder tsb = new ToStringBuilder(this);
+        tsb.append("idempotent", idempotent).append("retryable", retryable)
+                .append("timeoutMs", timeoutMs).append("hedgeDelayMs", hedgeDelayMs)
+                .append("hedgeDelayPercentile", hedgeDelayPercentile);
+        return tsb.toString();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public MethodConfig clone() {
+        try {
+            return (MethodConfig) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.github.ddth.thriftpool;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Dispatch table of a Thrift client interface, built once per pool.
+ *
+ * <p>
+ * Maps each {@link Method} passed to a client proxy to its precomputed
+ * {@link MethodInfo} so that per-call dispatching is a single identity lookup.
+ * {@link java.lang.reflect.Proxy} passes the same {@link Method} instances on
+ * every call, but they are not the instances obtained at build time, so
+ * misses fall back to an equality lookup and are cached in a copy-on-write
+ * identity map.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+final class MethodDispatchTable {
+
+    /**
+     * Kind of a dispatched method.
+     */
+    public static enum Kind {
+        HASH_CODE, EQUALS, TO_STRING, RPC
+    }
+
+    /**
+     * Precomputed metadata of a dispatched method.
+     */
+    public final static class MethodInfo {
+        private final Method method;
+        private final Kind kind;
+        private final MethodInvoker invoker;
+        private final boolean oneway;
+        private final MethodConfig config;
+        private final IMetricsRegistry.IMethodMetrics metrics;
+        private final LatencyTracker latencyTracker = new LatencyTracker();
+
+        public MethodInfo(Method method, Kind kind, MethodInvoker invoker, boolean oneway,
+                MethodConfig config, IMetricsRegistry.IMethodMetrics metrics) {
+            this.method = method;
+            this.kind = kind;
+            this.invoker = invoker;
+            this.oneway = oneway;
+            this.config = config;
+            this.metrics = metrics;
+        }
+
+        public Method getMethod() {
+            return method;
+        }
+
+        public String getName() {
+            return method.getName();
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public MethodInvoker getInvoker() {
+            return invoker;
+        }
+
+        /**
+         * Is this a Thrift {@code oneway} method (no response is read)?
+         *
+         * @return
+         */
+        public boolean isOneway() {
+            return oneway;
+        }
+
+        public boolean isIdempotent() {
+            return config.isIdempotent();
+        }
+
+        public boolean isRetryable() {
+            return config.isRetryable();
+        }
+
+        public MethodConfig getConfig() {
+            return config;
+        }
+
+        /**
+         * Socket timeout of the method's calls, see
+         * {@link MethodConfig#setTimeoutMs(int)}.
+         *
+         * @return
+         */
+        public int getTimeoutMs() {
+            return config.getTimeoutMs();
+        }
+
+        /**
+         * Metrics of the method's calls, resolved when the table is built.
+         *
+         * @return
+         */
+        public IMetricsRegistry.IMethodMetrics getMetrics() {
+            return metrics;
+        }
+
+        /**
+         * Should calls be hedged (idempotent two-way RPC with a hedge delay)?
+         *
+         * @return
+         */
+        public boolean isHedged() {
+            return kind == Kind.RPC && !oneway && config.isIdempotent()
+                    && config.getHedgeDelayMs() >= 0;
+        }
+
+        /**
+         * Recent latencies of hedged calls.
+         *
+         * @return
+         */
+        public LatencyTracker getLatencyTracker() {
+            return latencyTracker;
+        }
+    }
+
+    /**
+     * Builds the dispatch table for a client interface.
+     *
+     * @param clientClass
+     * @param clientInterface
+     * @param dispatchMode
+     * @param methodConfigs
+     *            per-method settings, keyed by method name; methods without
+     *            entry get default {@link MethodConfig}
+     * @param metricsRegistry
+     * @return
+     */
+    public static MethodDispatchTable build(Class<?> clientClass, Class<?> clientInterface,
+            ThriftClientPool.DispatchMode dispatchMode, Map<String, MethodConfig> methodConfigs,
+            IMetricsRegistry metricsRegistry) {
+        Set<String> clientMethodNames = new HashSet<String>();
+        for (Method method : clientClass.getMethods()) {
+            clientMethodNames.add(method.getName());
+        }
+
+        Map<Method, MethodInfo> methods = new HashMap<Method, MethodInfo>();
+        IMetricsRegistry.IMethodMetrics noMetrics = NoopMetricsRegistry.INSTANCE
+                .methodMetrics(null);
+        try {
+            Method m = Object.class.getMethod("hashCode");
+            methods.put(m, new MethodInfo(m, Kind.HASH_CODE, null, false, new MethodConfig(),
+                    noMetrics));
+            m = Object.class.getMethod("equals", Object.class);
+            methods.put(m, new MethodInfo(m, Kind.EQUALS, null, false, new MethodConfig(),
+                    noMetrics));
+            m = Object.class.getMethod("toString");
+            methods.put(m, new MethodInfo(m, Kind.TO_STRING, null, false, new MethodConfig(),
+                    noMetrics));
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+        for (Method method : clientInterface.getMethods()) {
+            String name = method.getName();
+            MethodInvoker invoker = dispatchMode == ThriftClientPool.DispatchMode.METHOD_HANDLE ? MethodInvoker
+                    .forMethodHandle(clientClass, method) : MethodInvoker.forReflection(method);
+            // generated clients have send_xxx/recv_xxx pairs, oneway methods
+            // have no recv_xxx
+            boolean oneway = clientMethodNames.contains("send_" + name)
+                    && !clientMethodNames.contains("recv_" + name);
+            MethodConfig config = methodConfigs != null ? methodConfigs.get(name) : null;
+            config = config != null ? config.clone() : new MethodConfig();
+            methods.put(method, new MethodInfo(method, Kind.RPC, invoker, oneway, config,
+                    metricsRegistry.methodMetrics(name)));
+        }
+        return new MethodDispatchTable(methods, metricsRegistry);
+    }
+
+    private final Map<Method, MethodInfo> methods;
+    private final IMetricsRegistry metricsRegistry;
+    private volatile IdentityHashMap<Method, MethodInfo> identityTable;
+
+    private MethodDispatchTable(Map<Method, MethodInfo> methods,
+            IMetricsRegistry metricsRegistry) {
+        this.methods = methods;
+        this.metricsRegistry = metricsRegistry;
+        IdentityHashMap<Method, MethodInfo> identityTable = new IdentityHashMap<Method, MethodInfo>();
+        for (MethodInfo mi : methods.values()) {
+            identityTable.put(mi.getMethod(), mi);
+        }
+        this.identityTable = identityTable;
+    }
+
+    /**
+     * Looks up metadata of a method.
+     *
+     * @param method
+     * @return
+     */
+    public MethodInfo lookup(Method method) {
+        MethodInfo mi = identityTable.get(method);
+        return mi != null ? mi : lookupSlow(method);
+    }
+
+    private MethodInfo lookupSlow(Method method) {
+        MethodInfo mi = methods.get(method);
+        if (mi == null) {
+            // e.g. a method not declared by the client interface
+            mi = new MethodInfo(method, Kind.RPC, MethodInvoker.forReflection(method), false,
+                    new MethodConfig(), metricsRegistry.methodMetrics(method.getName()));
+        }
+        IdentityHashMap<Method, MethodInfo> newTable = new IdentityHashMap<Method, MethodInfo>(
+                identityTable);
+        newTable.put(method, mi);
+        identityTable = newTable;
+        return mi;
+    }
+
+    /**
+     * Gets metadata of a client interface method by name.
+     *
+     * @param methodName
+     * @return {@code null} if not found
+     */
+    public MethodInfo lookup(String methodName) {
+        for (MethodInfo mi : methods.values()) {
+            if (mi.getKind() == Kind.RPC && mi.getName().equals(methodName)) {
+                return mi;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Is there any hedged method?
+     *
+     * @return
+     */
+    public boolean hasHedgedMethods() {
+        for (MethodInfo mi : methods.values()) {
+            if (mi.isHedged()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * All Thrift RPC methods of the client interface.
+     *
+     * @return
+     */
+    public Iterable<MethodInfo> rpcMethods() {
+        Map<String, MethodInfo> result = new HashMap<String, MethodInfo>();
+        for (MethodInfo mi : methods.values()) {
+            if (mi.getKind() == Kind.RPC) {
+                result.put(mi.getName(), mi);
+            }
+        }
+        return result.values();
+    }
+}
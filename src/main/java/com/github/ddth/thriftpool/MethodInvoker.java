@@ -0,0 +1,124 @@
+package com.github.ddth.thriftpool;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Invokes a Thrift client interface method on a concrete Thrift client
+ * object.
+ *
+ * <p>
+ * Exceptions thrown by the target method are re-thrown as-is (i.e. they are
+ * <i>not</i> wrapped in {@link InvocationTargetException}).
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+abstract class MethodInvoker {
+
+    /**
+     * Creates an invoker that calls {@code method} via
+     * {@link Method#invoke(Object, Object...)}.
+     *
+     * @param method
+     * @return
+     */
+    public static MethodInvoker forReflection(Method method) {
+        return new ReflectionInvoker(method);
+    }
+
+    /**
+     * Creates an invoker that calls {@code method} via a {@link MethodHandle}
+     * bound to the implementation in {@code clientClass}.
+     *
+     * <p>
+     * Falls back to {@link #forReflection(Method)} if the method handle cannot
+     * be resolved.
+     * </p>
+     *
+     * @param clientClass
+     * @param method
+     * @return
+     */
+    public static MethodInvoker forMethodHandle(Class<?> clientClass, Method method) {
+        try {
+            Method target = clientClass.getMethod(method.getName(), method.getParameterTypes());
+            if (!Modifier.isPublic(clientClass.getModifiers())) {
+                target.setAccessible(true);
+            }
+            MethodHandle mh = MethodHandles.lookup().unreflect(target);
+            mh = mh.asType(mh.type().generic()).asSpreader(Object[].class,
+                    method.getParameterTypes().length);
+            return new MethodHandleInvoker(method, mh);
+        } catch (Exception e) {
+            return forReflection(method);
+        }
+    }
+
+    private final Method method;
+
+    protected MethodInvoker(Method method) {
+        this.method = method;
+    }
+
+    /**
+     * The client interface method this invoker dispatches.
+     *
+     * @return
+     */
+    public Method getMethod() {
+        return method;
+    }
+
+    /**
+     * Invokes the method on {@code clientObj}.
+     *
+     * @param clientObj
+     * @param args
+     *            may be {@code null} for no-arg methods
+     * @return
+     * @throws Throwable
+     *             exception thrown by the target method
+     */
+    public abstract Object invoke(Object clientObj, Object[] args) throws Throwable;
+
+    /*----------------------------------------------------------------------*/
+    private final static class ReflectionInvoker extends MethodInvoker {
+        public ReflectionInvoker(Method method) {
+            super(method);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Object invoke(Object clientObj, Object[] args) throws Throwable {
+            try {
+                return getMethod().invoke(clientObj, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+    }
+
+    private final static class MethodHandleInvoker extends MethodInvoker {
+        private final MethodHandle mh;
+
+        public MethodHandleInvoker(Method method, MethodHandle mh) {
+            super(method);
+            this.mh = mh;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Object invoke(Object clientObj, Object[] args) throws Throwable {
+            return (Object) mh.invokeExact(clientObj, args);
+        }
+    }
+}
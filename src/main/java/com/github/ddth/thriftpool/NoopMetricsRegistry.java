@@ -0,0 +1,71 @@
+package com.github.ddth.thriftpool;
+
+import java.util.function.LongSupplier;
+
+/**
+ * {@link IMetricsRegistry} that records nothing. This is the default metrics
+ * registry: the pool skips measuring what is only used for metrics.
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+public final class NoopMetricsRegistry implements IMetricsRegistry {
+
+    public final static NoopMetricsRegistry INSTANCE = new NoopMetricsRegistry();
+
+    private final static IMethodMetrics NOOP_METHOD_METRICS = new IMethodMetrics() {
+        @Override
+        public void recordCall(ServerNode node, long latencyNs, boolean failed) {
+        }
+
+        @Override
+        public void recordRetry(ServerNode node) {
+        }
+    };
+
+    private NoopMetricsRegistry() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void recordBorrow(long waitNs, boolean success) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IMethodMetrics methodMetrics(String methodName) {
+        return NOOP_METHOD_METRICS;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void recordConnect(ServerNode node, boolean success) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void recordTransportError(ServerNode node, int type) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeServer(ServerNode node) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void registerGauge(String name, LongSupplier gauge) {
+    }
+}
@@ -0,0 +1,303 @@
+package com.github.ddth.thriftpool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Passive outlier detection: every {@code intervalMs}, compares the servers of
+ * a pool by the success rate and mean latency of the calls made in the last
+ * interval (normal traffic, no extra probes) and temporarily ejects outliers
+ * from server selection.
+ *
+ * <ul>
+ * <li>Only servers with at least {@code minRequestVolume} calls in the
+ * interval are compared, and only if there are at least {@code minHosts} of
+ * them.</li>
+ * <li>Success-rate outlier: success rate below
+ * {@code mean - successRateStdevFactor * stdev} of the compared servers, or
+ * failure rate of at least {@code failurePercentThreshold} percent (the
+ * standard deviation test needs many servers to be meaningful).</li>
+ * <li>Latency outlier: mean latency above {@code latencyFactor} times the
+ * median of the compared servers.</li>
+ * <li>A server is ejected for {@code baseEjectionMs * numEjections} (capped at
+ * {@code maxEjectionMs}); {@code numEjections} decreases after each interval
+ * it is not ejected.</li>
+ * <li>At most {@code maxEjectionPercent} of servers (at least one, but never
+ * all of them) are ejected at the same time.</li>
+ * </ul>
+ *
+ * <p>
+ * An instance belongs to a single pool, see
+ * {@link ThriftClientPool#setOutlierDetector(OutlierDetector)}. Settings must
+ * not be changed once in use.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+public class OutlierDetector {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(OutlierDetector.class);
+
+    public final static long DEFAULT_INTERVAL_MS = 10000;
+    public final static long DEFAULT_BASE_EJECTION_MS = 30000;
+    public final static long DEFAULT_MAX_EJECTION_MS = 300000;
+    public final static int DEFAULT_MAX_EJECTION_PERCENT = 10;
+    public final static int DEFAULT_MIN_HOSTS = 3;
+    public final static int DEFAULT_MIN_REQUEST_VOLUME = 20;
+    public final static double DEFAULT_SUCCESS_RATE_STDEV_FACTOR = 1.9;
+    public final static int DEFAULT_FAILURE_PERCENT_THRESHOLD = 85;
+    public final static double DEFAULT_LATENCY_FACTOR = 5.0;
+
+    private long intervalMs = DEFAULT_INTERVAL_MS;
+    private long baseEjectionMs = DEFAULT_BASE_EJECTION_MS;
+    private long maxEjectionMs = DEFAULT_MAX_EJECTION_MS;
+    private int maxEjectionPercent = DEFAULT_MAX_EJECTION_PERCENT;
+    private int minHosts = DEFAULT_MIN_HOSTS;
+    private int minRequestVolume = DEFAULT_MIN_REQUEST_VOLUME;
+    private double successRateStdevFactor = DEFAULT_SUCCESS_RATE_STDEV_FACTOR;
+    private int failurePercentThreshold = DEFAULT_FAILURE_PERCENT_THRESHOLD;
+    private double latencyFactor = DEFAULT_LATENCY_FACTOR;
+
+    private final List<IOutlierEjectionListener> listeners = new CopyOnWriteArrayList<IOutlierEjectionListener>();
+
+    /**
+     * Counters of each server at the previous sweep: {@code [calls, failures,
+     * totalLatencyNs]}.
+     */
+    private Map<ServerNode, long[]> lastCounters = new HashMap<ServerNode, long[]>();
+
+    public long getIntervalMs() {
+        return intervalMs;
+    }
+
+    public OutlierDetector setIntervalMs(long intervalMs) {
+        this.intervalMs = intervalMs;
+        return this;
+    }
+
+    public long getBaseEjectionMs() {
+        return baseEjectionMs;
+    }
+
+    public OutlierDetector setBaseEjectionMs(long baseEjectionMs) {
+        this.baseEjectionMs = baseEjectionMs;
+        return this;
+    }
+
+    public long getMaxEjectionMs() {
+        return maxEjectionMs;
+    }
+
+    public OutlierDetector setMaxEjectionMs(long maxEjectionMs) {
+        this.maxEjectionMs = maxEjectionMs;
+        return this;
+    }
+
+    public int getMaxEjectionPercent() {
+        return maxEjectionPercent;
+    }
+
+    public OutlierDetector setMaxEjectionPercent(int maxEjectionPercent) {
+        this.maxEjectionPercent = maxEjectionPercent;
+        return this;
+    }
+
+    public int getMinHosts() {
+        return minHosts;
+    }
+
+    public OutlierDetector setMinHosts(int minHosts) {
+        this.minHosts = minHosts;
+        return this;
+    }
+
+    public int getMinRequestVolume() {
+        return minRequestVolume;
+    }
+
+    public OutlierDetector setMinRequestVolume(int minRequestVolume) {
+        this.minRequestVolume = minRequestVolume;
+        return this;
+    }
+
+    public double getSuccessRateStdevFactor() {
+        return successRateStdevFactor;
+    }
+
+    public OutlierDetector setSuccessRateStdevFactor(double successRateStdevFactor) {
+        this.successRateStdevFactor = successRateStdevFactor;
+        return this;
+    }
+
+    public int getFailurePercentThreshold() {
+        return failurePercentThreshold;
+    }
+
+    public OutlierDetector setFailurePercentThreshold(int failurePercentThreshold) {
+        this.failurePercentThreshold = failurePercentThreshold;
+        return this;
+    }
+
+    public double getLatencyFactor() {
+        return latencyFactor;
+    }
+
+    public OutlierDetector setLatencyFactor(double latencyFactor) {
+        this.latencyFactor = latencyFactor;
+        return this;
+    }
+
+    public OutlierDetector addListener(IOutlierEjectionListener listener) {
+        listeners.add(listener);
+        return this;
+    }
+
+    public OutlierDetector removeListener(IOutlierEjectionListener listener) {
+        listeners.remove(listener);
+        return this;
+    }
+
+    /*----------------------------------------------------------------------*/
+    /**
+     * Maximum number of servers ejected at the same time.
+     *
+     * @param numServers
+     * @return
+     */
+    private int maxEjections(int numServers) {
+        return Math.min(numServers - 1, Math.max(1, numServers * maxEjectionPercent / 100));
+    }
+
+    /**
+     * @param node
+     * @param reason
+     *            {@code null} if the server has been re-admitted
+     */
+    private void notifyListeners(ServerNode node, String reason) {
+        for (IOutlierEjectionListener listener : listeners) {
+            try {
+                if (reason != null) {
+                    listener.onEjected(node, reason);
+                } else {
+                    listener.onReadmitted(node);
+                }
+            } catch (Exception e) {
+                LOGGER.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Re-admits servers whose ejection has ended, then evaluates the calls
+     * made since the previous sweep and ejects outliers. Called by the pool
+     * every {@code intervalMs}.
+     *
+     * @param serverNodes
+     */
+    synchronized void sweep(List<ServerNode> serverNodes) {
+        long now = System.currentTimeMillis();
+        int numEjected = 0;
+        for (ServerNode node : serverNodes) {
+            if (node.isEjected() && node.getEjectedUntil() <= now) {
+                node.readmit();
+                LOGGER.info("Outlier server re-admitted: " + node);
+                notifyListeners(node, null);
+            }
+            if (node.isEjected()) {
+                numEjected++;
+            } else if (node.numEjections > 0) {
+                node.numEjections--;
+            }
+        }
+
+        // stats of the last interval
+        Map<ServerNode, long[]> counters = new HashMap<ServerNode, long[]>();
+        List<ServerNode> candidates = new ArrayList<ServerNode>();
+        List<double[]> stats = new ArrayList<double[]>();
+        for (ServerNode node : serverNodes) {
+            long[] current = { node.getNumCalls(), node.getNumFailures(),
+                    node.getTotalLatencyNs() };
+            counters.put(node, current);
+            long[] last = lastCounters.get(node);
+            long calls = current[0] - (last != null ? last[0] : 0);
+            if (!node.isEjected() && calls >= minRequestVolume && calls > 0) {
+                long failures = current[1] - (last != null ? last[1] : 0);
+                long latencyNs = current[2] - (last != null ? last[2] : 0);
+                candidates.add(node);
+                stats.add(new double[] { 1.0 - (double) failures / calls,
+                        (double) latencyNs / calls });
+            }
+        }
+        lastCounters = counters;
+        if (candidates.size() < Math.max(2, minHosts)) {
+            return;
+        }
+
+        // success rate: mean and standard deviation
+        double sum = 0, sumSquares = 0;
+        double[] latencies = new double[stats.size()];
+        for (int i = 0; i < stats.size(); i++) {
+            double successRate = stats.get(i)[0];
+            sum += successRate;
+            sumSquares += successRate * successRate;
+            latencies[i] = stats.get(i)[1];
+        }
+        double mean = sum / stats.size();
+        double stdev = Math.sqrt(Math.max(0, sumSquares / stats.size() - mean * mean));
+        double successRateThreshold = mean - successRateStdevFactor * stdev;
+        // latency: median
+        Arrays.sort(latencies);
+        double medianLatency = latencies[latencies.length / 2];
+
+        int maxEjections = maxEjections(serverNodes.size());
+        for (int i = 0; i < candidates.size() && numEjected < maxEjections; i++) {
+            ServerNode node = candidates.get(i);
+            double successRate = stats.get(i)[0], latency = stats.get(i)[1];
+            String reason = null;
+            if (successRate < successRateThreshold) {
+                reason = String.format("success rate %.3f < %.3f (mean %.3f, stdev %.3f)",
+                        successRate, successRateThreshold, mean, stdev);
+            } else if ((1.0 - successRate) * 100 >= failurePercentThreshold) {
+                reason = String.format("failure rate %.1f%% >= %d%%", (1.0 - successRate) * 100,
+                        failurePercentThreshold);
+            } else if (medianLatency > 0 && latency > latencyFactor * medianLatency) {
+                reason = String.format("mean latency %.1fms > %.1f x median %.1fms",
+                        latency / 1E6, latencyFactor, medianLatency / 1E6);
+            }
+            if (reason != null) {
+                node.numEjections++;
+                long ejectionMs = Math.min(maxEjectionMs, baseEjectionMs * node.numEjections);
+                node.eject(now + ejectionMs);
+                numEjected++;
+                LOGGER.warn("Outlier server ejected for " + ejectionMs + "ms: " + node + ", "
+                        + reason);
+                notifyListeners(node, reason);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        ToStringBuilder tsb = new ToStringBuilder(this);
+        tsb.append("intervalMs", intervalMs).append("baseEjectionMs", baseEjectionMs)
+                .append("maxEjectionMs", maxEjectionMs)
+                .append("maxEjectionPercent", maxEjectionPercent).append("minHosts", minHosts)
+                .append("minRequestVolume", minRequestVolume)
+                .append("successRateStdevFactor", successRateStdevFactor)
+                .append("failurePercentThreshold", failurePercentThreshold)
+                .append("latencyFactor", latencyFactor);
+        return tsb.toString();
+    }
+}
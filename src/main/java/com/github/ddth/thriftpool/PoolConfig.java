@@ -8,7 +8,7 @@ import org.apache.commons.lang3.builder.HashCodeBuilder;
  * @author Thanh Nguyen <btnguyen2k@gmail.com>
  * @since 0.1.0
  */
-public class PoolConfig {
+public class PoolConfig implements Cloneable {
 
     /**
      * Default lifetime (ms) of an open connection.
@@ -35,12 +35,50 @@ public class PoolConfig {
      */
     public final static int DEFAULT_MIN_IDLE = 1 + DEFAULT_MAX_ACTIVE / 4;
 
+    /**
+     * Default maximum number of threads waiting for a connection ({@code -1}
+     * means no limit).
+     * 
+     * @since 0.2.3
+     */
+    public final static int DEFAULT_MAX_WAITERS = -1;
+
+    /**
+     * Default maximum idle time (ms) of a pooled connection ({@code -1} means
+     * no limit).
+     * 
+     * @since 0.2.3
+     */
+    public final static long DEFAULT_MAX_CONNECTION_IDLE_MS = -1;
+
+    /**
+     * Default idle time (ms) after which a pooled connection's socket is
+     * checked before use: {@code -1} (disabled).
+     * 
+     * @since 0.2.3
+     */
+    public final static long DEFAULT_LIVENESS_CHECK_IDLE_MS = -1;
+
+    /**
+     * Default time (ms) {@code init()} waits for prewarmed connections.
+     * 
+     * @since 0.2.3
+     */
+    public final static long DEFAULT_PREWARM_TIMEOUT_MS = 10000;
+
     private int maxActive = DEFAULT_MAX_ACTIVE, maxIdle = DEFAULT_MAX_IDLE,
-            minIdle = DEFAULT_MIN_IDLE;
+            minIdle = DEFAULT_MIN_IDLE, maxWaiters = DEFAULT_MAX_WAITERS;
     private long maxWaitTimeMs = DEFAULT_MAX_WAIT_TIME;
+    private long maxConnectionIdleMs = DEFAULT_MAX_CONNECTION_IDLE_MS,
+            livenessCheckIdleMs = DEFAULT_LIVENESS_CHECK_IDLE_MS;
+    private int prewarmConnectionsPerServer = 0, connectorThreads = 0;
+    private long prewarmTimeoutMs = DEFAULT_PREWARM_TIMEOUT_MS;
 
     private boolean testOnBorrow = false, testWhileIdle = false, testOnCreate = false;
 
+    private boolean perServerPool = false;
+    private int maxActivePerServer = -1, maxIdlePerServer = -1, minIdlePerServer = -1;
+
     public int getMaxActive() {
         return maxActive;
     }
@@ -77,6 +115,143 @@ public class PoolConfig {
         return this;
     }
 
+    /**
+     * @return
+     * @since 0.2.3
+     */
+    public int getMaxWaiters() {
+        return maxWaiters;
+    }
+
+    /**
+     * Maximum number of threads allowed to wait for a connection when the
+     * pool is exhausted; further borrowers fail immediately. Negative value
+     * means no limit.
+     * 
+     * @param maxWaiters
+     * @return
+     * @since 0.2.3
+     */
+    public PoolConfig setMaxWaiters(int maxWaiters) {
+        this.maxWaiters = maxWaiters;
+        return this;
+    }
+
+    /**
+     * @return
+     * @since 0.2.3
+     */
+    public long getMaxConnectionIdleMs() {
+        return maxConnectionIdleMs;
+    }
+
+    /**
+     * Pooled connections idle for longer than this are closed before use (and
+     * fail validation), e.g. to stay below a load balancer's idle timeout.
+     * Negative value means no limit.
+     * 
+     * @param maxConnectionIdleMs
+     * @return
+     * @since 0.2.3
+     */
+    public PoolConfig setMaxConnectionIdleMs(long maxConnectionIdleMs) {
+        this.maxConnectionIdleMs = maxConnectionIdleMs;
+        return this;
+    }
+
+    /**
+     * @return
+     * @since 0.2.3
+     */
+    public long getLivenessCheckIdleMs() {
+        return livenessCheckIdleMs;
+    }
+
+    /**
+     * Pooled connections idle for at least this long have their socket
+     * checked (no RPC) before use; a connection closed by the peer is
+     * silently replaced instead of failing the call. The check does not wait
+     * for sockets opened via
+     * {@link AbstractTProtocolFactory#openChannelSocket(String, int, int)}, and
+     * waits up to 1ms for other sockets. Negative value (default) disables the
+     * check.
+     * 
+     * @param livenessCheckIdleMs
+     * @return
+     * @since 0.2.3
+     */
+    public PoolConfig setLivenessCheckIdleMs(long livenessCheckIdleMs) {
+        this.livenessCheckIdleMs = livenessCheckIdleMs;
+        return this;
+    }
+
+    /**
+     * @return
+     * @since 0.2.3
+     */
+    public int getConnectorThreads() {
+        return connectorThreads;
+    }
+
+    /**
+     * Number of dedicated threads creating (and connecting) new clients, so
+     * that borrowers are handed whichever client becomes available first, a
+     * returned or a newly connected one. {@code 0} (default) means clients
+     * are created by the borrower and connected on first use. Only supported
+     * by {@link ConcurrentBagPoolEngine}.
+     * 
+     * @param connectorThreads
+     * @return
+     * @since 0.2.3
+     */
+    public PoolConfig setConnectorThreads(int connectorThreads) {
+        this.connectorThreads = connectorThreads;
+        return this;
+    }
+
+    /**
+     * @return
+     * @since 0.2.3
+     */
+    public int getPrewarmConnectionsPerServer() {
+        return prewarmConnectionsPerServer;
+    }
+
+    /**
+     * Number of connections {@code init()} opens to each server (in parallel)
+     * and leaves idle in the pool, capped by {@code maxActive}/{@code maxIdle}.
+     * {@code 0} (default) means connections are only opened on first use.
+     * 
+     * @param prewarmConnectionsPerServer
+     * @return
+     * @since 0.2.3
+     */
+    public PoolConfig setPrewarmConnectionsPerServer(int prewarmConnectionsPerServer) {
+        this.prewarmConnectionsPerServer = prewarmConnectionsPerServer;
+        return this;
+    }
+
+    /**
+     * @return
+     * @since 0.2.3
+     */
+    public long getPrewarmTimeoutMs() {
+        return prewarmTimeoutMs;
+    }
+
+    /**
+     * Maximum time {@code init()} waits for prewarmed connections; slower
+     * connections complete in the background.
+     * 
+     * @param prewarmTimeoutMs
+     * @return
+     * @since 0.2.3
+     */
+    public PoolConfig setPrewarmTimeoutMs(long prewarmTimeoutMs) {
+        this.prewarmTimeoutMs = prewarmTimeoutMs;
+        return this;
+    }
+
     public boolean isTestOnBorrow() {
         return testOnBorrow;
     }
@@ -116,13 +291,155 @@ public class PoolConfig {
         return this;
     }
 
+    /**
+     * @return
+     * @since 0.2.3
+     */
+    public boolean isPerServerPool() {
+        return perServerPool;
+    }
+
+    /**
+     * If {@code true}, the pool keeps a separate sub-pool of connections for
+     * each server, sized by {@code max/minXXXPerServer} settings.
+     * 
+     * <p>
+     * Per-server limits are soft: they bound the clients of each sub-pool,
+     * not the connections a server receives. A call failing over to another
+     * server (including along a routing key's servers, see
+     * {@link ThriftClientPool#borrowObject(String)}) reconnects its client
+     * there, and the connection stays there until the client's next call
+     * finds its own server available again. So a server
+     * may temporarily hold more than {@code maxActivePerServer} connections
+     * while other servers fail.
+     * </p>
+     * 
+     * @param perServerPool
+     * @return
+     * @since 0.2.3
+     */
+    public PoolConfig setPerServerPool(boolean perServerPool) {
+        this.perServerPool = perServerPool;
+        return this;
+    }
+
+    /**
+     * @return
+     * @since 0.2.3
+     */
+    public int getMaxActivePerServer() {
+        return maxActivePerServer;
+    }
+
+    /**
+     * Maximum number of active connections per server, when
+     * {@link #isPerServerPool()}. Negative value means
+     * {@code maxActive / number of servers} (rounded up). This is a soft cap,
+     * see {@link #setPerServerPool(boolean)}.
+     * 
+     * @param maxActivePerServer
+     * @return
+     * @since 0.2.3
+     */
+    public PoolConfig setMaxActivePerServer(int maxActivePerServer) {
+        this.maxActivePerServer = maxActivePerServer;
+        return this;
+    }
+
+    /**
+     * @return
+     * @since 0.2.3
+     */
+    public int getMaxIdlePerServer() {
+        return maxIdlePerServer;
+    }
+
+    /**
+     * Maximum number of idle connections per server, when
+     * {@link #isPerServerPool()}. Negative value means
+     * {@code maxIdle / number of servers} (rounded up).
+     * 
+     * @param maxIdlePerServer
+     * @return
+     * @since 0.2.3
+     */
+    public PoolConfig setMaxIdlePerServer(int maxIdlePerServer) {
+        this.maxIdlePerServer = maxIdlePerServer;
+        return this;
+    }
+
+    /**
+     * @return
+     * @since 0.2.3
+     */
+    public int getMinIdlePerServer() {
+        return minIdlePerServer;
+    }
+
+    /**
+     * Minimum number of idle connections per server, when
+     * {@link #isPerServerPool()}. Negative value means
+     * {@code minIdle / number of servers} (rounded up).
+     * 
+     * @param minIdlePerServer
+     * @return
+     * @since 0.2.3
+     */
+    public PoolConfig setMinIdlePerServer(int minIdlePerServer) {
+        this.minIdlePerServer = minIdlePerServer;
+        return this;
+    }
+
+    static int shareRoundUp(int value, int weight, int totalWeight) {
+        totalWeight = Math.max(1, totalWeight);
+        return value < 0 ? value : (int) (((long) value * weight + totalWeight - 1) / totalWeight);
+    }
+
+    /**
+     * Builds the configurations of a weighted server's sub-pool: pool-wide
+     * limits are shared proportionally to weights.
+     * 
+     * @param weight
+     * @param totalWeight
+     * @return
+     * @since 0.2.3
+     */
+    PoolConfig forServer(int weight, int totalWeight) {
+        PoolConfig result = clone();
+        result.maxActive = maxActivePerServer >= 0 ? maxActivePerServer : Math.max(1,
+                shareRoundUp(maxActive, weight, totalWeight));
+        result.maxIdle = maxIdlePerServer >= 0 ? maxIdlePerServer : shareRoundUp(maxIdle, weight,
+                totalWeight);
+        result.minIdle = minIdlePerServer >= 0 ? minIdlePerServer : shareRoundUp(minIdle, weight,
+                totalWeight);
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @since 0.2.3
+     */
+    @Override
+    public PoolConfig clone() {
+        try {
+            return (PoolConfig) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public int hashCode() {
         HashCodeBuilder hcb = new HashCodeBuilder(19, 81);
-        hcb.append(maxActive).append(maxIdle).append(minIdle).append(maxWaitTimeMs);
+        hcb.append(maxActive).append(maxIdle).append(minIdle).append(maxWaitTimeMs)
+                .append(maxWaiters).append(maxConnectionIdleMs).append(livenessCheckIdleMs)
+                .append(prewarmConnectionsPerServer).append(prewarmTimeoutMs).append(connectorThreads)
+                .append(perServerPool).append(maxActivePerServer)
+                .append(maxIdlePerServer).append(minIdlePerServer);
         return hcb.hashCode();
     }
 
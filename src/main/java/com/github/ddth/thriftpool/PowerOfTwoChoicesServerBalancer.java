@@ -0,0 +1,56 @@
+package com.github.ddth.thriftpool;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Load-aware {@link IServerBalancer}: picks two random available servers and
+ * selects the one with lower {@link ServerNode#getLoadScore()} (in-flight
+ * calls weighted by EWMA latency), so that slow servers receive less traffic
+ * while load still spreads over all servers.
+ * 
+ * <p>
+ * Also used by {@link ThriftClientPool} for
+ * {@link RetryPolicy.RetryType#LEAST_LOADED}.
+ * </p>
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+public class PowerOfTwoChoicesServerBalancer implements IServerBalancer {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ServerNode select(List<ServerNode> serverNodes) {
+        int size = serverNodes.size();
+        if (size == 0) {
+            return null;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (size > 1) {
+            int i = random.nextInt(size);
+            int j = random.nextInt(size - 1);
+            if (j >= i) {
+                j++;
+            }
+            ServerNode a = serverNodes.get(i), b = serverNodes.get(j);
+            if (a.isAvailable() && b.isAvailable()) {
+                return a.getLoadScore() <= b.getLoadScore() ? a : b;
+            }
+            if (a.isAvailable() || b.isAvailable()) {
+                return a.isAvailable() ? a : b;
+            }
+        }
+        // both picks unavailable: best of the available ones
+        ServerNode result = null;
+        for (ServerNode node : serverNodes) {
+            if (node.isAvailable()
+                    && (result == null || node.getLoadScore() < result.getLoadScore())) {
+                result = node;
+            }
+        }
+        return result;
+    }
+}
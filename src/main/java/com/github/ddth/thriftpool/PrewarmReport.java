@@ -0,0 +1,127 @@
+package com.github.ddth.thriftpool;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * Outcome of {@link ThriftClientPool#prewarm(int, long)}: connections made to
+ * each server, and servers that could not be (fully) prewarmed.
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+public class PrewarmReport {
+
+    private final int numRequested;
+    private final Map<ServerNode, Integer> numConnected = new LinkedHashMap<ServerNode, Integer>();
+    private final Map<ServerNode, String> failures = new LinkedHashMap<ServerNode, String>();
+    private boolean finished, timedOut;
+    private long durationMs;
+
+    PrewarmReport(int numRequested) {
+        this.numRequested = numRequested;
+    }
+
+    synchronized void connected(ServerNode node) {
+        if (finished) {
+            return;
+        }
+        Integer value = numConnected.get(node);
+        numConnected.put(node, value != null ? value + 1 : 1);
+    }
+
+    synchronized void failed(ServerNode node, String error) {
+        if (!finished && !failures.containsKey(node)) {
+            failures.put(node, error);
+        }
+    }
+
+    /**
+     * Completes the report: later outcomes (connections completing after the
+     * timeout) are ignored.
+     */
+    synchronized void finish(boolean timedOut, long durationMs) {
+        this.finished = true;
+        this.timedOut = timedOut;
+        this.durationMs = durationMs;
+    }
+
+    /**
+     * Total number of connections requested.
+     *
+     * @return
+     */
+    public int getNumRequested() {
+        return numRequested;
+    }
+
+    /**
+     * Total number of connections made (before the timeout).
+     *
+     * @return
+     */
+    public synchronized int getNumConnected() {
+        int result = 0;
+        for (Integer value : numConnected.values()) {
+            result += value;
+        }
+        return result;
+    }
+
+    /**
+     * Number of connections made to a server (before the timeout).
+     *
+     * @param node
+     * @return
+     */
+    public synchronized int getNumConnected(ServerNode node) {
+        Integer value = numConnected.get(node);
+        return value != null ? value : 0;
+    }
+
+    /**
+     * Servers that could not be fully prewarmed, with the first error of each.
+     *
+     * @return
+     */
+    public synchronized Map<ServerNode, String> getFailures() {
+        return Collections.unmodifiableMap(new LinkedHashMap<ServerNode, String>(failures));
+    }
+
+    /**
+     * Did prewarming time out before all connections were made?
+     *
+     * @return
+     */
+    public synchronized boolean isTimedOut() {
+        return timedOut;
+    }
+
+    public synchronized long getDurationMs() {
+        return durationMs;
+    }
+
+    /**
+     * Have all requested connections been made?
+     *
+     * @return
+     */
+    public synchronized boolean isSuccessful() {
+        return !timedOut && failures.isEmpty() && getNumConnected() == numRequested;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String toString() {
+        ToStringBuilder tsb = new ToStringBuilder(this);
+        tsb.append("numRequested", numRequested).append("numConnected", numConnected)
+                .append("failures", failures).append("timedOut", timedOut)
+                .append("durationMs", durationMs);
+        return tsb.toString();
+    }
+}
@@ -0,0 +1,152 @@
+package com.github.ddth.thriftpool;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * Pool-wide retry budget: limits retries to a percentage of successful calls
+ * over a sliding time window, so that a partial outage does not multiply
+ * load on the remaining servers (retry storm).
+ *
+ * <p>
+ * A retry is allowed if
+ * {@code retries < minRetriesPerSecond * windowSeconds + retryPercent% * successes}
+ * , counted over the last {@code windowMs}. The window is split into
+ * {@link #NUM_BUCKETS} buckets; counting is lock-free and approximate under
+ * contention.
+ * </p>
+ *
+ * <p>
+ * A budget instance is shared by all clients of a pool (it may also be shared
+ * by several pools). Settings must not be changed once in use.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+public class RetryBudget {
+
+    /**
+     * Number of buckets the window is split into.
+     */
+    public final static int NUM_BUCKETS = 10;
+
+    public final static long DEFAULT_WINDOW_MS = 10000;
+    public final static int DEFAULT_RETRY_PERCENT = 20;
+    public final static int DEFAULT_MIN_RETRIES_PER_SECOND = 10;
+
+    private long windowMs = DEFAULT_WINDOW_MS;
+    private int retryPercent = DEFAULT_RETRY_PERCENT;
+    private int minRetriesPerSecond = DEFAULT_MIN_RETRIES_PER_SECOND;
+
+    private final static int COUNTER_SUCCESSES = 0, COUNTER_RETRIES = 1;
+    private volatile RollingWindow window = new RollingWindow(windowMs, NUM_BUCKETS, 2);
+    private final AtomicLong numRetriesAllowed = new AtomicLong(),
+            numRetriesDenied = new AtomicLong();
+
+    public RetryBudget() {
+    }
+
+    public RetryBudget(long windowMs, int retryPercent, int minRetriesPerSecond) {
+        setWindowMs(windowMs);
+        this.retryPercent = retryPercent;
+        this.minRetriesPerSecond = minRetriesPerSecond;
+    }
+
+    public long getWindowMs() {
+        return windowMs;
+    }
+
+    public RetryBudget setWindowMs(long windowMs) {
+        this.windowMs = windowMs;
+        this.window = new RollingWindow(windowMs, NUM_BUCKETS, 2);
+        return this;
+    }
+
+    /**
+     * Retries allowed, as percentage of successful calls in the window.
+     *
+     * @return
+     */
+    public int getRetryPercent() {
+        return retryPercent;
+    }
+
+    public RetryBudget setRetryPercent(int retryPercent) {
+        this.retryPercent = retryPercent;
+        return this;
+    }
+
+    /**
+     * Retries always allowed per second, so that low-traffic pools can retry.
+     *
+     * @return
+     */
+    public int getMinRetriesPerSecond() {
+        return minRetriesPerSecond;
+    }
+
+    public RetryBudget setMinRetriesPerSecond(int minRetriesPerSecond) {
+        this.minRetriesPerSecond = minRetriesPerSecond;
+        return this;
+    }
+
+    /*----------------------------------------------------------------------*/
+    /**
+     * Records a successful call.
+     */
+    public void recordSuccess() {
+        window.increment(COUNTER_SUCCESSES);
+    }
+
+    /**
+     * Asks for permission to retry; a granted retry is counted against the
+     * budget.
+     *
+     * @return {@code false} if the budget is exhausted
+     */
+    public boolean tryAcquireRetry() {
+        RollingWindow window = this.window;
+        double budget = minRetriesPerSecond * windowMs / 1000.0
+                + window.sum(COUNTER_SUCCESSES) * retryPercent / 100.0;
+        if (window.sum(COUNTER_RETRIES) < budget) {
+            window.increment(COUNTER_RETRIES);
+            numRetriesAllowed.incrementAndGet();
+            return true;
+        }
+        numRetriesDenied.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Total number of retries allowed so far.
+     *
+     * @return
+     */
+    public long getNumRetriesAllowed() {
+        return numRetriesAllowed.get();
+    }
+
+    /**
+     * Total number of retries denied so far.
+     *
+     * @return
+     */
+    public long getNumRetriesDenied() {
+        return numRetriesDenied.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        ToStringBuilder tsb = new ToStringBuilder(this);
+        tsb.append("windowMs", windowMs).append("retryPercent", retryPercent)
+                .append("minRetriesPerSecond", minRetriesPerSecond)
+                .append("numRetriesAllowed", numRetriesAllowed)
+                .append("numRetriesDenied", numRetriesDenied);
+        return tsb.toString();
+    }
+}
@@ -1,5 +1,7 @@
 package com.github.ddth.thriftpool;
 
+import java.util.concurrent.ThreadLocalRandom;
+
 import org.apache.commons.lang3.builder.ToStringBuilder;
 
 /**
@@ -49,7 +51,53 @@ public class RetryPolicy implements Cloneable {
          * 
          * @since 0.2.2
          */
-        RANDOM_FAILOVER
+        RANDOM_FAILOVER,
+
+        /**
+         * Load-aware "power of two choices": for every connection (and every
+         * retry, excluding the failed server), pick two random servers and
+         * choose the one with fewer in-flight calls weighted by EWMA latency,
+         * see {@link PowerOfTwoChoicesServerBalancer}.
+         * 
+         * <p>
+         * Requires server load stats, which are tracked by
+         * {@link ThriftClientPool}; {@link #calcServerIndexHash(int)} alone
+         * falls back to {@link #RANDOM}.
+         * </p>
+         * 
+         * @since 0.2.3
+         */
+        LEAST_LOADED
+    }
+
+    /**
+     * How long to sleep between retries.
+     * 
+     * @since 0.2.3
+     */
+    public static enum BackoffType {
+        /**
+         * Retry immediately.
+         */
+        NONE,
+
+        /**
+         * Always sleep {@code sleepMsBetweenRetries}.
+         */
+        FIXED,
+
+        /**
+         * Sleep {@code sleepMsBetweenRetries * 2^(n-1)} before the n-th retry,
+         * capped at {@code maxSleepMsBetweenRetries}.
+         */
+        EXPONENTIAL,
+
+        /**
+         * "Decorrelated jitter": sleep a random time between
+         * {@code sleepMsBetweenRetries} and 3 times the previous sleep, capped
+         * at {@code maxSleepMsBetweenRetries}.
+         */
+        DECORRELATED_JITTER
     }
 
     public static RetryPolicy DEFAULT = new RetryPolicy(3, 1000, RetryType.ROUND_ROBIN);
@@ -59,6 +107,11 @@ public class RetryPolicy implements Cloneable {
     private long sleepMsBetweenRetries = 1000;
     private RetryType retryType = RetryType.ROUND_ROBIN;
     private int lastServerIndexHash = 0;
+    private BackoffType backoffType = BackoffType.FIXED;
+    private long maxSleepMsBetweenRetries = 30000;
+    private boolean failoverWithoutSleep = true;
+    private long deadlineMs = 0;
+    private long startTimestamp = 0, lastSleepMs = 0;
 
     public RetryPolicy() {
     }
@@ -101,6 +154,93 @@ public class RetryPolicy implements Cloneable {
         return this;
     }
 
+    /**
+     * @return
+     * @since 0.2.3
+     */
+    public BackoffType getBackoffType() {
+        return backoffType;
+    }
+
+    /**
+     * @param backoffType
+     * @return
+     * @since 0.2.3
+     */
+    public RetryPolicy setBackoffType(BackoffType backoffType) {
+        this.backoffType = backoffType;
+        return this;
+    }
+
+    /**
+     * @return
+     * @since 0.2.3
+     */
+    public long getMaxSleepMsBetweenRetries() {
+        return maxSleepMsBetweenRetries;
+    }
+
+    /**
+     * Upper bound of sleep time for {@link BackoffType#EXPONENTIAL} and
+     * {@link BackoffType#DECORRELATED_JITTER}.
+     * 
+     * @param maxSleepMsBetweenRetries
+     * @return
+     * @since 0.2.3
+     */
+    public RetryPolicy setMaxSleepMsBetweenRetries(long maxSleepMsBetweenRetries) {
+        this.maxSleepMsBetweenRetries = maxSleepMsBetweenRetries;
+        return this;
+    }
+
+    /**
+     * @return
+     * @since 0.2.3
+     */
+    public boolean isFailoverWithoutSleep() {
+        return failoverWithoutSleep;
+    }
+
+    /**
+     * If {@code true} (default), retries on a server other than the failed
+     * one are made immediately, without sleeping.
+     * 
+     * @param failoverWithoutSleep
+     * @return
+     * @since 0.2.3
+     */
+    public RetryPolicy setFailoverWithoutSleep(boolean failoverWithoutSleep) {
+        this.failoverWithoutSleep = failoverWithoutSleep;
+        return this;
+    }
+
+    /**
+     * @return
+     * @since 0.2.3
+     */
+    public long getDeadlineMs() {
+        return deadlineMs;
+    }
+
+    /**
+     * Caps total time of a call, including retries and sleeps between
+     * retries: no retry is attempted once the deadline has passed (or would
+     * pass while sleeping). Value {@code <=0} means no deadline.
+     * 
+     * <p>
+     * Note: an attempt in progress is not interrupted, its duration is bounded
+     * by the transport's socket timeout.
+     * </p>
+     * 
+     * @param deadlineMs
+     * @return
+     * @since 0.2.3
+     */
+    public RetryPolicy setDeadlineMs(long deadlineMs) {
+        this.deadlineMs = deadlineMs;
+        return this;
+    }
+
     /**
      * @return
      * @since 0.2.2
@@ -122,6 +262,8 @@ public class RetryPolicy implements Cloneable {
     public void reset() {
         counter = 0;
         lastServerIndexHash = 0;
+        lastSleepMs = 0;
+        startTimestamp = deadlineMs > 0 ? System.currentTimeMillis() : 0;
     }
 
     public int getCounter() {
@@ -132,9 +274,155 @@ public class RetryPolicy implements Cloneable {
         return counter >= numRetries;
     }
 
-    public void sleep() throws InterruptedException {
+    /**
+     * Increases the retry counter without sleeping.
+     * 
+     * @return
+     * @since 0.2.3
+     */
+    public RetryPolicy incCounter() {
         counter++;
-        Thread.sleep(sleepMsBetweenRetries);
+        return this;
+    }
+
+    public void sleep() throws InterruptedException {
+        incCounter();
+        long sleepMs = calcSleepMs(true);
+        if (sleepMs > 0) {
+            Thread.sleep(sleepMs);
+        }
+    }
+
+    /**
+     * Gets the remaining time before the call's deadline.
+     * 
+     * @return {@link Long#MAX_VALUE} if there is no deadline
+     * @since 0.2.3
+     */
+    public long getRemainingMs() {
+        if (deadlineMs <= 0) {
+            return Long.MAX_VALUE;
+        }
+        return startTimestamp + deadlineMs - System.currentTimeMillis();
+    }
+
+    /**
+     * Checks if a retry after sleeping {@code sleepMs} would start within the
+     * call's deadline.
+     * 
+     * @param sleepMs
+     * @return
+     * @since 0.2.3
+     */
+    public boolean canRetryWithin(long sleepMs) {
+        return deadlineMs <= 0 || getRemainingMs() > sleepMs;
+    }
+
+    /**
+     * Calculates how long to sleep before the current retry (
+     * {@link #getCounter()}-th), according to {@link #getBackoffType()}.
+     * 
+     * @param sameServer
+     *            is the retry made on the same server as the failed attempt?
+     * @return
+     * @since 0.2.3
+     */
+    public long calcSleepMs(boolean sameServer) {
+        if (!sameServer && failoverWithoutSleep) {
+            return 0;
+        }
+        long sleepMs;
+        switch (backoffType) {
+        case NONE:
+            sleepMs = 0;
+            break;
+        case EXPONENTIAL: {
+            int shift = Math.min(Math.max(counter - 1, 0), 30);
+            sleepMs = Math.min(sleepMsBetweenRetries << shift, maxSleepMsBetweenRetries);
+            break;
+        }
+        case DECORRELATED_JITTER: {
+            long upper = Math.max(lastSleepMs, sleepMsBetweenRetries) * 3;
+            sleepMs = upper > sleepMsBetweenRetries ? ThreadLocalRandom.current().nextLong(
+                    sleepMsBetweenRetries, upper) : sleepMsBetweenRetries;
+            sleepMs = Math.min(sleepMs, maxSleepMsBetweenRetries);
+            break;
+        }
+        case FIXED:
+        default:
+            sleepMs = sleepMsBetweenRetries;
+            break;
+        }
+        lastSleepMs = sleepMs;
+        return Math.max(sleepMs, 0);
+    }
+
+    /**
+     * Calculates the server to connect to for the current attempt, according
+     * to {@link #getRetryType()}.
+     * 
+     * @param numServers
+     * @return server index hash, see {@link ITProtocolFactory#create(int)}
+     * @since 0.2.3
+     */
+    public int calcServerIndexHash(int numServers) {
+        return calcServerIndexHash(numServers, null);
+    }
+
+    /**
+     * Calculates the server to connect to for the current attempt, according
+     * to {@link #getRetryType()} and server weights: random picks (
+     * {@link RetryType#RANDOM}, first server of {@link RetryType#ROUND_ROBIN},
+     * failover servers of {@link RetryType#RANDOM_FAILOVER}) are proportional
+     * to weights; ordered failover is not weighted.
+     * 
+     * @param numServers
+     * @param weights
+     *            {@code null} if all servers have the same weight
+     * @return server index hash, see {@link ITProtocolFactory#create(int)}
+     * @since 0.2.3
+     */
+    public int calcServerIndexHash(int numServers, WeightedServerTable weights) {
+        int serverIndexHash = 0;
+        switch (retryType) {
+        case FAILOVER:
+            serverIndexHash = counter;
+            break;
+        case ROUND_ROBIN:
+            if (counter == 0) {
+                serverIndexHash = ThreadLocalRandom.current().nextInt(Short.MAX_VALUE);
+                if (weights != null) {
+                    serverIndexHash = weights.pick(serverIndexHash);
+                } else if (numServers > 1) {
+                    serverIndexHash = serverIndexHash % numServers;
+                }
+            } else {
+                serverIndexHash = lastServerIndexHash + 1;
+            }
+            lastServerIndexHash = serverIndexHash;
+            break;
+        case RANDOM_FAILOVER:
+            if (counter == 0 || numServers < 2) {
+                serverIndexHash = 0;
+            } else if (weights != null) {
+                serverIndexHash = weights.pick(
+                        ThreadLocalRandom.current().nextInt(Short.MAX_VALUE), 0);
+            } else {
+                serverIndexHash = 1 + (ThreadLocalRandom.current()
+                        .nextInt(Short.MAX_VALUE) % (numServers - 1));
+            }
+            break;
+        case LEAST_LOADED:
+            // no load stats here
+        case RANDOM:
+        default:
+            serverIndexHash = ThreadLocalRandom.current().nextInt(Short.MAX_VALUE);
+            if (weights != null) {
+                serverIndexHash = weights.pick(serverIndexHash);
+            }
+            break;
+        }
+        return serverIndexHash;
     }
 
     /**
@@ -147,7 +435,11 @@ public class RetryPolicy implements Cloneable {
         ToStringBuilder tsb = new ToStringBuilder(this);
         tsb.append("counter", counter).append("numRetries", numRetries)
                 .append("sleepMsBetweenRetries", sleepMsBetweenRetries)
-                .append("retryType", retryType).append("lastServerIndexHash", lastServerIndexHash);
+                .append("retryType", retryType).append("lastServerIndexHash", lastServerIndexHash)
+                .append("backoffType", backoffType)
+                .append("maxSleepMsBetweenRetries", maxSleepMsBetweenRetries)
+                .append("failoverWithoutSleep", failoverWithoutSleep)
+                .append("deadlineMs", deadlineMs);
         return tsb.toString();
     }
 
@@ -0,0 +1,93 @@
+package com.github.ddth.thriftpool;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free counters over a sliding time window.
+ *
+ * <p>
+ * The window is split into buckets; a bucket is reset when its time slot is
+ * reused. Counting is approximate under contention (increments racing with a
+ * bucket reset may be lost).
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+final class RollingWindow {
+
+    private final long bucketMs;
+    private final int numBuckets, numCounters;
+    private final AtomicLongArray bucketEpochs;
+    private final AtomicLongArray counters;
+
+    /**
+     * @param windowMs
+     * @param numBuckets
+     * @param numCounters
+     *            number of counters tracked in each bucket
+     */
+    public RollingWindow(long windowMs, int numBuckets, int numCounters) {
+        this.numBuckets = numBuckets;
+        this.numCounters = numCounters;
+        this.bucketMs = Math.max(1, windowMs / numBuckets);
+        this.bucketEpochs = new AtomicLongArray(numBuckets);
+        this.counters = new AtomicLongArray(numBuckets * numCounters);
+    }
+
+    /**
+     * Gets the bucket of the current time slot, resetting it if it belongs to
+     * an expired slot.
+     *
+     * @return
+     */
+    private int currentBucket() {
+        long epoch = System.currentTimeMillis() / bucketMs;
+        int index = (int) (epoch % numBuckets);
+        long bucketEpoch = bucketEpochs.get(index);
+        if (bucketEpoch != epoch && bucketEpochs.compareAndSet(index, bucketEpoch, epoch)) {
+            for (int i = 0; i < numCounters; i++) {
+                counters.set(index * numCounters + i, 0);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Increments a counter.
+     *
+     * @param counter
+     */
+    public void increment(int counter) {
+        counters.incrementAndGet(currentBucket() * numCounters + counter);
+    }
+
+    /**
+     * Sums a counter over the window.
+     *
+     * @param counter
+     * @return
+     */
+    public long sum(int counter) {
+        long minEpoch = System.currentTimeMillis() / bucketMs - numBuckets;
+        long sum = 0;
+        for (int i = 0; i < numBuckets; i++) {
+            if (bucketEpochs.get(i) > minEpoch) {
+                sum += counters.get(i * numCounters + counter);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Resets all counters.
+     */
+    public void reset() {
+        for (int i = 0; i < numBuckets; i++) {
+            bucketEpochs.set(i, 0);
+        }
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package com.github.ddth.thriftpool;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.thrift.protocol.TProtocol;
+
+import com.github.ddth.thriftpool.AbstractTProtocolFactory.HostAndPort;
+
+/**
+ * A backend server known to a {@link ThriftClientPool}.
+ * 
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+public class ServerNode {
+
+    /**
+     * Weight of the latest sample in the latency EWMA.
+     */
+    public final static double EWMA_ALPHA = 0.2;
+
+    /**
+     * Latency recorded for a call failed with a transport error, so that a
+     * server failing fast does not look fast.
+     */
+    public final static long FAILURE_PENALTY_NS = 1000000000L;
+
+    private volatile int index;
+    private volatile HostAndPort hostAndPort;
+    private volatile boolean drained = false, removed = false;
+    private final AtomicInteger numInFlight = new AtomicInteger();
+    private final AtomicLong latencyEwmaBits = new AtomicLong(Double.doubleToLongBits(0));
+    private final AtomicLong numCalls = new AtomicLong(), numFailures = new AtomicLong(),
+            totalLatencyNs = new AtomicLong();
+    private volatile boolean ejected = false;
+    private volatile long ejectedUntil;
+    int numEjections;
+    private volatile boolean healthy = true;
+    int numHealthCheckSuccesses, numHealthCheckFailures;
+
+    /**
+     * Per-server sub-pool, {@code null} if the pool does not use per-server
+     * sub-pools.
+     */
+    volatile IPoolEngine<?> subPool;
+
+    /**
+     * Circuit breaker of this server, {@code null} if the pool does not use
+     * circuit breakers.
+     */
+    volatile CircuitBreaker circuitBreaker;
+
+    /**
+     * @param index
+     *            server index, passed to {@link ITProtocolFactory#create(int)}
+     * @param hostAndPort
+     *            may be {@code null} if the {@link ITProtocolFactory} does not
+     *            expose its server list
+     */
+    public ServerNode(int index, HostAndPort hostAndPort) {
+        this.index = index;
+        this.hostAndPort = hostAndPort;
+    }
+
+    /**
+     * Position of the server in the pool's server list. May change when the
+     * server list is updated (see {@link IServerListListener}).
+     * 
+     * @return
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Moves the server in the server list and/or updates its weight.
+     * 
+     * @param index
+     * @param hostAndPort
+     */
+    void update(int index, HostAndPort hostAndPort) {
+        this.index = index;
+        this.hostAndPort = hostAndPort;
+    }
+
+    public HostAndPort getHostAndPort() {
+        return hostAndPort;
+    }
+
+    /**
+     * Relative weight of the server, see {@link HostAndPort#weight}.
+     * 
+     * @return
+     */
+    public int getWeight() {
+        HostAndPort hostAndPort = this.hostAndPort;
+        return hostAndPort != null ? Math.max(1, hostAndPort.weight) : 1;
+    }
+
+    /**
+     * Is the server drained (i.e. no new connections are made to it)?
+     * 
+     * @return
+     */
+    public boolean isDrained() {
+        return drained;
+    }
+
+    ServerNode setDrained(boolean drained) {
+        this.drained = drained;
+        return this;
+    }
+
+    /**
+     * Has the server been removed from the server list? Connections to a
+     * removed server are closed when returned to the pool.
+     * 
+     * @return
+     */
+    public boolean isRemoved() {
+        return removed;
+    }
+
+    void setRemoved() {
+        this.removed = true;
+    }
+
+    /**
+     * Can new connections be made to this server (i.e. it is not drained,
+     * unhealthy, ejected as an outlier nor skipped by its circuit breaker)?
+     * 
+     * @return
+     */
+    public boolean isAvailable() {
+        CircuitBreaker circuitBreaker = this.circuitBreaker;
+        return !drained && !removed && healthy && !ejected
+                && (circuitBreaker == null || circuitBreaker.isAvailable());
+    }
+
+    /**
+     * Has the server passed its latest health checks, see
+     * {@link HealthChecker}?
+     * 
+     * @return always {@code true} if the pool does not use health checking
+     */
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    void setHealthy(boolean healthy) {
+        this.healthy = healthy;
+    }
+
+    /**
+     * Is the server ejected from selection as an outlier, see
+     * {@link OutlierDetector}?
+     * 
+     * @return
+     */
+    public boolean isEjected() {
+        return ejected;
+    }
+
+    /**
+     * @return timestamp (ms) at which the current ejection ends, {@code 0} if
+     *         not ejected
+     */
+    public long getEjectedUntil() {
+        return ejected ? ejectedUntil : 0;
+    }
+
+    void eject(long ejectedUntil) {
+        this.ejectedUntil = ejectedUntil;
+        this.ejected = true;
+    }
+
+    void readmit() {
+        this.ejected = false;
+    }
+
+    /**
+     * State of this server's circuit breaker.
+     * 
+     * @return {@code null} if the pool does not use circuit breakers
+     */
+    public CircuitBreaker.State getCircuitState() {
+        CircuitBreaker circuitBreaker = this.circuitBreaker;
+        return circuitBreaker != null ? circuitBreaker.getState() : null;
+    }
+
+    /**
+     * Asks the circuit breaker for permission to connect to this server, see
+     * {@link CircuitBreaker#allowRequest()}.
+     * 
+     * @return
+     */
+    boolean allowRequest() {
+        CircuitBreaker circuitBreaker = this.circuitBreaker;
+        return circuitBreaker == null || circuitBreaker.allowRequest();
+    }
+
+    /**
+     * Number of borrowed clients in this server's sub-pool.
+     * 
+     * @return {@code 0} if the pool does not use per-server sub-pools
+     */
+    public int getNumActive() {
+        IPoolEngine<?> subPool = this.subPool;
+        return subPool != null ? subPool.getNumActive() : 0;
+    }
+
+    /**
+     * Number of idle clients in this server's sub-pool.
+     * 
+     * @return {@code 0} if the pool does not use per-server sub-pools
+     */
+    public int getNumIdle() {
+        IPoolEngine<?> subPool = this.subPool;
+        return subPool != null ? subPool.getNumIdle() : 0;
+    }
+
+    /**
+     * Number of calls currently in progress on this server.
+     * 
+     * @return
+     */
+    public int getNumInFlight() {
+        return numInFlight.get();
+    }
+
+    /**
+     * Total number of calls (and connection attempts) made to this server.
+     * 
+     * @return
+     */
+    public long getNumCalls() {
+        return numCalls.get();
+    }
+
+    /**
+     * Total number of calls (and connection attempts) to this server failed
+     * with a transport error.
+     * 
+     * @return
+     */
+    public long getNumFailures() {
+        return numFailures.get();
+    }
+
+    /**
+     * Sum of latencies of all calls made to this server.
+     * 
+     * @return
+     */
+    public long getTotalLatencyNs() {
+        return totalLatencyNs.get();
+    }
+
+    /**
+     * Exponentially weighted moving average of call latencies on this server.
+     * 
+     * @return latency in nanoseconds, {@code 0} if no call has been made
+     */
+    public double getLatencyEwmaNs() {
+        return Double.longBitsToDouble(latencyEwmaBits.get());
+    }
+
+    /**
+     * Load score used for server selection:
+     * {@code (inFlight + 1) * EWMA / weight}. Lower is better.
+     * 
+     * @return
+     */
+    public double getLoadScore() {
+        return (numInFlight.get() + 1) * getLatencyEwmaNs() / getWeight();
+    }
+
+    void callStarted() {
+        numInFlight.incrementAndGet();
+    }
+
+    /**
+     * @param latencyNs
+     * @param failed
+     *            has the call failed with a transport error?
+     */
+    void callFinished(long latencyNs, boolean failed) {
+        numInFlight.decrementAndGet();
+        recordLatency(latencyNs, failed);
+    }
+
+    /**
+     * Called when a call is aborted by the pool (e.g. the losing attempt of a
+     * hedged call): nothing is recorded, the server has not failed.
+     */
+    void callAborted() {
+        numInFlight.decrementAndGet();
+    }
+
+    /**
+     * Records a latency sample without a call in progress (e.g. a failed
+     * connection attempt). The outcome is also reported to the circuit
+     * breaker.
+     * 
+     * @param latencyNs
+     * @param failed
+     */
+    void recordLatency(long latencyNs, boolean failed) {
+        numCalls.incrementAndGet();
+        totalLatencyNs.addAndGet(latencyNs);
+        if (failed) {
+            numFailures.incrementAndGet();
+        }
+        CircuitBreaker circuitBreaker = this.circuitBreaker;
+        if (circuitBreaker != null) {
+            if (failed) {
+                circuitBreaker.onFailure();
+            } else {
+                circuitBreaker.onSuccess();
+            }
+        }
+        double sample = failed ? Math.max(latencyNs, FAILURE_PENALTY_NS) : latencyNs;
+        while (true) {
+            long bits = latencyEwmaBits.get();
+            double ewma = Double.longBitsToDouble(bits);
+            double newEwma = ewma == 0 ? sample : ewma + EWMA_ALPHA * (sample - ewma);
+            if (latencyEwmaBits.compareAndSet(bits, Double.doubleToLongBits(newEwma))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Opens a new connection to this server.
+     * 
+     * @param tprotocolFactory
+     * @return
+     * @throws Exception
+     */
+    TProtocol createProtocol(ITProtocolFactory tprotocolFactory) throws Exception {
+        HostAndPort hostAndPort = this.hostAndPort;
+        if (hostAndPort != null && tprotocolFactory instanceof AbstractTProtocolFactory) {
+            // by address rather than index, which may refer to another
+            // server while the server list is being updated
+            return ((AbstractTProtocolFactory) tprotocolFactory).create(hostAndPort);
+        }
+        return tprotocolFactory.create(index);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        HostAndPort hostAndPort = this.hostAndPort;
+        return hostAndPort != null ? hostAndPort.host + ":" + hostAndPort.port : "#" + index;
+    }
+}
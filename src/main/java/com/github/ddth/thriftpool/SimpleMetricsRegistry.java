@@ -0,0 +1,346 @@
+package com.github.ddth.thriftpool;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * In-memory {@link IMetricsRegistry}: {@link LatencyHistogram}s of borrow
+ * wait times and of RPC latencies per method and per server, and counters of
+ * retries, connections and transport errors (per type).
+ *
+ * <p>
+ * Metrics are cumulative since creation (or the last {@link #reset()}).
+ * Recording does not allocate, except for the first call to a server.
+ * Metrics of a server are dropped when it is removed from the pool's server
+ * list.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+public class SimpleMetricsRegistry implements IMetricsRegistry {
+
+    /**
+     * Names of {@code TTransportException} types, by type.
+     */
+    public final static String[] TRANSPORT_ERROR_TYPES = { "UNKNOWN", "NOT_OPEN",
+            "ALREADY_OPEN", "TIMED_OUT", "END_OF_FILE" };
+
+    /**
+     * Metrics of a server.
+     */
+    public static class ServerMetrics {
+        private final LatencyHistogram callLatency = new LatencyHistogram();
+        private final AtomicLong numFailedCalls = new AtomicLong(), numRetries = new AtomicLong(),
+                numConnects = new AtomicLong(), numFailedConnects = new AtomicLong();
+        private final AtomicLongArray numTransportErrors = new AtomicLongArray(
+                TRANSPORT_ERROR_TYPES.length);
+
+        public LatencyHistogram getCallLatency() {
+            return callLatency;
+        }
+
+        public long getNumFailedCalls() {
+            return numFailedCalls.get();
+        }
+
+        /**
+         * Number of retries after a failed call to this server.
+         *
+         * @return
+         */
+        public long getNumRetries() {
+            return numRetries.get();
+        }
+
+        public long getNumConnects() {
+            return numConnects.get();
+        }
+
+        public long getNumFailedConnects() {
+            return numFailedConnects.get();
+        }
+
+        /**
+         * @param type
+         *            see {@link SimpleMetricsRegistry#TRANSPORT_ERROR_TYPES}
+         * @return
+         */
+        public long getNumTransportErrors(int type) {
+            return type >= 0 && type < TRANSPORT_ERROR_TYPES.length ? numTransportErrors
+                    .get(type) : 0;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            ToStringBuilder tsb = new ToStringBuilder(this);
+            tsb.append("callLatency", callLatency).append("numFailedCalls", numFailedCalls)
+                    .append("numRetries", numRetries).append("numConnects", numConnects)
+                    .append("numFailedConnects", numFailedConnects)
+                    .append("numTransportErrors", numTransportErrors);
+            return tsb.toString();
+        }
+    }
+
+    /**
+     * Metrics of a method.
+     */
+    private class MethodMetrics implements IMethodMetrics {
+        private final LatencyHistogram callLatency = new LatencyHistogram();
+        private final AtomicLong numRetries = new AtomicLong();
+
+        @Override
+        public void recordCall(ServerNode node, long latencyNs, boolean failed) {
+            callLatency.record(latencyNs);
+            ServerMetrics metrics = serverMetrics(node);
+            metrics.callLatency.record(latencyNs);
+            if (failed) {
+                metrics.numFailedCalls.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void recordRetry(ServerNode node) {
+            numRetries.incrementAndGet();
+            if (node != null) {
+                serverMetrics(node).numRetries.incrementAndGet();
+            }
+        }
+    }
+
+    private final LatencyHistogram borrowWait = new LatencyHistogram();
+    private final AtomicLong numFailedBorrows = new AtomicLong();
+    private final ConcurrentMap<String, MethodMetrics> methodMetrics = new ConcurrentHashMap<String, MethodMetrics>();
+    private final ConcurrentMap<ServerNode, ServerMetrics> serverMetrics = new ConcurrentHashMap<ServerNode, ServerMetrics>();
+    private final ConcurrentMap<String, LongSupplier> gauges = new ConcurrentHashMap<String, LongSupplier>();
+
+    private static int transportErrorType(int type) {
+        return type >= 0 && type < TRANSPORT_ERROR_TYPES.length ? type : 0;
+    }
+
+    private ServerMetrics serverMetrics(ServerNode node) {
+        ServerMetrics result = serverMetrics.get(node);
+        if (result == null) {
+            if (node.isRemoved()) {
+                // e.g. a call in progress when the server was removed
+                return new ServerMetrics();
+            }
+            ServerMetrics existing = serverMetrics.putIfAbsent(node, result = new ServerMetrics());
+            result = existing != null ? existing : result;
+        }
+        return result;
+    }
+
+    /*----------------------------------------------------------------------*/
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void recordBorrow(long waitNs, boolean success) {
+        borrowWait.record(waitNs);
+        if (!success) {
+            numFailedBorrows.incrementAndGet();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IMethodMetrics methodMetrics(String methodName) {
+        MethodMetrics result = methodMetrics.get(methodName);
+        if (result == null) {
+            MethodMetrics existing = methodMetrics.putIfAbsent(methodName,
+                    result = new MethodMetrics());
+            result = existing != null ? existing : result;
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void recordConnect(ServerNode node, boolean success) {
+        ServerMetrics metrics = serverMetrics(node);
+        metrics.numConnects.incrementAndGet();
+        if (!success) {
+            metrics.numFailedConnects.incrementAndGet();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void recordTransportError(ServerNode node, int type) {
+        serverMetrics(node).numTransportErrors.incrementAndGet(transportErrorType(type));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeServer(ServerNode node) {
+        serverMetrics.remove(node);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void registerGauge(String name, LongSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /*----------------------------------------------------------------------*/
+    /**
+     * Time spent borrowing clients from the pool.
+     *
+     * @return
+     */
+    public LatencyHistogram getBorrowWait() {
+        return borrowWait;
+    }
+
+    /**
+     * Number of borrow attempts that failed (e.g. timed out).
+     *
+     * @return
+     */
+    public long getNumFailedBorrows() {
+        return numFailedBorrows.get();
+    }
+
+    /**
+     * RPC latencies of a method, on all servers.
+     *
+     * @param methodName
+     * @return {@code null} if the method has not been called
+     */
+    public LatencyHistogram getMethodLatency(String methodName) {
+        MethodMetrics metrics = methodMetrics.get(methodName);
+        return metrics != null && metrics.callLatency.getCount() > 0 ? metrics.callLatency
+                : null;
+    }
+
+    /**
+     * RPC latencies of all called methods.
+     *
+     * @return
+     */
+    public Map<String, LatencyHistogram> getMethodLatencies() {
+        Map<String, LatencyHistogram> result = new TreeMap<String, LatencyHistogram>();
+        for (Map.Entry<String, MethodMetrics> entry : methodMetrics.entrySet()) {
+            if (entry.getValue().callLatency.getCount() > 0) {
+                result.put(entry.getKey(), entry.getValue().callLatency);
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Number of retries of a method.
+     *
+     * @param methodName
+     * @return
+     */
+    public long getNumRetries(String methodName) {
+        MethodMetrics metrics = methodMetrics.get(methodName);
+        return metrics != null ? metrics.numRetries.get() : 0;
+    }
+
+    /**
+     * Total number of retries.
+     *
+     * @return
+     */
+    public long getNumRetries() {
+        long result = 0;
+        for (MethodMetrics metrics : methodMetrics.values()) {
+            result += metrics.numRetries.get();
+        }
+        return result;
+    }
+
+    /**
+     * Metrics of a server.
+     *
+     * @param node
+     * @return {@code null} if nothing has been recorded for the server
+     */
+    public ServerMetrics getServerMetrics(ServerNode node) {
+        return serverMetrics.get(node);
+    }
+
+    /**
+     * Metrics of all servers.
+     *
+     * @return
+     */
+    public Map<ServerNode, ServerMetrics> getServerMetrics() {
+        return Collections.unmodifiableMap(serverMetrics);
+    }
+
+    /**
+     * Current value of a gauge.
+     *
+     * @param name
+     * @return {@code -1} if no such gauge
+     */
+    public long getGauge(String name) {
+        LongSupplier gauge = gauges.get(name);
+        return gauge != null ? gauge.getAsLong() : -1;
+    }
+
+    /**
+     * Current values of all gauges.
+     *
+     * @return
+     */
+    public Map<String, Long> getGauges() {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<String, LongSupplier> entry : gauges.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getAsLong());
+        }
+        return result;
+    }
+
+    /**
+     * Clears all recorded metrics (gauges are kept).
+     */
+    public void reset() {
+        borrowWait.reset();
+        numFailedBorrows.set(0);
+        // method metrics are held by pools, cleared in place
+        for (MethodMetrics metrics : methodMetrics.values()) {
+            metrics.callLatency.reset();
+            metrics.numRetries.set(0);
+        }
+        serverMetrics.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        ToStringBuilder tsb = new ToStringBuilder(this);
+        tsb.append("gauges", getGauges()).append("borrowWait", borrowWait)
+                .append("numFailedBorrows", numFailedBorrows)
+                .append("methodLatencies", getMethodLatencies())
+                .append("numRetries", getNumRetries()).append("serverMetrics", serverMetrics);
+        return tsb.toString();
+    }
+}
@@ -0,0 +1,161 @@
+package com.github.ddth.thriftpool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransport;
+
+/**
+ * Zero-RPC liveness check of a client connection.
+ *
+ * <p>
+ * Wrapping transports (e.g. {@code TFramedTransport}) are unwrapped down to
+ * the {@link TSocket}, then:
+ * </p>
+ * <ul>
+ * <li>a closed transport/socket, or unread bytes (an idle connection must
+ * have none), means the connection is not usable;</li>
+ * <li>if the socket is backed by a {@link SocketChannel} (see
+ * {@link AbstractTProtocolFactory#openChannelSocket(String, int, int)}), a
+ * non-blocking 1-byte read detects a connection closed by the peer without
+ * waiting;</li>
+ * <li>otherwise, if {@code timedPeek} is set, a read with a
+ * {@link #PEEK_TIMEOUT_MS} timeout is made instead.</li>
+ * </ul>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+final class SocketLiveness {
+
+    public final static int PEEK_TIMEOUT_MS = 1;
+
+    private final static Field NO_FIELD;
+    static {
+        try {
+            NO_FIELD = SocketLiveness.class.getDeclaredField("NO_FIELD");
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Field holding the wrapped transport, per transport class.
+     */
+    private final static ConcurrentMap<Class<?>, Field> WRAPPED_TRANSPORT_FIELDS = new ConcurrentHashMap<Class<?>, Field>();
+
+    private static Field findWrappedTransportField(Class<?> clazz) {
+        Field field = WRAPPED_TRANSPORT_FIELDS.get(clazz);
+        if (field == null) {
+            field = NO_FIELD;
+            for (Class<?> c = clazz; c != null && c != TTransport.class && field == NO_FIELD; c = c
+                    .getSuperclass()) {
+                for (Field f : c.getDeclaredFields()) {
+                    if (TTransport.class.isAssignableFrom(f.getType())) {
+                        try {
+                            f.setAccessible(true);
+                            field = f;
+                        } catch (RuntimeException e) {
+                        }
+                        break;
+                    }
+                }
+            }
+            WRAPPED_TRANSPORT_FIELDS.put(clazz, field);
+        }
+        return field != NO_FIELD ? field : null;
+    }
+
+    /**
+     * Finds the socket under a transport.
+     *
+     * @param transport
+     * @return {@code null} if not found
+     */
+    static Socket findSocket(TTransport transport) {
+        for (int depth = 0; transport != null && depth < 8; depth++) {
+            if (transport instanceof TSocket) {
+                return ((TSocket) transport).getSocket();
+            }
+            Field field = findWrappedTransportField(transport.getClass());
+            try {
+                transport = field != null ? (TTransport) field.get(transport) : null;
+            } catch (IllegalAccessException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks if a connection can be used.
+     *
+     * @param transport
+     * @param timedPeek
+     *            allow a read with a {@link #PEEK_TIMEOUT_MS} timeout on sockets
+     *            without channel
+     * @return {@code false} if the connection is closed (or has unexpected
+     *         data); {@code true} if it is open, or its state cannot be
+     *         determined without blocking
+     */
+    public static boolean isAlive(TTransport transport, boolean timedPeek) {
+        if (!transport.isOpen() || transport.getBytesRemainingInBuffer() > 0) {
+            return false;
+        }
+        Socket socket = findSocket(transport);
+        if (socket == null) {
+            return true;
+        }
+        if (socket.isClosed() || !socket.isConnected() || socket.isInputShutdown()) {
+            return false;
+        }
+        try {
+            SocketChannel channel = socket.getChannel();
+            if (channel != null) {
+                return peekNonBlocking(channel);
+            }
+            InputStream is = socket.getInputStream();
+            if (is.available() > 0) {
+                return false;
+            }
+            return timedPeek ? peekTimed(socket, is) : true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean peekNonBlocking(SocketChannel channel) throws IOException {
+        synchronized (channel.blockingLock()) {
+            boolean blocking = channel.isBlocking();
+            channel.configureBlocking(false);
+            try {
+                // 0: nothing to read, -1: closed by peer, 1: unexpected data
+                return channel.read(ByteBuffer.allocate(1)) == 0;
+            } finally {
+                channel.configureBlocking(blocking);
+            }
+        }
+    }
+
+    private static boolean peekTimed(Socket socket, InputStream is) throws IOException {
+        int soTimeout = socket.getSoTimeout();
+        socket.setSoTimeout(PEEK_TIMEOUT_MS);
+        try {
+            is.read();
+            // closed by peer, or unexpected data
+            return false;
+        } catch (SocketTimeoutException e) {
+            return true;
+        } finally {
+            socket.setSoTimeout(soTimeout);
+        }
+    }
+}
@@ -1,27 +1,57 @@
 package com.github.ddth.thriftpool;
 
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
-import java.util.Random;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import javax.management.ObjectName;
 
-import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.reflect.ConstructorUtils;
 import org.apache.commons.pool2.BasePooledObjectFactory;
-import org.apache.commons.pool2.ObjectPool;
 import org.apache.commons.pool2.PooledObject;
 import org.apache.commons.pool2.impl.DefaultPooledObject;
-import org.apache.commons.pool2.impl.GenericObjectPool;
 import org.apache.thrift.TServiceClient;
 import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.transport.TTransportException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.ddth.thriftpool.AbstractTProtocolFactory.HostAndPort;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Pool of Thrift clients.
@@ -36,14 +66,111 @@ import com.google.common.collect.Sets;
  */
 public class ThriftClientPool<T extends TServiceClient, I> {
 
+    /**
+     * How calls on pooled clients are dispatched to the underlying Thrift
+     * client objects.
+     * 
+     * @since 0.2.3
+     */
+    public static enum DispatchMode {
+        /**
+         * Dispatch via {@link Method#invoke(Object, Object...)}.
+         */
+        REFLECTION,
+
+        /**
+         * Dispatch via {@link java.lang.invoke.MethodHandle}s resolved once
+         * per client interface method at {@link ThriftClientPool#init()}.
+         */
+        METHOD_HANDLE
+    }
+
+    /**
+     * Threads that run {@link ThriftClientPool#submit(IClientCallable)} tasks
+     * of the pool's default executor.
+     * 
+     * @since 0.2.3
+     */
+    public static enum ExecutionMode {
+        /**
+         * A bounded pool of platform threads (at most {@code maxActive}),
+         * extra tasks are queued (at most {@code maxWaiters}).
+         */
+        PLATFORM,
+
+        /**
+         * One virtual thread per task (requires Java 21+): tasks block in
+         * {@link ThriftClientPool#borrowObject()} (bounded by
+         * {@code maxWaiters} and {@code maxWaitTime}), socket reads and retry
+         * back-off without holding a platform thread.
+         */
+        VIRTUAL
+    }
+
+    /**
+     * A unit of work executed against a borrowed Thrift client, see
+     * {@link ThriftClientPool#submit(IClientCallable)}.
+     * 
+     * @param <I>
+     *            Thrift client interface
+     * @param <R>
+     *            result type
+     * @since 0.2.3
+     */
+    public static interface IClientCallable<I, R> {
+        public R call(I client) throws Exception;
+    }
+
     private final Logger LOGGER = LoggerFactory.getLogger(ThriftClientPool.class);
 
     private Class<T> clientClass;
     private Class<I> clientInterface;
     private PoolConfig poolConfig;
     private RetryPolicy retryPolicy;
-    private ObjectPool<I> thriftClientPool;
+    private RetryBudget retryBudget;
+    private CircuitBreaker circuitBreaker;
+    private OutlierDetector outlierDetector;
+    private HealthChecker healthChecker;
+    private AdaptivePoolSizer adaptivePoolSizer;
+    private IMetricsRegistry metricsRegistry = NoopMetricsRegistry.INSTANCE;
+    private boolean jmxEnabled = true;
+    private String jmxName;
+    private ObjectName registeredJmxName;
+    private volatile RuntimeSettings runtimeSettings;
+    private volatile IPoolEngine<I> thriftClientPool;
+    private IPoolEngineFactory poolEngineFactory = GenericPoolEngine.FACTORY;
+    private IServerBalancer serverBalancer = new LeastActiveServerBalancer();
+    private volatile ServerTopology topology;
+    private IServerListListener serverListListener;
+    private IServerListProvider serverListProvider;
+    private ExecutorService asyncExecutor, internalAsyncExecutor;
+    private volatile ScheduledThreadPoolExecutor scheduler;
+
+    /**
+     * Health checks have their own thread: a probe to a hanging server blocks
+     * for up to the socket timeout, and must not delay hedge timers.
+     */
+    private ScheduledExecutorService healthCheckScheduler;
+    private volatile boolean hedgingEnabled;
+
+    /**
+     * Threads of hedged requests: not shared with {@link #submit}, whose tasks
+     * may be waiting for hedges.
+     */
+    private volatile ExecutorService hedgeExecutor;
+
+    /**
+     * Prewarms servers added by server list updates, off the updating
+     * thread.
+     */
+    private volatile ExecutorService prewarmExecutor;
+    private volatile PrewarmReport prewarmReport;
+    private ExecutionMode executionMode = ExecutionMode.PLATFORM;
+    private final Lock lifecycleLock = new ReentrantLock();
     private ITProtocolFactory tprotocolFactory;
+    private DispatchMode dispatchMode = DispatchMode.REFLECTION;
+    private Map<String, MethodConfig> methodConfigs = new HashMap<String, MethodConfig>();
+    private MethodDispatchTable dispatchTable;
 
     public ThriftClientPool() {
         // EMPTY
@@ -104,8 +231,22 @@ public class ThriftClientPool<T extends TServiceClient, I> {
         return poolConfig;
     }
 
+    /**
+     * Sets the pool configurations. May be changed on a running pool, see
+     * {@link #reconfigure(PoolConfig, RetryPolicy, IServerBalancer)}.
+     * 
+     * @param poolConfig
+     * @return
+     */
     public ThriftClientPool<T, I> setPoolConfig(PoolConfig poolConfig) {
-        this.poolConfig = poolConfig;
+        lifecycleLock.lock();
+        try {
+            if (!doReconfigure(poolConfig, null, null)) {
+                this.poolConfig = poolConfig;
+            }
+        } finally {
+            lifecycleLock.unlock();
+        }
         return this;
     }
 
@@ -113,8 +254,22 @@ public class ThriftClientPool<T extends TServiceClient, I> {
         return retryPolicy;
     }
 
+    /**
+     * Sets the retry policy. May be changed on a running pool, see
+     * {@link #reconfigure(PoolConfig, RetryPolicy, IServerBalancer)}.
+     * 
+     * @param retryPolicy
+     * @return
+     */
     public ThriftClientPool<T, I> setRetryPolicy(RetryPolicy retryPolicy) {
-        this.retryPolicy = retryPolicy;
+        lifecycleLock.lock();
+        try {
+            if (!doReconfigure(null, retryPolicy, null)) {
+                this.retryPolicy = retryPolicy;
+            }
+        } finally {
+            lifecycleLock.unlock();
+        }
         return this;
     }
 
@@ -127,263 +282,2623 @@ public class ThriftClientPool<T extends TServiceClient, I> {
         return this;
     }
 
-    synchronized public ThriftClientPool<T, I> init() {
-        if (thriftClientPool == null) {
-            if (tprotocolFactory == null) {
-                throw new IllegalStateException("No ITProtocolFactory instance found!");
-            }
-            if (retryPolicy == null) {
-                retryPolicy = RetryPolicy.DEFAULT;
-            }
+    /**
+     * @return
+     * @since 0.2.3
+     */
+    public DispatchMode getDispatchMode() {
+        return dispatchMode;
+    }
 
-            ThriftClientFactory factory = new ThriftClientFactory();
-            GenericObjectPool<I> pool = new GenericObjectPool<I>(factory);
-            pool.setBlockWhenExhausted(true);
-            pool.setTestOnReturn(false);
-            int maxActive = poolConfig != null ? poolConfig.getMaxActive()
-                    : PoolConfig.DEFAULT_MAX_ACTIVE;
-            long maxWaitTime = poolConfig != null ? poolConfig.getMaxWaitTime()
-                    : PoolConfig.DEFAULT_MAX_WAIT_TIME;
-            int maxIdle = poolConfig != null ? poolConfig.getMaxIdle()
-                    : PoolConfig.DEFAULT_MAX_IDLE;
-            int minIdle = poolConfig != null ? poolConfig.getMinIdle()
-                    : PoolConfig.DEFAULT_MIN_IDLE;
-            pool.setMaxTotal(maxActive);
-            pool.setMaxIdle(maxIdle);
-            pool.setMinIdle(minIdle);
-            pool.setMaxWaitMillis(maxWaitTime);
-            pool.setTestOnBorrow(poolConfig != null ? poolConfig.isTestOnBorrow() : false);
-            pool.setTestOnCreate(poolConfig != null ? poolConfig.isTestOnCreate() : false);
-            pool.setTestWhileIdle(poolConfig != null ? poolConfig.isTestWhileIdle() : false);
-            pool.setTimeBetweenEvictionRunsMillis(10000);
-            this.thriftClientPool = pool;
-        }
+    /**
+     * Sets how calls on pooled clients are dispatched to the underlying Thrift
+     * client objects. Must be set before {@link #init()}.
+     * 
+     * @param dispatchMode
+     * @return
+     * @since 0.2.3
+     */
+    public ThriftClientPool<T, I> setDispatchMode(DispatchMode dispatchMode) {
+        this.dispatchMode = dispatchMode;
         return this;
     }
 
-    synchronized public void destroy() {
-        if (thriftClientPool != null) {
-            try {
-                thriftClientPool.close();
-            } finally {
-                thriftClientPool = null;
-            }
-        }
+    /**
+     * @return
+     * @since 0.2.3
+     */
+    public IPoolEngineFactory getPoolEngineFactory() {
+        return poolEngineFactory;
     }
 
-    /*----------------------------------------------------------------------*/
     /**
-     * Obtains a Thrift client object from pool.
+     * Sets the factory that creates the underlying pool engine (default
+     * {@link GenericPoolEngine#FACTORY}). Must be set before {@link #init()}.
      * 
+     * @param poolEngineFactory
      * @return
-     * @throws Exception
+     * @since 0.2.3
      */
-    public I borrowObject() throws Exception {
-        return thriftClientPool.borrowObject();
+    public ThriftClientPool<T, I> setPoolEngineFactory(IPoolEngineFactory poolEngineFactory) {
+        this.poolEngineFactory = poolEngineFactory;
+        return this;
     }
 
     /**
-     * Returns a borrowed Thrift client object back to pool.
+     * Gets settings of a client interface method.
      * 
-     * @param borrowedClient
-     * @throws Exception
+     * @param methodName
+     * @return {@code null} if no settings have been set for the method
+     * @since 0.2.3
      */
-    public void returnObject(I borrowedClient) throws Exception {
-        thriftClientPool.returnObject(borrowedClient);
+    public MethodConfig getMethodConfig(String methodName) {
+        return methodConfigs.get(methodName);
     }
 
-    /*----------------------------------------------------------------------*/
-    private final class ThriftClientFactory extends BasePooledObjectFactory<I> {
-
-        @SuppressWarnings("unchecked")
-        @Override
-        public I create() throws Exception {
-            Object proxyObj = Proxy.newProxyInstance(clientInterface.getClassLoader(),
-                    new Class<?>[] { clientInterface },
-                    new ReconnectingClientProxy(retryPolicy.clone()));
-            return (I) proxyObj;
+    /**
+     * Sets settings of a client interface method. Must be set before
+     * {@link #init()}.
+     * 
+     * @param methodName
+     * @param methodConfig
+     * @return
+     * @since 0.2.3
+     */
+    public ThriftClientPool<T, I> setMethodConfig(String methodName, MethodConfig methodConfig) {
+        if (methodConfig != null) {
+            methodConfigs.put(methodName, methodConfig);
+        } else {
+            methodConfigs.remove(methodName);
         }
+        return this;
+    }
 
-        @Override
-        public PooledObject<I> wrap(I obj) {
-            return new DefaultPooledObject<I>(obj);
-        }
+    /**
+     * @return
+     * @since 0.2.3
+     */
+    public IServerBalancer getServerBalancer() {
+        return serverBalancer;
+    }
 
-        /**
-         * {@inheritDoc}
-         */
-        @SuppressWarnings("unchecked")
-        @Override
-        public void destroyObject(PooledObject<I> pooledObj) throws Exception {
-            I obj = pooledObj.getObject();
-            if (Proxy.isProxyClass(obj.getClass())) {
-                InvocationHandler iv = Proxy.getInvocationHandler(obj);
-                if (iv instanceof ThriftClientPool.ReconnectingClientProxy) {
-                    ((ReconnectingClientProxy) iv).destroy();
-                }
+    /**
+     * Sets the balancer that chooses the server sub-pool to borrow from
+     * (default {@link LeastActiveServerBalancer}). Only used when
+     * {@link PoolConfig#isPerServerPool()}. May be changed on a running pool,
+     * see {@link #reconfigure(PoolConfig, RetryPolicy, IServerBalancer)}.
+     * 
+     * @param serverBalancer
+     * @return
+     * @since 0.2.3
+     */
+    public ThriftClientPool<T, I> setServerBalancer(IServerBalancer serverBalancer) {
+        lifecycleLock.lock();
+        try {
+            if (!doReconfigure(null, null, serverBalancer)) {
+                this.serverBalancer = serverBalancer;
             }
+        } finally {
+            lifecycleLock.unlock();
         }
+        return this;
     }
 
-    /*----------------------------------------------------------------------*/
+    /**
+     * @return
+     * @since 0.2.3
+     */
+    public RetryBudget getRetryBudget() {
+        return retryBudget;
+    }
 
-    private static final Set<Integer> RESTARTABLE_CAUSES = Sets.newHashSet(
-            TTransportException.NOT_OPEN, TTransportException.END_OF_FILE,
-            TTransportException.TIMED_OUT, TTransportException.UNKNOWN);
+    /**
+     * Sets a pool-wide retry budget that caps retries of all clients, on top
+     * of each call's {@link RetryPolicy}. {@code null} (default) means no
+     * budget.
+     * 
+     * @param retryBudget
+     * @return
+     * @since 0.2.3
+     */
+    public ThriftClientPool<T, I> setRetryBudget(RetryBudget retryBudget) {
+        this.retryBudget = retryBudget;
+        return this;
+    }
 
-    private Random random = new Random(System.currentTimeMillis());
+    /**
+     * @return
+     * @since 0.2.3
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
 
     /**
-     * Helper proxy class. Attempts to call method on proxy object wrapped in
-     * try/catch. If it fails, it attempts a reconnect and tries the method
-     * again.
-     * 
-     * <p>
-     * Credit: http://blog.liveramp.com/2014/04/10/reconnecting-thrift-client/
-     * </p>
+     * Sets the circuit breaker prototype: each server gets its own clone, so
+     * that servers failing calls are skipped by server selection until a
+     * trial call succeeds. {@code null} (default) means no circuit breaker.
+     * Must be set before {@link #init()}.
      * 
-     * @param <T>
+     * @param circuitBreaker
+     * @return
+     * @since 0.2.3
      */
-    private final class ReconnectingClientProxy implements InvocationHandler {
-        private RetryPolicy retryPolicy;
-        private UUID id = UUID.randomUUID();
-        private T clientObj;
+    public ThriftClientPool<T, I> setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+        return this;
+    }
 
-        public ReconnectingClientProxy(RetryPolicy retryPolicy) {
-            this.retryPolicy = retryPolicy;
-        }
+    /**
+     * @return
+     * @since 0.2.3
+     */
+    public OutlierDetector getOutlierDetector() {
+        return outlierDetector;
+    }
 
-        /**
-         * {@inheritDoc}
-         */
-        @SuppressWarnings("unchecked")
-        @Override
-        public boolean equals(Object obj) {
-            ReconnectingClientProxy other = (ReconnectingClientProxy) obj;
-            return id.equals(other.id);
-        }
+    /**
+     * Sets the outlier detector: servers much slower or failing much more
+     * than their peers are temporarily ejected from server selection.
+     * {@code null} (default) means no outlier detection. Must be set before
+     * {@link #init()}.
+     * 
+     * @param outlierDetector
+     * @return
+     * @since 0.2.3
+     */
+    public ThriftClientPool<T, I> setOutlierDetector(OutlierDetector outlierDetector) {
+        this.outlierDetector = outlierDetector;
+        return this;
+    }
 
-        /**
-         * {@inheritDoc}
-         */
-        @Override
-        public int hashCode() {
-            return id.hashCode();
-        }
+    /**
+     * @return
+     * @since 0.2.3
+     */
+    public HealthChecker getHealthChecker() {
+        return healthChecker;
+    }
 
-        public void destroy() {
-            if (clientObj != null) {
-                try {
-                    clientObj.getInputProtocol().getTransport().close();
-                } catch (Exception e) {
-                }
-            }
-            clientObj = null;
-        }
+    /**
+     * Sets the health checker: servers are probed periodically, unhealthy
+     * servers are skipped by server selection and pooled connections to them
+     * fail validation. {@code null} (default) means no health checking. Must
+     * be set before {@link #init()}.
+     * 
+     * @param healthChecker
+     * @return
+     * @since 0.2.3
+     */
+    public ThriftClientPool<T, I> setHealthChecker(HealthChecker healthChecker) {
+        this.healthChecker = healthChecker;
+        return this;
+    }
 
-        /**
-         * Creates a new thrift client object.
-         * 
-         * @param serverIndexHash
-         * @return
-         * @throws Exception
-         */
-        private T newClientObj(int serverIndexHash) throws Exception {
-            TProtocol protocol = tprotocolFactory.create(serverIndexHash);
-            T clientObj = ConstructorUtils.invokeConstructor(clientClass, protocol);
-            return clientObj;
-        }
+    /**
+     * @return
+     * @since 0.2.3
+     */
+    public AdaptivePoolSizer getAdaptivePoolSizer() {
+        return adaptivePoolSizer;
+    }
 
-        private T getClientId(boolean renew, int serverIndexHash) throws Exception {
-            if (clientObj == null || renew) {
-                if (clientObj != null) {
-                    try {
-                        clientObj.getInputProtocol().getTransport().close();
-                    } catch (Exception e) {
-                    }
-                }
-                clientObj = newClientObj(serverIndexHash);
-            }
-            return clientObj;
-        }
+    /**
+     * Sets the adaptive pool sizer: the pool's {@code maxActive} is adjusted
+     * periodically from the observed load and latency, within the sizer's
+     * bounds and starting from {@link PoolConfig#getMaxActive()}. {@code null}
+     * (default) means a static {@code maxActive}. Must be set before
+     * {@link #init()}.
+     * 
+     * @param adaptivePoolSizer
+     * @return
+     * @since 0.2.3
+     */
+    public ThriftClientPool<T, I> setAdaptivePoolSizer(AdaptivePoolSizer adaptivePoolSizer) {
+        this.adaptivePoolSizer = adaptivePoolSizer;
+        return this;
+    }
 
-        /**
-         * {@inheritDoc}
-         */
-        @Override
-        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-            if (StringUtils.equals("hashCode", method.getName())) {
-                return hashCode();
-            }
-            if (StringUtils.equals("equals", method.getName())) {
-                return equals(args[0]);
-            }
-            if (StringUtils.equals("toString", method.getName())) {
-                return toString();
-            }
+    /**
+     * @return
+     * @since 0.2.3
+     */
+    public IMetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
 
-            retryPolicy.reset();
-            return invokeWithRetries(proxy, method, args);
-        }
+    /**
+     * Sets the registry receiving the pool's metrics (borrow wait, RPC
+     * latencies, retries, connections, transport errors and pool gauges), e.g.
+     * {@link SimpleMetricsRegistry}. {@code null} or
+     * {@link NoopMetricsRegistry} (default) disables metrics. Must be set
+     * before {@link #init()}.
+     * 
+     * @param metricsRegistry
+     * @return
+     * @since 0.2.3
+     */
+    public ThriftClientPool<T, I> setMetricsRegistry(IMetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry != null ? metricsRegistry
+                : NoopMetricsRegistry.INSTANCE;
+        return this;
+    }
 
-        private Object invokeWithRetries(Object proxy, Method method, Object[] args)
-                throws Throwable {
-            boolean hasError = false;
-            while (!retryPolicy.exceedsMaxRetries()) {
-                int serverIndexHash = 0;
-                int numServer = tprotocolFactory.getNumServers();
+    /**
+     * @return
+     * @since 0.2.3
+     */
+    public IServerListProvider getServerListProvider() {
+        return serverListProvider;
+    }
 
-                switch (retryPolicy.getRetryType()) {
-                case FAILOVER:
-                    serverIndexHash = retryPolicy.getCounter();
-                    break;
-                case ROUND_ROBIN:
-                    if (retryPolicy.getCounter() == 0) {
-                        serverIndexHash = random.nextInt(Short.MAX_VALUE);
-                        if (numServer > 1) {
-                            serverIndexHash = serverIndexHash % numServer;
-                        }
-                    } else {
-                        serverIndexHash = retryPolicy.getLastServerIndexHash() + 1;
-                    }
-                    retryPolicy.setLastServerIndexHash(serverIndexHash);
-                    break;
-                case RANDOM_FAILOVER:
-                    if (retryPolicy.getCounter() == 0 || numServer < 2) {
-                        serverIndexHash = 0;
-                    } else {
-                        serverIndexHash = 1 + (random.nextInt(Short.MAX_VALUE) % (numServer - 1));
-                    }
-                    break;
-                case RANDOM:
-                default:
-                    serverIndexHash = random.nextInt(Short.MAX_VALUE);
-                    break;
+    /**
+     * Sets the source of the server list (e.g. {@link FileServerListProvider}
+     * , {@link DnsServerListProvider}): started at {@link #init()} (the pool
+     * starts with the provider's list) and stopped at {@link #destroy()}.
+     * Requires an {@link AbstractTProtocolFactory}. Must be set before
+     * {@link #init()}.
+     * 
+     * @param serverListProvider
+     * @return
+     * @since 0.2.3
+     */
+    public ThriftClientPool<T, I> setServerListProvider(IServerListProvider serverListProvider) {
+        this.serverListProvider = serverListProvider;
+        return this;
+    }
+
+    /**
+     * @return
+     * @since 0.2.3
+     */
+    public boolean isJmxEnabled() {
+        return jmxEnabled;
+    }
+
+    /**
+     * Registers (default) or not a {@link ThriftClientPoolMXBean} for this pool
+     * at {@link #init()}. Must be set before {@link #init()}.
+     * 
+     * @param jmxEnabled
+     * @return
+     * @since 0.2.3
+     */
+    public ThriftClientPool<T, I> setJmxEnabled(boolean jmxEnabled) {
+        this.jmxEnabled = jmxEnabled;
+        return this;
+    }
+
+    /**
+     * @return
+     * @since 0.2.3
+     */
+    public String getJmxName() {
+        return jmxName;
+    }
+
+    /**
+     * Sets the {@code name} key of the pool's MBean
+     * ({@value #JMX_DOMAIN}{@code :type=ThriftClientPool,name=<jmxName>}).
+     * {@code null} (default) means the client interface's simple name
+     * followed by a sequence number. Must be set before {@link #init()}.
+     * 
+     * @param jmxName
+     * @return
+     * @since 0.2.3
+     */
+    public ThriftClientPool<T, I> setJmxName(String jmxName) {
+        this.jmxName = jmxName;
+        return this;
+    }
+
+    /**
+     * Name of the pool's registered MBean.
+     * 
+     * @return {@code null} if not registered
+     * @since 0.2.3
+     */
+    public ObjectName getRegisteredJmxName() {
+        return registeredJmxName;
+    }
+
+    /**
+     * @return
+     * @since 0.2.3
+     */
+    public ExecutorService getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    /**
+     * Sets the executor that runs {@link #submit(IClientCallable)} tasks. If
+     * not set, the pool creates its own executor with at most
+     * {@code maxActive} threads. Must be set before {@link #init()}; the pool
+     * does not shut down an executor set via this method.
+     * 
+     * @param asyncExecutor
+     * @return
+     * @since 0.2.3
+     */
+    public ThriftClientPool<T, I> setAsyncExecutor(ExecutorService asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+        return this;
+    }
+
+    /**
+     * @return
+     * @since 0.2.3
+     */
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * Sets threads of the default executor, see {@link ExecutionMode}. Has
+     * no effect if an executor is set via
+     * {@link #setAsyncExecutor(ExecutorService)}. Must be set before
+     * {@link #init()}.
+     * 
+     * @param executionMode
+     * @return
+     * @since 0.2.3
+     */
+    public ThriftClientPool<T, I> setExecutionMode(ExecutionMode executionMode) {
+        this.executionMode = executionMode;
+        return this;
+    }
+
+    /**
+     * Creates a virtual-thread-per-task executor. Looked up reflectively so
+     * that the library still runs on Java 8.
+     * 
+     * @return
+     * @throws IllegalStateException
+     *             if virtual threads are not supported by the running JVM
+     * @since 0.2.3
+     */
+    private static ExecutorService buildVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Virtual threads are not supported by Java "
+                    + System.getProperty("java.version"), e);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Builds the executor of hedged requests: up to {@code maxActive} threads
+     * (a hedge holds a pooled client), no queue. A hedge that finds no free
+     * thread is not sent.
+     * 
+     * @param poolConfig
+     * @return
+     * @since 0.2.3
+     */
+    private static ExecutorService buildHedgeExecutor(PoolConfig poolConfig) {
+        int maxActive = poolConfig.getMaxActive();
+        int numThreads = maxActive > 0 ? maxActive : Runtime.getRuntime().availableProcessors();
+        return new ThreadPoolExecutor(0, numThreads, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactoryBuilder().setDaemon(true)
+                        .setNameFormat("thriftpool-hedge-%d").build());
+    }
+
+    /**
+     * Builds the default executor for {@link #submit(IClientCallable)}.
+     * 
+     * <p>
+     * {@link ExecutionMode#PLATFORM}: up to {@code maxActive} threads (so that
+     * tasks rarely wait in {@link #borrowObject()}), extra tasks are queued.
+     * {@link ExecutionMode#VIRTUAL}: one virtual thread per task.
+     * </p>
+     * 
+     * @param poolConfig
+     * @param serverNodes
+     * @return
+     * @since 0.2.3
+     */
+    private ExecutorService buildAsyncExecutor(PoolConfig poolConfig, List<ServerNode> serverNodes) {
+        if (executionMode == ExecutionMode.VIRTUAL) {
+            return buildVirtualThreadExecutor();
+        }
+        int maxActive = poolConfig.getMaxActive();
+        if (poolConfig.isPerServerPool()) {
+            int totalWeight = totalWeight(serverNodes);
+            maxActive = 0;
+            for (ServerNode node : serverNodes) {
+                maxActive += poolConfig.forServer(node.getWeight(), totalWeight).getMaxActive();
+            }
+        }
+        int numThreads = maxActive > 0 ? maxActive : Runtime.getRuntime().availableProcessors();
+        int maxWaiters = poolConfig.getMaxWaiters();
+        BlockingQueue<Runnable> queue = maxWaiters >= 0 ? new LinkedBlockingQueue<Runnable>(
+                Math.max(1, maxWaiters)) : new LinkedBlockingQueue<Runnable>();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(numThreads, numThreads, 60,
+                TimeUnit.SECONDS, queue, new ThreadFactoryBuilder().setDaemon(true)
+                        .setNameFormat("thriftpool-async-%d").build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Sum of the weights of the given servers.
+     * 
+     * @param serverNodes
+     * @return
+     * @since 0.2.3
+     */
+    private static int totalWeight(List<ServerNode> serverNodes) {
+        int totalWeight = 0;
+        for (ServerNode node : serverNodes) {
+            totalWeight += node.getWeight();
+        }
+        return totalWeight;
+    }
+
+    /**
+     * Builds the weighted server table.
+     * 
+     * @param serverNodes
+     * @return {@code null} if all servers have the same weight
+     * @since 0.2.3
+     */
+    private static WeightedServerTable buildServerWeights(List<ServerNode> serverNodes) {
+        int[] weights = new int[serverNodes.size()];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = serverNodes.get(i).getWeight();
+        }
+        return WeightedServerTable.build(weights);
+    }
+
+    private ServerNode newServerNode(int index, HostAndPort hostAndPort) {
+        ServerNode node = new ServerNode(index, hostAndPort);
+        if (circuitBreaker != null) {
+            try {
+                node.circuitBreaker = circuitBreaker.clone();
+            } catch (CloneNotSupportedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Builds server nodes from the {@link ITProtocolFactory}.
+     * 
+     * @return
+     * @since 0.2.3
+     */
+    private List<ServerNode> buildServerNodes() {
+        List<HostAndPort> hostAndPortList = tprotocolFactory instanceof AbstractTProtocolFactory ? ((AbstractTProtocolFactory) tprotocolFactory)
+                .getHostAndPortList() : null;
+        int numServers = Math.max(1, hostAndPortList != null ? hostAndPortList.size()
+                : tprotocolFactory.getNumServers());
+        List<ServerNode> result = new ArrayList<ServerNode>(numServers);
+        for (int i = 0; i < numServers; i++) {
+            HostAndPort hostAndPort = hostAndPortList != null && i < hostAndPortList.size() ? hostAndPortList
+                    .get(i) : null;
+            result.add(newServerNode(i, hostAndPort));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Initializes the pool.
+     * 
+     * <p>
+     * Guarded by a {@link Lock} rather than {@code synchronized} so that
+     * virtual threads are not pinned to their carrier threads.
+     * </p>
+     * 
+     * @return
+     */
+    public ThriftClientPool<T, I> init() {
+        lifecycleLock.lock();
+        try {
+            return doInit();
+        } finally {
+            lifecycleLock.unlock();
+        }
+    }
+
+    private ThriftClientPool<T, I> doInit() {
+        if (topology == null) {
+            if (tprotocolFactory == null) {
+                throw new IllegalStateException("No ITProtocolFactory instance found!");
+            }
+            if (serverListProvider != null
+                    && !(tprotocolFactory instanceof AbstractTProtocolFactory)) {
+                throw new IllegalStateException("Server list provider requires an "
+                        + AbstractTProtocolFactory.class.getSimpleName());
+            }
+            if (retryPolicy == null) {
+                retryPolicy = RetryPolicy.DEFAULT;
+            }
+            if (dispatchMode == null) {
+                dispatchMode = DispatchMode.REFLECTION;
+            }
+            dispatchTable = MethodDispatchTable.build(clientClass, clientInterface, dispatchMode,
+                    methodConfigs, metricsRegistry);
+            if (healthChecker != null && healthChecker.getProbe() instanceof Fb303HealthProbe
+                    && !((Fb303HealthProbe) healthChecker.getProbe()).supports(clientClass)) {
+                throw new IllegalStateException("Client class [" + clientClass.getName()
+                        + "] does not support health probe " + healthChecker.getProbe());
+            }
+
+            if (poolEngineFactory == null) {
+                poolEngineFactory = GenericPoolEngine.FACTORY;
+            }
+            if (serverBalancer == null) {
+                serverBalancer = new LeastActiveServerBalancer();
+            }
+
+            PoolConfig poolConfig = this.poolConfig != null ? this.poolConfig : new PoolConfig();
+            if (adaptivePoolSizer != null) {
+                poolConfig = poolConfig.clone().setMaxActive(
+                        adaptivePoolSizer.start(poolConfig.getMaxActive()));
+            }
+            if (tprotocolFactory instanceof AbstractTProtocolFactory && serverListListener == null) {
+                // registered before the server list is read, so that no
+                // change is missed (changes wait for init to complete)
+                serverListListener = new IServerListListener() {
+                    @Override
+                    public void onServerListChanged(List<HostAndPort> hostAndPortList,
+                            List<HostAndPort> added, List<HostAndPort> removed) {
+                        updateServerList(hostAndPortList);
+                    }
+                };
+                ((AbstractTProtocolFactory) tprotocolFactory)
+                        .addServerListListener(serverListListener);
+            }
+            if (serverListProvider != null) {
+                try {
+                    serverListProvider.start((AbstractTProtocolFactory) tprotocolFactory);
+                } catch (Exception e) {
+                    throw new IllegalStateException("Cannot start server list provider "
+                            + serverListProvider + ": " + e.getMessage(), e);
+                }
+            }
+            List<ServerNode> serverNodes = buildServerNodes();
+            ExecutorService internalAsyncExecutor = asyncExecutor == null ? buildAsyncExecutor(
+                    poolConfig, serverNodes) : null;
+            boolean connectOnCreate = poolConfig.getConnectorThreads() > 0;
+            if (poolConfig.isPerServerPool()) {
+                int totalWeight = totalWeight(serverNodes);
+                for (ServerNode node : serverNodes) {
+                    node.subPool = poolEngineFactory.createPoolEngine(
+                            new ThriftClientFactory(node, connectOnCreate),
+                            poolConfig.forServer(node.getWeight(), totalWeight));
+                }
+                this.thriftClientPool = null;
+            } else {
+                this.thriftClientPool = poolEngineFactory.createPoolEngine(
+                        new ThriftClientFactory(null, connectOnCreate), poolConfig);
+            }
+            this.internalAsyncExecutor = internalAsyncExecutor;
+            hedgingEnabled = dispatchTable.hasHedgedMethods() && serverNodes.size() > 1;
+            if (hedgingEnabled) {
+                hedgeExecutor = buildHedgeExecutor(poolConfig);
+            }
+            if (serverListListener != null && poolConfig.isPerServerPool()) {
+                prewarmExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                        .setDaemon(true).setNameFormat("thriftpool-prewarm-updater-%d").build());
+            }
+            if (hedgingEnabled || outlierDetector != null || adaptivePoolSizer != null) {
+                scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+                        .setDaemon(true).setNameFormat("thriftpool-scheduler-%d").build());
+                scheduler.setRemoveOnCancelPolicy(true);
+            }
+            this.topology = new ServerTopology(serverNodes, 0, 0);
+            if (outlierDetector != null) {
+                long intervalMs = outlierDetector.getIntervalMs();
+                scheduler.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            outlierDetector.sweep(getServerNodes());
+                        } catch (Exception e) {
+                            LOGGER.warn(e.getMessage(), e);
+                        }
+                    }
+                }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+            }
+            if (healthChecker != null) {
+                healthCheckScheduler = Executors.newSingleThreadScheduledExecutor(
+                        new ThreadFactoryBuilder().setDaemon(true)
+                                .setNameFormat("thriftpool-healthcheck-%d").build());
+                healthCheckScheduler.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            healthChecker.checkAll(getServerNodes(), tprotocolFactory,
+                                    clientClass);
+                        } catch (Exception e) {
+                            LOGGER.warn(e.getMessage(), e);
+                        }
+                    }
+                }, 0, healthChecker.getIntervalMs(), TimeUnit.MILLISECONDS);
+            }
+            if (adaptivePoolSizer != null) {
+                long intervalMs = adaptivePoolSizer.getIntervalMs();
+                scheduler.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            resize(adaptivePoolSizer.adjust(getServerNodes(), getNumWaiters()));
+                        } catch (Exception e) {
+                            LOGGER.warn(e.getMessage(), e);
+                        }
+                    }
+                }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+            }
+            this.runtimeSettings = new RuntimeSettings(poolConfig, retryPolicy, serverBalancer);
+            registerGauges();
+            if (jmxEnabled) {
+                registerMBean();
+            }
+            if (poolConfig.getPrewarmConnectionsPerServer() > 0) {
+                prewarmReport = prewarm(poolConfig.getPrewarmConnectionsPerServer(),
+                        poolConfig.getPrewarmTimeoutMs());
+            }
+        }
+        return this;
+    }
+
+    public void destroy() {
+        lifecycleLock.lock();
+        try {
+            doDestroy();
+        } finally {
+            lifecycleLock.unlock();
+        }
+    }
+
+    private void doDestroy() {
+        ServerTopology topology = this.topology;
+        if (topology != null) {
+            try {
+                if (serverListProvider != null) {
+                    serverListProvider.stop();
+                }
+                if (serverListListener != null) {
+                    ((AbstractTProtocolFactory) tprotocolFactory)
+                            .removeServerListListener(serverListListener);
+                    serverListListener = null;
+                }
+                if (thriftClientPool != null) {
+                    thriftClientPool.close();
+                }
+                for (ServerNode node : topology.serverNodes) {
+                    IPoolEngine<?> subPool = node.subPool;
+                    if (subPool != null) {
+                        subPool.close();
+                    }
+                }
+                if (internalAsyncExecutor != null) {
+                    internalAsyncExecutor.shutdown();
+                }
+                if (hedgeExecutor != null) {
+                    hedgeExecutor.shutdown();
+                }
+                if (prewarmExecutor != null) {
+                    prewarmExecutor.shutdownNow();
+                }
+                if (scheduler != null) {
+                    scheduler.shutdownNow();
+                }
+                if (healthCheckScheduler != null) {
+                    healthCheckScheduler.shutdownNow();
+                    healthChecker.close();
+                }
+                unregisterMBean();
+            } finally {
+                thriftClientPool = null;
+                this.topology = null;
+                internalAsyncExecutor = null;
+                hedgeExecutor = null;
+                prewarmExecutor = null;
+                scheduler = null;
+                healthCheckScheduler = null;
+            }
+        }
+    }
+
+    /*----------------------------------------------------------------------*/
+    /**
+     * Gets the servers known to this pool.
+     * 
+     * @return
+     * @since 0.2.3
+     */
+    public List<ServerNode> getServerNodes() {
+        ServerTopology topology = this.topology;
+        return topology != null ? topology.serverNodes : Collections.<ServerNode> emptyList();
+    }
+
+    /**
+     * Minimum fraction of the traffic to move to other servers when the server
+     * list changes: the sum of share increases (by weight) of the new list's
+     * servers.
+     * 
+     * @param serverNodes
+     * @param hostAndPortList
+     * @return
+     * @since 0.2.3
+     */
+    private static double migrationRatio(List<ServerNode> serverNodes,
+            List<HostAndPort> hostAndPortList) {
+        Map<String, Double> oldShares = new HashMap<String, Double>();
+        int oldTotalWeight = totalWeight(serverNodes);
+        for (ServerNode node : serverNodes) {
+            oldShares.put(node.toString(), (double) node.getWeight() / oldTotalWeight);
+        }
+        int newTotalWeight = 0;
+        for (HostAndPort hostAndPort : hostAndPortList) {
+            newTotalWeight += Math.max(1, hostAndPort.weight);
+        }
+        double result = 0;
+        for (HostAndPort hostAndPort : hostAndPortList) {
+            Double oldShare = oldShares.get(hostAndPort.toString());
+            double newShare = (double) Math.max(1, hostAndPort.weight) / newTotalWeight;
+            result += Math.max(0, newShare - (oldShare != null ? oldShare : 0));
+        }
+        return result;
+    }
+
+    /**
+     * Applies a new server list of the {@link AbstractTProtocolFactory}:
+     * servers still in the list keep their state (sub-pool, connections,
+     * statistics), added servers get new sub-pools (if
+     * {@link PoolConfig#isPerServerPool()}) which are prewarmed in the
+     * background, removed servers
+     * are no longer selected and their connections are closed (idle ones now,
+     * borrowed ones when returned). The server list, weights and hash ring
+     * are swapped as one snapshot.
+     * 
+     * <p>
+     * Without per-server sub-pools, connections are not tied to a server:
+     * when returned, each connection made before the change is closed (to be
+     * reconnected on next use) with a probability of the fraction of traffic
+     * that moves, so that load spreads to added (or re-weighted) servers
+     * without reconnecting all clients at once. Added servers are not
+     * prewarmed: that would take clients from the pool serving traffic.
+     * </p>
+     * 
+     * @param hostAndPortList
+     * @since 0.2.3
+     */
+    private void updateServerList(List<HostAndPort> hostAndPortList) {
+        final List<ServerNode> addedNodes = new ArrayList<ServerNode>();
+        final PoolConfig poolConfig;
+        ExecutorService prewarmExecutor;
+        lifecycleLock.lock();
+        try {
+            ServerTopology topology = this.topology;
+            if (topology == null) {
+                return;
+            }
+            if (hostAndPortList.isEmpty()) {
+                LOGGER.warn("Empty server list ignored, keeping " + topology.serverNodes);
+                return;
+            }
+            Map<String, ServerNode> removedNodes = new HashMap<String, ServerNode>();
+            for (ServerNode node : topology.serverNodes) {
+                removedNodes.put(node.toString(), node);
+            }
+            double migrationRatio = migrationRatio(topology.serverNodes, hostAndPortList);
+            List<ServerNode> serverNodes = new ArrayList<ServerNode>(hostAndPortList.size());
+            for (HostAndPort hostAndPort : hostAndPortList) {
+                ServerNode node = removedNodes.remove(hostAndPort.toString());
+                if (node != null) {
+                    node.update(serverNodes.size(), hostAndPort);
+                } else {
+                    node = newServerNode(serverNodes.size(), hostAndPort);
+                    addedNodes.add(node);
+                }
+                serverNodes.add(node);
+            }
+
+            poolConfig = runtimeSettings.poolConfig;
+            if (thriftClientPool == null) {
+                // sub-pools of added servers; limits of all sub-pools are
+                // shared anew among the servers
+                boolean connectOnCreate = poolConfig.getConnectorThreads() > 0;
+                int totalWeight = totalWeight(serverNodes);
+                for (ServerNode node : serverNodes) {
+                    PoolConfig serverConfig = poolConfig.forServer(node.getWeight(), totalWeight);
+                    if (node.subPool == null) {
+                        node.subPool = poolEngineFactory.createPoolEngine(new ThriftClientFactory(
+                                node, connectOnCreate), serverConfig);
+                    } else {
+                        applyLimits(node.subPool, serverConfig);
+                    }
+                }
+            }
+            this.topology = new ServerTopology(Collections.unmodifiableList(serverNodes),
+                    topology.version + 1, migrationRatio);
+            for (ServerNode node : removedNodes.values()) {
+                node.setRemoved();
+                metricsRegistry.removeServer(node);
+                IPoolEngine<?> subPool = node.subPool;
+                if (subPool != null) {
+                    try {
+                        subPool.close();
+                    } catch (Exception e) {
+                        LOGGER.warn(e.getMessage(), e);
+                    }
+                }
+            }
+            if (adaptivePoolSizer != null) {
+                resize(adaptivePoolSizer.getLimit());
+            }
+            LOGGER.info("Server list updated: " + serverNodes + ", added " + addedNodes
+                    + ", removed " + removedNodes.values());
+            prewarmExecutor = this.prewarmExecutor;
+        } finally {
+            lifecycleLock.unlock();
+        }
+        if (prewarmExecutor != null && !addedNodes.isEmpty()) {
+            try {
+                prewarmExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        prewarm(addedNodes,
+                                Math.max(1, poolConfig.getPrewarmConnectionsPerServer()),
+                                poolConfig.getPrewarmTimeoutMs());
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // pool destroyed
+            }
+        }
+    }
+
+    private ServerNode findServerNode(int serverIndex) {
+        for (ServerNode node : getServerNodes()) {
+            if (node.getIndex() == serverIndex) {
+                return node;
+            }
+        }
+        throw new IllegalArgumentException("No server at index " + serverIndex);
+    }
+
+    /**
+     * Drains a server: no new connections are made to it, its idle
+     * connections are closed and its borrowed connections are closed when
+     * returned.
+     * 
+     * @param serverIndex
+     * @return
+     * @since 0.2.3
+     */
+    public ThriftClientPool<T, I> drainServer(int serverIndex) {
+        ServerNode node = findServerNode(serverIndex);
+        node.setDrained(true);
+        IPoolEngine<?> subPool = node.subPool;
+        if (subPool != null) {
+            try {
+                subPool.clear();
+            } catch (Exception e) {
+                LOGGER.warn(e.getMessage(), e);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Re-admits a drained server.
+     * 
+     * @param serverIndex
+     * @return
+     * @since 0.2.3
+     */
+    public ThriftClientPool<T, I> undrainServer(int serverIndex) {
+        findServerNode(serverIndex).setDrained(false);
+        return this;
+    }
+
+    /**
+     * Number of borrowed clients.
+     * 
+     * @return
+     * @since 0.2.3
+     */
+    public int getNumActive() {
+        IPoolEngine<I> pool = thriftClientPool;
+        if (pool != null) {
+            return pool.getNumActive();
+        }
+        int result = 0;
+        for (ServerNode node : getServerNodes()) {
+            result += node.getNumActive();
+        }
+        return result;
+    }
+
+    /**
+     * Number of idle clients.
+     * 
+     * @return
+     * @since 0.2.3
+     */
+    public int getNumIdle() {
+        IPoolEngine<I> pool = thriftClientPool;
+        if (pool != null) {
+            return pool.getNumIdle();
+        }
+        int result = 0;
+        for (ServerNode node : getServerNodes()) {
+            result += node.getNumIdle();
+        }
+        return result;
+    }
+
+    /**
+     * Number of threads waiting for a client.
+     * 
+     * @return
+     * @since 0.2.3
+     */
+    public int getNumWaiters() {
+        IPoolEngine<I> pool = thriftClientPool;
+        if (pool != null) {
+            return pool.getNumWaiters();
+        }
+        int result = 0;
+        for (ServerNode node : getServerNodes()) {
+            IPoolEngine<?> subPool = node.subPool;
+            result += subPool != null ? subPool.getNumWaiters() : 0;
+        }
+        return result;
+    }
+
+    /**
+     * Current maximum number of clients: {@link PoolConfig#getMaxActive()},
+     * or the limit set by the adaptive pool sizer (see
+     * {@link #setAdaptivePoolSizer(AdaptivePoolSizer)}).
+     * 
+     * @return
+     * @since 0.2.3
+     */
+    public int getEffectiveMaxActive() {
+        IPoolEngine<I> pool = thriftClientPool;
+        if (pool != null) {
+            return pool.getMaxActive();
+        }
+        int result = 0;
+        for (ServerNode node : getServerNodes()) {
+            IPoolEngine<?> subPool = node.subPool;
+            result += subPool != null ? subPool.getMaxActive() : 0;
+        }
+        return result;
+    }
+
+    public final static String JMX_DOMAIN = "com.github.ddth.thriftpool";
+    private final static AtomicInteger JMX_SEQUENCE = new AtomicInteger();
+
+    private void registerMBean() {
+        String name = jmxName != null ? jmxName : clientInterface.getSimpleName() + "-"
+                + JMX_SEQUENCE.incrementAndGet();
+        try {
+            ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=ThriftClientPool,name="
+                    + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new ThriftClientPoolManagement(this), objectName);
+            registeredJmxName = objectName;
+        } catch (Exception e) {
+            LOGGER.warn("Cannot register MBean [" + name + "]: " + e.getMessage(), e);
+        }
+    }
+
+    private void unregisterMBean() {
+        ObjectName objectName = registeredJmxName;
+        registeredJmxName = null;
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception e) {
+                LOGGER.warn("Cannot unregister MBean [" + objectName + "]: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private void registerGauges() {
+        metricsRegistry.registerGauge(IMetricsRegistry.GAUGE_ACTIVE, new LongSupplier() {
+            @Override
+            public long getAsLong() {
+                return getNumActive();
+            }
+        });
+        metricsRegistry.registerGauge(IMetricsRegistry.GAUGE_IDLE, new LongSupplier() {
+            @Override
+            public long getAsLong() {
+                return getNumIdle();
+            }
+        });
+        metricsRegistry.registerGauge(IMetricsRegistry.GAUGE_WAITERS, new LongSupplier() {
+            @Override
+            public long getAsLong() {
+                return getNumWaiters();
+            }
+        });
+        metricsRegistry.registerGauge(IMetricsRegistry.GAUGE_MAX_ACTIVE, new LongSupplier() {
+            @Override
+            public long getAsLong() {
+                return getEffectiveMaxActive();
+            }
+        });
+    }
+
+    /**
+     * Pool engines of this pool: the shared pool, or the per-server
+     * sub-pools.
+     * 
+     * @return
+     * @since 0.2.3
+     */
+    List<IPoolEngine<?>> getPoolEngines() {
+        List<IPoolEngine<?>> result = new ArrayList<IPoolEngine<?>>();
+        IPoolEngine<I> pool = thriftClientPool;
+        if (pool != null) {
+            result.add(pool);
+        } else {
+            for (ServerNode node : getServerNodes()) {
+                if (node.subPool != null) {
+                    result.add(node.subPool);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Pool settings in effect.
+     * 
+     * @return {@code null} if the pool is not initialized
+     * @since 0.2.3
+     */
+    PoolConfig getRuntimePoolConfig() {
+        RuntimeSettings runtimeSettings = this.runtimeSettings;
+        return runtimeSettings != null ? runtimeSettings.poolConfig : null;
+    }
+
+    /**
+     * Reconfigures the running pool, without rebuilding it: no connection is
+     * closed and borrowed clients are not affected.
+     * 
+     * <ul>
+     * <li>Pool limits ({@code maxActive}, {@code maxIdle}, {@code minIdle},
+     * {@code maxWaitTime}) are applied to the pool (or per-server sub-pools)
+     * immediately; over a lowered {@code maxActive}, clients are closed when
+     * returned. With an {@link AdaptivePoolSizer}, the limit in effect stays
+     * the sizer's own, which restarts from {@code maxActive} only if
+     * {@code maxActive} changes. {@code maxConnectionIdleMs} and
+     * {@code livenessCheckIdleMs} apply from the next check. Other settings
+     * (e.g. {@link PoolConfig#isPerServerPool()}, {@code connectorThreads})
+     * are only read at {@link #init()} and are ignored.</li>
+     * <li>The retry policy and server balancer are swapped together with the
+     * pool configurations, as a whole: each pooled client picks the new
+     * settings up at the start of its next call (a call in progress completes
+     * with the settings it started with).</li>
+     * </ul>
+     * 
+     * <p>
+     * Settings objects must not be modified once passed to this method.
+     * </p>
+     * 
+     * @param poolConfig
+     *            {@code null} to keep the current one
+     * @param retryPolicy
+     *            {@code null} to keep the current one
+     * @param serverBalancer
+     *            {@code null} to keep the current one
+     * @return
+     * @throws IllegalStateException
+     *             if the pool is not initialized
+     * @since 0.2.3
+     */
+    public ThriftClientPool<T, I> reconfigure(PoolConfig poolConfig, RetryPolicy retryPolicy,
+            IServerBalancer serverBalancer) {
+        lifecycleLock.lock();
+        try {
+            if (!doReconfigure(poolConfig, retryPolicy, serverBalancer)) {
+                throw new IllegalStateException("Pool not initialized");
+            }
+        } finally {
+            lifecycleLock.unlock();
+        }
+        return this;
+    }
+
+    /**
+     * @return {@code false} if the pool is not initialized (nothing is
+     *         changed)
+     */
+    private boolean doReconfigure(PoolConfig poolConfig, RetryPolicy retryPolicy,
+            IServerBalancer serverBalancer) {
+        RuntimeSettings current = this.runtimeSettings;
+        if (topology == null || current == null) {
+            return false;
+        }
+        if (poolConfig != null) {
+            PoolConfig previous = this.poolConfig != null ? this.poolConfig : new PoolConfig();
+            this.poolConfig = poolConfig;
+            if (adaptivePoolSizer != null) {
+                // the sizer keeps its state unless its upper bound changes
+                int maxActive = poolConfig.getMaxActive() != previous.getMaxActive()
+                        ? adaptivePoolSizer.start(poolConfig.getMaxActive())
+                        : adaptivePoolSizer.getLimit();
+                poolConfig = poolConfig.clone().setMaxActive(maxActive);
+            }
+            IPoolEngine<I> pool = thriftClientPool;
+            if (pool != null) {
+                applyLimits(pool, poolConfig);
+            } else {
+                List<ServerNode> serverNodes = getServerNodes();
+                int totalWeight = totalWeight(serverNodes);
+                for (ServerNode node : serverNodes) {
+                    IPoolEngine<?> subPool = node.subPool;
+                    if (subPool != null) {
+                        applyLimits(subPool, poolConfig.forServer(node.getWeight(), totalWeight));
+                    }
+                }
+            }
+        }
+        if (retryPolicy != null) {
+            this.retryPolicy = retryPolicy;
+        }
+        if (serverBalancer != null) {
+            this.serverBalancer = serverBalancer;
+        }
+        this.runtimeSettings = new RuntimeSettings(poolConfig != null ? poolConfig
+                : current.poolConfig, retryPolicy != null ? retryPolicy : current.retryPolicy,
+                serverBalancer != null ? serverBalancer : current.serverBalancer);
+        return true;
+    }
+
+    private static void applyLimits(IPoolEngine<?> pool, PoolConfig poolConfig) {
+        pool.setMaxActive(poolConfig.getMaxActive());
+        pool.setMaxIdle(poolConfig.getMaxIdle());
+        pool.setMinIdle(poolConfig.getMinIdle());
+        pool.setMaxWaitTime(poolConfig.getMaxWaitTime());
+    }
+
+    /**
+     * Applies a new maximum number of clients, shared among per-server
+     * sub-pools proportionally to server weights.
+     * 
+     * @param maxActive
+     */
+    private void resize(int maxActive) {
+        IPoolEngine<I> pool = thriftClientPool;
+        if (pool != null) {
+            pool.setMaxActive(maxActive);
+            return;
+        }
+        List<ServerNode> serverNodes = getServerNodes();
+        int totalWeight = totalWeight(serverNodes);
+        for (ServerNode node : serverNodes) {
+            IPoolEngine<?> subPool = node.subPool;
+            if (subPool != null) {
+                subPool.setMaxActive(Math.max(1,
+                        PoolConfig.shareRoundUp(maxActive, node.getWeight(), totalWeight)));
+            }
+        }
+    }
+
+    /**
+     * Outcome of prewarming at {@link #init()}, see
+     * {@link PoolConfig#setPrewarmConnectionsPerServer(int)}.
+     * 
+     * @return {@code null} if the pool has not been prewarmed at init
+     * @since 0.2.3
+     */
+    public PrewarmReport getPrewarmReport() {
+        return prewarmReport;
+    }
+
+    /**
+     * Number of clients to prewarm in a pool engine, capped by its current
+     * {@code maxActive} (which follows {@link #reconfigure(PoolConfig,
+     * RetryPolicy, IServerBalancer)} and the adaptive pool sizer) and by
+     * {@code maxIdle} of the pool settings in effect.
+     */
+    private static int prewarmCap(IPoolEngine<?> pool, PoolConfig poolConfig,
+            int numConnections) {
+        if (pool.getMaxActive() >= 0) {
+            numConnections = Math.min(numConnections, pool.getMaxActive());
+        }
+        if (poolConfig.getMaxIdle() >= 0) {
+            numConnections = Math.min(numConnections, poolConfig.getMaxIdle());
+        }
+        return numConnections;
+    }
+
+    /**
+     * Opens connections to every server in parallel and leaves them idle in
+     * the pool, so that first calls do not pay connection costs. The number
+     * of connections is capped by the pool's (or sub-pools')
+     * {@code maxActive}/{@code maxIdle}.
+     * 
+     * @param connectionsPerServer
+     * @param timeoutMs
+     *            maximum time to wait; slower connections complete in the
+     *            background and are reported as failed
+     * @return
+     * @since 0.2.3
+     */
+    public PrewarmReport prewarm(int connectionsPerServer, long timeoutMs) {
+        ServerTopology topology = this.topology;
+        if (topology == null) {
+            throw new IllegalStateException("Pool not initialized");
+        }
+        return prewarm(topology.serverNodes, connectionsPerServer, timeoutMs);
+    }
+
+    /**
+     * Prewarms some servers, see {@link #prewarm(int, long)}.
+     * 
+     * @param serverNodes
+     * @param connectionsPerServer
+     * @param timeoutMs
+     * @return
+     * @since 0.2.3
+     */
+    @SuppressWarnings("unchecked")
+    private PrewarmReport prewarm(List<ServerNode> serverNodes, int connectionsPerServer,
+            long timeoutMs) {
+        long startTimestamp = System.currentTimeMillis();
+        RuntimeSettings runtimeSettings = this.runtimeSettings;
+        PoolConfig poolConfig = runtimeSettings != null ? runtimeSettings.poolConfig
+                : new PoolConfig();
+        IPoolEngine<I> sharedPool = thriftClientPool;
+
+        // borrow all clients first, so that each is connected once
+        final List<I> clients = new ArrayList<I>();
+        final List<ServerNode> clientNodes = new ArrayList<ServerNode>();
+        final List<IPoolEngine<I>> clientPools = new ArrayList<IPoolEngine<I>>();
+        int totalWeight = totalWeight(getServerNodes());
+        int numShared = sharedPool != null ? prewarmCap(sharedPool, poolConfig,
+                connectionsPerServer * serverNodes.size()) : 0;
+        for (int i = 0; sharedPool != null ? i < numShared : i < serverNodes.size(); i++) {
+            ServerNode node = serverNodes.get(i % serverNodes.size());
+            IPoolEngine<I> pool = sharedPool != null ? sharedPool : (IPoolEngine<I>) node.subPool;
+            int n = sharedPool != null ? 1 : prewarmCap(pool,
+                    poolConfig.forServer(node.getWeight(), totalWeight), connectionsPerServer);
+            for (int j = 0; j < n; j++) {
+                try {
+                    clients.add(pool.borrowObject());
+                    clientNodes.add(node);
+                    clientPools.add(pool);
+                } catch (Exception e) {
+                    LOGGER.warn("Cannot borrow client to prewarm: " + e.getMessage());
+                    break;
+                }
+            }
+        }
+
+        final PrewarmReport report = new PrewarmReport(clients.size());
+        final CountDownLatch latch = new CountDownLatch(clients.size());
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(clients.size(), 32)), new ThreadFactoryBuilder()
+                        .setDaemon(true).setNameFormat("thriftpool-prewarm-%d").build());
+        try {
+            for (int i = 0; i < clients.size(); i++) {
+                final I client = clients.get(i);
+                final ServerNode node = clientNodes.get(i);
+                final IPoolEngine<I> pool = clientPools.get(i);
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            ReconnectingClientProxy handler = getProxyHandler(client);
+                            if (handler.clientObj == null || handler.clientNode != node) {
+                                handler.connect(node.getIndex());
+                            }
+                            report.connected(node);
+                        } catch (Exception e) {
+                            report.failed(node, String.valueOf(e.getMessage()));
+                        } finally {
+                            latch.countDown();
+                            try {
+                                pool.returnObject(client);
+                            } catch (Exception e) {
+                                LOGGER.warn(e.getMessage(), e);
+                            }
+                        }
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        boolean completed;
+        try {
+            completed = latch.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            completed = false;
+        }
+        if (!completed) {
+            // connections still in progress: report their servers as failed
+            for (int i = 0; i < clients.size(); i++) {
+                ServerNode node = clientNodes.get(i);
+                if (report.getNumConnected(node) < Collections.frequency(clientNodes, node)) {
+                    report.failed(node, "timed out after " + timeoutMs + "ms");
+                }
+            }
+        }
+        report.finish(!completed, System.currentTimeMillis() - startTimestamp);
+        if (report.isSuccessful()) {
+            LOGGER.info("Pool prewarmed: " + report.getNumConnected() + " connection(s) in "
+                    + report.getDurationMs() + "ms");
+        } else {
+            LOGGER.warn("Pool partially prewarmed: " + report);
+        }
+        return report;
+    }
+
+    @SuppressWarnings("unchecked")
+    private ReconnectingClientProxy getProxyHandler(I obj) {
+        if (obj != null && Proxy.isProxyClass(obj.getClass())) {
+            InvocationHandler iv = Proxy.getInvocationHandler(obj);
+            if (iv instanceof ThriftClientPool.ReconnectingClientProxy) {
+                return (ReconnectingClientProxy) iv;
+            }
+        }
+        return null;
+    }
+
+    private static List<ServerNode> excludeServer(List<ServerNode> serverNodes, int serverIndex) {
+        List<ServerNode> result = new ArrayList<ServerNode>(serverNodes.size());
+        for (ServerNode node : serverNodes) {
+            if (node.getIndex() != serverIndex) {
+                result.add(node);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets a server node by index.
+     * 
+     * @param serverIndex
+     * @return {@code null} if not found
+     * @since 0.2.3
+     */
+    private ServerNode getServerNode(int serverIndex) {
+        ServerTopology topology = this.topology;
+        List<ServerNode> serverNodes = topology != null ? topology.serverNodes : null;
+        return serverNodes != null && serverIndex >= 0 && serverIndex < serverNodes.size() ? serverNodes
+                .get(serverIndex) : null;
+    }
+
+    /**
+     * Number of servers known to this pool.
+     * 
+     * @return
+     * @since 0.2.3
+     */
+    private int getNumServers() {
+        ServerTopology topology = this.topology;
+        return topology != null ? topology.serverNodes.size() : tprotocolFactory.getNumServers();
+    }
+
+    /**
+     * Borrows a client from a pool engine, recording the time spent waiting.
+     * 
+     * @param pool
+     * @return
+     * @throws Exception
+     * @since 0.2.3
+     */
+    private I borrowFrom(IPoolEngine<I> pool) throws Exception {
+        IMetricsRegistry metricsRegistry = this.metricsRegistry;
+        if (metricsRegistry == NoopMetricsRegistry.INSTANCE) {
+            return pool.borrowObject();
+        }
+        boolean success = false;
+        long startNs = System.nanoTime();
+        try {
+            I client = pool.borrowObject();
+            success = true;
+            return client;
+        } finally {
+            metricsRegistry.recordBorrow(System.nanoTime() - startNs, success);
+        }
+    }
+
+    /**
+     * Obtains a Thrift client object from pool.
+     * 
+     * @return
+     * @throws Exception
+     */
+    public I borrowObject() throws Exception {
+        return borrowObject(-1, true);
+    }
+
+    /**
+     * Obtains a Thrift client object from pool, avoiding a server if
+     * possible.
+     * 
+     * @param excludedServerIndex
+     *            server not to select in per-server mode, {@code -1} for none
+     * @param wait
+     *            if {@code false}, does not wait for a client (see
+     *            {@link IPoolEngine#tryBorrowObject()})
+     * @return {@code null} if no client is available without waiting
+     * @throws Exception
+     * @since 0.2.3
+     */
+    @SuppressWarnings("unchecked")
+    private I borrowObject(int excludedServerIndex, boolean wait) throws Exception {
+        IPoolEngine<I> pool = thriftClientPool;
+        if (pool != null) {
+            return wait ? borrowFrom(pool) : pool.tryBorrowObject();
+        }
+        ServerTopology topology = this.topology;
+        if (topology == null) {
+            throw new IllegalStateException("Pool not initialized");
+        }
+        List<ServerNode> serverNodes = topology.serverNodes;
+        if (excludedServerIndex >= 0) {
+            serverNodes = excludeServer(serverNodes, excludedServerIndex);
+        }
+        ServerNode node = runtimeSettings.serverBalancer.select(serverNodes);
+        if (node == null) {
+            throw new NoSuchElementException("No available server");
+        }
+        IPoolEngine<I> subPool = (IPoolEngine<I>) node.subPool;
+        return wait ? borrowFrom(subPool) : subPool.tryBorrowObject();
+    }
+
+    /**
+     * Obtains a Thrift client object for a routing key: calls are sent to the
+     * server owning the key on a consistent-hash ring over the pool's servers
+     * (see {@link ConsistentHashRing}) and, on transport errors, retried on
+     * the next servers of the ring.
+     * 
+     * <p>
+     * Keyed calls require per-server sub-pools
+     * ({@link PoolConfig#isPerServerPool()}): the client is borrowed from the
+     * key's server's sub-pool, already connected to that server. A shared
+     * pool would hand out clients connected to any server, and most keyed
+     * calls would reconnect.
+     * </p>
+     * 
+     * @param routingKey
+     *            {@code null} to borrow a client as {@link #borrowObject()}
+     * @return
+     * @throws IllegalStateException
+     *             if a routing key is given and the pool has no per-server
+     *             sub-pools
+     * @throws Exception
+     * @since 0.2.3
+     */
+    @SuppressWarnings("unchecked")
+    public I borrowObject(String routingKey) throws Exception {
+        ServerTopology topology = this.topology;
+        if (topology == null) {
+            throw new IllegalStateException("Pool not initialized");
+        }
+        if (routingKey == null) {
+            return borrowObject();
+        }
+        IPoolEngine<I> pool = thriftClientPool;
+        if (pool != null) {
+            throw new IllegalStateException(
+                    "Keyed calls require per-server sub-pools, see PoolConfig.setPerServerPool(boolean)");
+        }
+        List<ServerNode> serverNodes = topology.serverNodes;
+        ConsistentHashRing hashRing = topology.hashRing;
+        if (hashRing == null) {
+            return borrowObject();
+        }
+        int[] ringServers = hashRing.getServers(routingKey, serverNodes.size());
+        int[] routingServers = new int[ringServers.length];
+        int numRoutingServers = 0;
+        for (int serverIndex : ringServers) {
+            if (serverNodes.get(serverIndex).isAvailable()) {
+                routingServers[numRoutingServers++] = serverIndex;
+            }
+        }
+        if (numRoutingServers == 0) {
+            throw new NoSuchElementException("No available server");
+        }
+        routingServers = Arrays.copyOf(routingServers, numRoutingServers);
+
+        I client = borrowFrom((IPoolEngine<I>) serverNodes.get(routingServers[0]).subPool);
+        getProxyHandler(client).routingServers = routingServers;
+        return client;
+    }
+
+    /**
+     * Returns a borrowed Thrift client object back to pool.
+     * 
+     * @param borrowedClient
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    public void returnObject(I borrowedClient) throws Exception {
+        IPoolEngine<I> pool = thriftClientPool;
+        ReconnectingClientProxy handler = getProxyHandler(borrowedClient);
+        if (pool != null) {
+            if (handler != null) {
+                handler.migrate();
+            }
+            pool.returnObject(borrowedClient);
+            return;
+        }
+        ServerNode node = handler != null ? handler.homeNode : null;
+        if (node == null || node.subPool == null) {
+            throw new IllegalStateException("Returned object not currently part of this pool");
+        }
+        IPoolEngine<I> subPool = (IPoolEngine<I>) node.subPool;
+        if (node.isDrained() || node.isRemoved()) {
+            subPool.invalidateObject(borrowedClient);
+        } else {
+            subPool.returnObject(borrowedClient);
+        }
+    }
+
+    /**
+     * Servers of a running pool, with their weights and hash ring: replaced as
+     * a whole when the server list changes, so that readers see consistent
+     * indexes.
+     * 
+     * @since 0.2.3
+     */
+    private final static class ServerTopology {
+        final List<ServerNode> serverNodes;
+        final WeightedServerTable serverWeights;
+        final ConsistentHashRing hashRing;
+        final int version;
+
+        /**
+         * Fraction of the traffic that moves to other servers with this
+         * version (see {@link ThriftClientPool#migrationRatio(List, List)}).
+         */
+        final double migrationRatio;
+
+        ServerTopology(List<ServerNode> serverNodes, int version, double migrationRatio) {
+            this.serverNodes = serverNodes;
+            this.serverWeights = buildServerWeights(serverNodes);
+            this.hashRing = serverNodes.size() > 1 ? new ConsistentHashRing(serverNodes) : null;
+            this.version = version;
+            this.migrationRatio = migrationRatio;
+        }
+    }
+
+    /**
+     * Settings of a running pool that can be changed without rebuilding it,
+     * swapped as a whole (see
+     * {@link ThriftClientPool#reconfigure(PoolConfig, RetryPolicy, IServerBalancer)}).
+     * 
+     * @since 0.2.3
+     */
+    private final static class RuntimeSettings {
+        final PoolConfig poolConfig;
+        final RetryPolicy retryPolicy;
+        final IServerBalancer serverBalancer;
+
+        RuntimeSettings(PoolConfig poolConfig, RetryPolicy retryPolicy,
+                IServerBalancer serverBalancer) {
+            this.poolConfig = poolConfig;
+            this.retryPolicy = retryPolicy;
+            this.serverBalancer = serverBalancer;
+        }
+    }
+
+    /**
+     * Asynchronously executes a task against a borrowed client: the client is
+     * borrowed, passed to {@code callable} and returned to the pool
+     * afterwards. Retries/reconnects are handled as with any pooled client.
+     * 
+     * <p>
+     * Tasks are queued (instead of blocking the caller in
+     * {@link #borrowObject()}) and executed on the async executor, see
+     * {@link #setAsyncExecutor(ExecutorService)}.
+     * </p>
+     * 
+     * @param callable
+     * @return
+     * @since 0.2.3
+     */
+    public <R> CompletableFuture<R> submit(final IClientCallable<I, R> callable) {
+        final CompletableFuture<R> future = new CompletableFuture<R>();
+        ExecutorService executor = asyncExecutor != null ? asyncExecutor : internalAsyncExecutor;
+        if (executor == null) {
+            future.completeExceptionally(new IllegalStateException("Pool not initialized"));
+            return future;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (future.isDone()) {
+                        // e.g. cancelled while queued
+                        return;
+                    }
+                    try {
+                        I client = borrowObject();
+                        try {
+                            future.complete(callable.call(client));
+                        } finally {
+                            returnObject(client);
+                        }
+                    } catch (Throwable t) {
+                        future.completeExceptionally(t);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /*----------------------------------------------------------------------*/
+    private final class ThriftClientFactory extends BasePooledObjectFactory<I> {
+
+        private final ServerNode homeNode;
+        private final boolean connectOnCreate;
+
+        /**
+         * @param homeNode
+         *            server of the sub-pool this factory creates clients for,
+         *            {@code null} if not using per-server sub-pools
+         * @param connectOnCreate
+         *            connect clients when created (on the pool engine's
+         *            connector threads), rather than on first use
+         */
+        public ThriftClientFactory(ServerNode homeNode, boolean connectOnCreate) {
+            this.homeNode = homeNode;
+            this.connectOnCreate = connectOnCreate;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public I create() throws Exception {
+            ReconnectingClientProxy handler = new ReconnectingClientProxy(runtimeSettings,
+                    homeNode);
+            if (connectOnCreate) {
+                try {
+                    handler.getClientObj();
+                } catch (Exception e) {
+                    // connect again on first use
+                    LOGGER.debug("Cannot connect new client: " + e.getMessage());
+                }
+            }
+            Object proxyObj = Proxy.newProxyInstance(clientInterface.getClassLoader(),
+                    new Class<?>[] { clientInterface }, handler);
+            return (I) proxyObj;
+        }
+
+        @Override
+        public PooledObject<I> wrap(I obj) {
+            return new DefaultPooledObject<I>(obj);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void passivateObject(PooledObject<I> pooledObj) throws Exception {
+            ReconnectingClientProxy handler = getProxyHandler(pooledObj.getObject());
+            if (handler != null) {
+                handler.routingServers = null;
+            }
+        }
+
+        /**
+         * A client is valid if it is not connected yet, or connected to an
+         * available server, not idle for longer than
+         * {@link PoolConfig#getMaxConnectionIdleMs()}, with its socket still
+         * open. No RPC is made, see {@link HealthChecker} for active checks.
+         */
+        @Override
+        public boolean validateObject(PooledObject<I> pooledObj) {
+            ReconnectingClientProxy handler = getProxyHandler(pooledObj.getObject());
+            return handler == null || handler.isValid();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void destroyObject(PooledObject<I> pooledObj) throws Exception {
+            ReconnectingClientProxy handler = getProxyHandler(pooledObj.getObject());
+            if (handler != null) {
+                handler.destroy();
+            }
+        }
+    }
+
+    /*----------------------------------------------------------------------*/
+
+    private final static IServerBalancer LEAST_LOADED_BALANCER = new PowerOfTwoChoicesServerBalancer();
+
+    static final Set<Integer> RESTARTABLE_CAUSES = Sets.newHashSet(
+            TTransportException.NOT_OPEN, TTransportException.END_OF_FILE,
+            TTransportException.TIMED_OUT, TTransportException.UNKNOWN);
+
+    /**
+     * Helper proxy class. Attempts to call method on proxy object wrapped in
+     * try/catch. If it fails, it attempts a reconnect and tries the method
+     * again.
+     * 
+     * <p>
+     * Credit: http://blog.liveramp.com/2014/04/10/reconnecting-thrift-client/
+     * </p>
+     * 
+     * @param <T>
+     */
+    private final class ReconnectingClientProxy implements InvocationHandler {
+        private RuntimeSettings settings;
+        private RetryPolicy retryPolicy;
+        private UUID id = UUID.randomUUID();
+        private T clientObj;
+        private int clientServerIndexHash;
+        /**
+         * Server of the current connection (or of the latest connection
+         * attempt), {@code null} if unknown.
+         */
+        private ServerNode clientNode;
+        /**
+         * Version of the server topology the current connection was made (or
+         * last migrated) with.
+         */
+        private int topologyVersion;
+        private final ServerNode homeNode;
+
+        /**
+         * Servers of the routing key this client was borrowed for (see
+         * {@link ThriftClientPool#borrowObject(String)}), in failover order;
+         * {@code null} if none.
+         */
+        private int[] routingServers;
+
+        /**
+         * When the current connection was last used, and last checked.
+         */
+        private long lastUsedTimestamp, lastCheckedTimestamp;
+
+        /**
+         * @param settings
+         *            pool settings this client starts with
+         * @param homeNode
+         *            server this client belongs to, {@code null} if not using
+         *            per-server sub-pools
+         * @throws CloneNotSupportedException
+         */
+        public ReconnectingClientProxy(RuntimeSettings settings, ServerNode homeNode)
+                throws CloneNotSupportedException {
+            this.settings = settings;
+            this.retryPolicy = settings.retryPolicy.clone();
+            this.homeNode = homeNode;
+        }
+
+        /**
+         * Picks the pool's settings up if they have been changed (see
+         * {@link ThriftClientPool#reconfigure(PoolConfig, RetryPolicy, IServerBalancer)}),
+         * and resets the retry policy for a new call.
+         * 
+         * @throws CloneNotSupportedException
+         * @since 0.2.3
+         */
+        private void resetRetryPolicy() throws CloneNotSupportedException {
+            RuntimeSettings current = runtimeSettings;
+            if (current != settings) {
+                retryPolicy = current.retryPolicy.clone();
+                settings = current;
+            }
+            retryPolicy.reset();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @SuppressWarnings("unchecked")
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ThriftClientPool.ReconnectingClientProxy)) {
+                return false;
+            }
+            ReconnectingClientProxy other = (ReconnectingClientProxy) obj;
+            return id.equals(other.id);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return id.hashCode();
+        }
+
+        public void destroy() {
+            if (clientObj != null) {
+                try {
+                    clientObj.getInputProtocol().getTransport().close();
+                } catch (Exception e) {
+                }
+            }
+            clientObj = null;
+        }
+
+        /**
+         * Closes the current connection if its server has been removed, or
+         * (with probability of the topology's migration ratio) if made before
+         * the server list changed, so that it is reconnected according to the
+         * new server list. Each connection is considered once per change.
+         * 
+         * @since 0.2.3
+         */
+        void migrate() {
+            ServerTopology topology = ThriftClientPool.this.topology;
+            if (clientObj == null || topology == null || topologyVersion == topology.version) {
+                return;
+            }
+            topologyVersion = topology.version;
+            ServerNode node = clientNode;
+            if ((node != null && node.isRemoved())
+                    || ThreadLocalRandom.current().nextDouble() < topology.migrationRatio) {
+                destroy();
+            }
+        }
+
+        /**
+         * Is the current connection (if any) still usable?
+         * 
+         * @return
+         * @since 0.2.3
+         */
+        boolean isValid() {
+            T clientObj = this.clientObj;
+            if (clientObj == null) {
+                return true;
+            }
+            long now = System.currentTimeMillis();
+            PoolConfig poolConfig = runtimeSettings.poolConfig;
+            long maxConnectionIdleMs = poolConfig.getMaxConnectionIdleMs();
+            long livenessCheckIdleMs = poolConfig.getLivenessCheckIdleMs();
+            if (maxConnectionIdleMs >= 0 && now - lastUsedTimestamp > maxConnectionIdleMs) {
+                return false;
+            }
+            boolean timedPeek = livenessCheckIdleMs >= 0
+                    && now - Math.max(lastUsedTimestamp, lastCheckedTimestamp) >= livenessCheckIdleMs;
+            if (!SocketLiveness.isAlive(clientObj.getInputProtocol().getTransport(), timedPeek)) {
+                return false;
+            }
+            if (timedPeek) {
+                lastCheckedTimestamp = now;
+            }
+            ServerNode node = clientNode;
+            return node == null || node.isAvailable();
+        }
+
+        /**
+         * Creates a new thrift client object.
+         * 
+         * @param node
+         *            {@code null} if unknown
+         * @param serverIndexHash
+         * @return
+         * @throws Exception
+         */
+        private T newClientObj(ServerNode node, int serverIndexHash) throws Exception {
+            TProtocol protocol = node != null ? node.createProtocol(tprotocolFactory)
+                    : tprotocolFactory.create(serverIndexHash);
+            T clientObj = ConstructorUtils.invokeConstructor(clientClass, protocol);
+            return clientObj;
+        }
+
+        /**
+         * Calculates the server to connect to, according to the retry policy.
+         * 
+         * @return
+         * @since 0.2.3
+         */
+        private int calcServerIndexHash() {
+            int[] routingServers = this.routingServers;
+            if (routingServers != null) {
+                // keyed call: fail over along the hash ring
+                int start = retryPolicy.getCounter() % routingServers.length;
+                for (int i = 0; i < routingServers.length; i++) {
+                    int serverIndex = routingServers[(start + i) % routingServers.length];
+                    if (isServerAvailable(serverIndex)) {
+                        return serverIndex;
+                    }
+                }
+                return routingServers[start];
+            }
+            if (homeNode != null && retryPolicy.getCounter() == 0 && homeNode.isAvailable()) {
+                return homeNode.getIndex();
+            }
+            ServerTopology topology = ThriftClientPool.this.topology;
+            if (retryPolicy.getRetryType() == RetryPolicy.RetryType.LEAST_LOADED) {
+                List<ServerNode> serverNodes = topology != null ? topology.serverNodes : null;
+                if (serverNodes != null && serverNodes.size() > 1) {
+                    if (retryPolicy.getCounter() > 0) {
+                        serverNodes = excludeServer(serverNodes,
+                                normalizeServerIndexHash(retryPolicy.getLastServerIndexHash()));
+                    }
+                    ServerNode node = LEAST_LOADED_BALANCER.select(serverNodes);
+                    if (node != null) {
+                        return node.getIndex();
+                    }
+                }
+            }
+            int numServers = topology != null ? topology.serverNodes.size() : getNumServers();
+            int serverIndex = normalizeServerIndexHash(retryPolicy.calcServerIndexHash(numServers,
+                    topology != null ? topology.serverWeights : null));
+            if (numServers > 1 && !isServerAvailable(serverIndex)) {
+                // skip unavailable servers: in host list order for ordered
+                // retry types, from a random server otherwise so that the
+                // skipped server's share is spread
+                RetryPolicy.RetryType retryType = retryPolicy.getRetryType();
+                int start = retryType == RetryPolicy.RetryType.ROUND_ROBIN
+                        || retryType == RetryPolicy.RetryType.FAILOVER ? serverIndex
+                        : serverIndex + ThreadLocalRandom.current().nextInt(numServers - 1);
+                for (int i = 1; i < numServers; i++) {
+                    int nextIndex = (start + i) % numServers;
+                    if (isServerAvailable(nextIndex)) {
+                        return nextIndex;
+                    }
+                }
+            }
+            return serverIndex;
+        }
+
+        private boolean isServerAvailable(int serverIndex) {
+            ServerNode node = getServerNode(serverIndex);
+            return node == null || node.isAvailable();
+        }
+
+        private boolean isServerSkipped(ServerNode node) {
+            if (node == null) {
+                return false;
+            }
+            CircuitBreaker circuitBreaker = node.circuitBreaker;
+            return node.isRemoved() || !node.isHealthy() || node.isEjected()
+                    || (circuitBreaker != null && !circuitBreaker.isAvailable());
+        }
+
+        /**
+         * Gets the current Thrift client object, connecting if needed.
+         * 
+         * <p>
+         * The server to connect to is only calculated when a new connection is
+         * made.
+         * </p>
+         * 
+         * @return
+         * @throws Exception
+         */
+        private T getClientObj() throws Exception {
+            return clientObj != null ? clientObj : connect(calcServerIndexHash());
+        }
+
+        /**
+         * (Re)connects to a server.
+         * 
+         * @param serverIndexHash
+         * @return
+         * @throws Exception
+         * @since 0.2.3
+         */
+        private T connect(int serverIndexHash) throws Exception {
+            destroy();
+            serverIndexHash = normalizeServerIndexHash(serverIndexHash);
+            // the server of the latest attempt, even if connecting fails
+            clientServerIndexHash = serverIndexHash;
+            ServerTopology topology = ThriftClientPool.this.topology;
+            ServerNode node = getServerNode(serverIndexHash);
+            clientNode = node;
+            topologyVersion = topology != null ? topology.version : 0;
+            if (node != null && !node.allowRequest()) {
+                throw new TTransportException(TTransportException.NOT_OPEN,
+                        "Circuit breaker open: " + node);
+            }
+            try {
+                clientObj = newClientObj(node, serverIndexHash);
+                lastUsedTimestamp = System.currentTimeMillis();
+            } catch (TTransportException e) {
+                if (node != null) {
+                    node.recordLatency(0, true);
+                    metricsRegistry.recordConnect(node, false);
+                    metricsRegistry.recordTransportError(node, e.getType());
+                }
+                throw e;
+            }
+            if (node != null) {
+                metricsRegistry.recordConnect(node, true);
+            }
+            return clientObj;
+        }
+
+        private int normalizeServerIndexHash(int serverIndexHash) {
+            int numServers = getNumServers();
+            return numServers > 0 ? Math.abs(serverIndexHash % numServers) : serverIndexHash;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            MethodDispatchTable.MethodInfo methodInfo = dispatchTable.lookup(method);
+            switch (methodInfo.getKind()) {
+            case HASH_CODE:
+                return hashCode();
+            case EQUALS:
+                return proxy == args[0];
+            case TO_STRING:
+                return toString();
+            default:
+                resetRetryPolicy();
+                ServerNode clientNode = this.clientNode;
+                if (clientNode != null && !clientNode.isRemoved()) {
+                    // the server may have moved in an updated server list
+                    clientServerIndexHash = clientNode.getIndex();
+                }
+                retryPolicy.setLastServerIndexHash(clientServerIndexHash);
+                int preferredServer = routingServers != null ? routingServers[0]
+                        : homeNode != null ? homeNode.getIndex() : -1;
+                if (preferredServer >= 0 && clientObj != null
+                        && clientServerIndexHash != preferredServer
+                        && isServerAvailable(preferredServer)) {
+                    // connection failed over to (or is on) another server, move
+                    // it to the preferred one
+                    destroy();
+                } else if (clientObj != null && isServerSkipped(clientNode)) {
+                    // server removed, unhealthy, ejected or skipped by its circuit
+                    // breaker, reconnect elsewhere
+                    destroy();
+                } else {
+                    checkIdleConnection();
+                }
+                try {
+                    ScheduledExecutorService scheduler = ThriftClientPool.this.scheduler;
+                    if (hedgingEnabled && scheduler != null && methodInfo.isHedged()) {
+                        return invokeHedged(scheduler, methodInfo, args);
+                    }
+                    return invokeWithRetries(methodInfo, args, null);
+                } finally {
+                    lastUsedTimestamp = System.currentTimeMillis();
+                }
+            }
+        }
+
+        /**
+         * Closes the current connection if it has been idle for too long, or if
+         * its socket is found closed (e.g. by the server or a load balancer),
+         * so that a new connection is made instead of failing the call.
+         * 
+         * @since 0.2.3
+         */
+        private void checkIdleConnection() {
+            T clientObj = this.clientObj;
+            if (clientObj == null) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            PoolConfig poolConfig = runtimeSettings.poolConfig;
+            long maxConnectionIdleMs = poolConfig.getMaxConnectionIdleMs();
+            long livenessCheckIdleMs = poolConfig.getLivenessCheckIdleMs();
+            if (maxConnectionIdleMs >= 0 && now - lastUsedTimestamp > maxConnectionIdleMs) {
+                destroy();
+            } else if (livenessCheckIdleMs >= 0
+                    && now - Math.max(lastUsedTimestamp, lastCheckedTimestamp) >= livenessCheckIdleMs) {
+                if (SocketLiveness.isAlive(clientObj.getInputProtocol().getTransport(), true)) {
+                    lastCheckedTimestamp = now;
+                } else {
+                    LOGGER.debug("Stale connection to server [" + clientServerIndexHash
+                            + "] closed before use");
+                    destroy();
+                }
+            }
+        }
+
+        /**
+         * Connects for a hedged request, to a server other than the primary
+         * request's.
+         * 
+         * @param primaryServerIndex
+         *            {@code -1} if unknown
+         * @return
+         * @throws Exception
+         * @since 0.2.3
+         */
+        private T connectForHedge(int primaryServerIndex) throws Exception {
+            resetRetryPolicy();
+            if (clientObj != null && clientServerIndexHash != primaryServerIndex
+                    && (homeNode == null || clientServerIndexHash == homeNode.getIndex())) {
+                return clientObj;
+            }
+            if (homeNode != null) {
+                return connect(homeNode.getIndex());
+            }
+            int numServers = getNumServers();
+            if (primaryServerIndex < 0 || numServers < 2) {
+                return getClientObj();
+            }
+            return connect(primaryServerIndex + 1
+                    + ThreadLocalRandom.current().nextInt(numServers - 1));
+        }
+
+        /**
+         * Invokes a hedged method: if the call does not complete within the
+         * hedge delay, the same call is sent to another server (see
+         * {@link HedgedCall}) and the first successful response is returned.
+         * 
+         * @param hedgeScheduler
+         * @param methodInfo
+         * @param args
+         * @return
+         * @throws Throwable
+         * @since 0.2.3
+         */
+        private Object invokeHedged(ScheduledExecutorService hedgeScheduler,
+                MethodDispatchTable.MethodInfo methodInfo, Object[] args) throws Throwable {
+            MethodConfig config = methodInfo.getConfig();
+            LatencyTracker latencyTracker = methodInfo.getLatencyTracker();
+            long delayMs = config.getHedgeDelayMs();
+            if (config.getHedgeDelayPercentile() > 0) {
+                long latencyNs = latencyTracker.percentile(config.getHedgeDelayPercentile());
+                if (latencyNs >= 0) {
+                    delayMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(latencyNs));
+                }
+            }
+            long startNs = System.nanoTime();
+            HedgedCall hedge = new HedgedCall(methodInfo, args);
+            try {
+                hedge.schedule(hedgeScheduler, delayMs);
+            } catch (RejectedExecutionException e) {
+                // pool is being destroyed
+                return invokeWithRetries(methodInfo, args, null);
+            }
+            try {
+                Object result;
+                try {
+                    result = invokeWithRetries(methodInfo, args, hedge);
+                } finally {
+                    // latency of the primary call only, so that hedges do not
+                    // lower the percentile; an aborted primary call still
+                    // counts, as slower than the hedge delay
+                    latencyTracker.record(System.nanoTime() - startNs);
+                }
+                if (hedge.primarySucceeded()) {
+                    return result;
+                }
+                // hedge won concurrently and aborted this connection
+                destroy();
+                return hedge.getHedgeResult();
+            } catch (Throwable t) {
+                if (!hedge.primaryFailed()) {
+                    throw t;
+                }
+                if (hedge.getState() == HedgedCall.HEDGE_WON) {
+                    destroy();
+                }
+                // hedge in flight (or won), its result is the call's last
+                // chance: wait for it within the deadline and socket timeout
+                long maxWaitMs = retryPolicy.getRemainingMs();
+                int callTimeoutMs = hedge.getCallTimeoutMs();
+                if (callTimeoutMs > 0) {
+                    maxWaitMs = Math.min(maxWaitMs, callTimeoutMs);
+                }
+                try {
+                    return hedge.getHedgeResult(maxWaitMs);
+                } catch (Throwable ignore) {
+                    throw t;
+                }
+            } finally {
+                hedge.cancelTimer();
+            }
+        }
+
+        /**
+         * Invokes a method, with the method's socket timeout (if any, see
+         * {@link MethodConfig#setTimeoutMs(int)}) for the duration of the call.
+         * 
+         * @param methodInfo
+         * @param clientObj
+         * @param args
+         * @return
+         * @throws Throwable
+         * @since 0.2.3
+         */
+        private Object invokeWithTimeout(MethodDispatchTable.MethodInfo methodInfo,
+                T clientObj, Object[] args) throws Throwable {
+            int timeoutMs = methodInfo.getTimeoutMs();
+            Socket socket = timeoutMs >= 0 ? SocketLiveness.findSocket(clientObj
+                    .getInputProtocol().getTransport()) : null;
+            int soTimeout = -1;
+            if (socket != null) {
+                try {
+                    soTimeout = socket.getSoTimeout();
+                    socket.setSoTimeout(timeoutMs);
+                } catch (SocketException e) {
+                    // closed socket: the call fails with a transport error
+                }
+            }
+            try {
+                return methodInfo.getInvoker().invoke(clientObj, args);
+            } finally {
+                if (soTimeout >= 0) {
+                    try {
+                        socket.setSoTimeout(soTimeout);
+                    } catch (SocketException e) {
+                    }
+                }
+            }
+        }
+
+        /**
+         * Invokes a method on the current connection, tracking in-flight calls
+         * and latency of its server.
+         * 
+         * <p>
+         * An attempt aborted because it lost a hedge race is not recorded: its
+         * server has not failed.
+         * </p>
+         * 
+         * @param methodInfo
+         * @param clientObj
+         * @param args
+         * @param hedge
+         *            the hedged call this attempt is part of, or {@code null}
+         * @return
+         * @throws Throwable
+         * @since 0.2.3
+         */
+        private Object invokeTracked(MethodDispatchTable.MethodInfo methodInfo, T clientObj,
+                Object[] args, HedgedCall hedge) throws Throwable {
+            ServerNode node = clientNode;
+            if (node == null) {
+                return invokeWithTimeout(methodInfo, clientObj, args);
+            }
+            boolean failed = false, aborted = false;
+            node.callStarted();
+            long startNs = System.nanoTime();
+            try {
+                return invokeWithTimeout(methodInfo, clientObj, args);
+            } catch (Throwable t) {
+                if (hedge != null && hedge.isAborted(clientObj)) {
+                    aborted = true;
+                } else if (t instanceof TTransportException) {
+                    failed = true;
+                    metricsRegistry.recordTransportError(node,
+                            ((TTransportException) t).getType());
+                }
+                throw t;
+            } finally {
+                if (aborted) {
+                    node.callAborted();
+                } else {
+                    long latencyNs = System.nanoTime() - startNs;
+                    node.callFinished(latencyNs, failed);
+                    methodInfo.getMetrics().recordCall(node, latencyNs, failed);
                 }
+            }
+        }
 
+        /**
+         * Invokes a method, retrying on restartable transport errors.
+         * 
+         * <p>
+         * Before each retry the next server is calculated first, so that
+         * {@link RetryPolicy#calcSleepMs(boolean)} can skip sleeping when
+         * failing over to another server. No retry is made past the
+         * {@link RetryPolicy#getDeadlineMs()}, nor when the pool's
+         * {@link RetryBudget} is exhausted.
+         * </p>
+         * 
+         * @param methodInfo
+         * @param args
+         * @param hedge
+         *            the hedged request racing this call, or {@code null}
+         * @return
+         * @throws Throwable
+         */
+        private Object invokeWithRetries(MethodDispatchTable.MethodInfo methodInfo,
+                Object[] args, HedgedCall hedge) throws Throwable {
+            int nextServerIndexHash = -1;
+            while (true) {
                 try {
-                    T clientObj = getClientId(hasError, serverIndexHash);
-                    return method.invoke(clientObj, args);
-                } catch (InvocationTargetException e) {
-                    hasError = true;
-                    Throwable target = e.getTargetException();
+                    T clientObj = nextServerIndexHash < 0 ? getClientObj()
+                            : connect(nextServerIndexHash);
+                    if (hedge != null) {
+                        hedge.setPrimary(clientObj, clientServerIndexHash);
+                    }
+                    Object result = invokeTracked(methodInfo, clientObj, args, hedge);
+                    if (retryBudget != null) {
+                        retryBudget.recordSuccess();
+                    }
+                    return result;
+                } catch (Throwable target) {
                     if (target instanceof TTransportException) {
                         TTransportException cause = (TTransportException) target;
-                        if (RESTARTABLE_CAUSES.contains(cause.getType())) {
-                            LOGGER.info("Attempting to retry [" + (retryPolicy.getCounter() + 1)
-                                    + "/" + retryPolicy.getNumRetries() + "]...");
-                            retryPolicy.sleep();
-                            if (retryPolicy.exceedsMaxRetries()) {
-                                throw target;
-                            } else {
-                                continue;
+                        if (methodInfo.isRetryable()
+                                && RESTARTABLE_CAUSES.contains(cause.getType())
+                                && (hedge == null || hedge.getState() != HedgedCall.HEDGE_WON)) {
+                            retryPolicy.incCounter();
+                            if (!retryPolicy.exceedsMaxRetries()) {
+                                retryPolicy.setLastServerIndexHash(clientServerIndexHash);
+                                nextServerIndexHash = normalizeServerIndexHash(calcServerIndexHash());
+                                long sleepMs = retryPolicy
+                                        .calcSleepMs(nextServerIndexHash == clientServerIndexHash);
+                                if (retryPolicy.canRetryWithin(sleepMs)
+                                        && (retryBudget == null || retryBudget.tryAcquireRetry())) {
+                                    LOGGER.info("Attempting to retry [" + retryPolicy.getCounter()
+                                            + "/" + retryPolicy.getNumRetries() + "]...");
+                                    methodInfo.getMetrics().recordRetry(clientNode);
+                                    if (sleepMs > 0) {
+                                        Thread.sleep(sleepMs);
+                                    }
+                                    continue;
+                                }
                             }
                         }
+                        // connection state is unknown, reconnect on next call
+                        destroy();
+                    }
+                    throw target;
+                }
+            }
+        }
+    }
+
+    /**
+     * A hedged request racing a primary call.
+     * 
+     * <p>
+     * Scheduled when the primary call starts; after the hedge delay, if the
+     * primary call is still pending, the call is sent on another pooled
+     * client to another server, on the pool's hedge threads; the hedge is
+     * skipped if no hedge thread or no client is available without waiting.
+     * The first successful response wins and the loser is aborted by closing
+     * its transport (which is not recorded as a failure of its server). If the
+     * primary call fails itself, it waits for the hedge, within the call's
+     * deadline and socket timeout.
+     * </p>
+     * 
+     * @since 0.2.3
+     */
+    private final class HedgedCall implements Runnable {
+        static final int PENDING = 0, LAUNCHED = 1, PRIMARY_DONE = 2, HEDGE_WON = 3,
+                HEDGE_FAILED = 4;
+
+        private final MethodDispatchTable.MethodInfo methodInfo;
+        private final Object[] args;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private final CompletableFuture<Object> hedgeResult = new CompletableFuture<Object>();
+        private volatile ScheduledFuture<?> timer;
+        private volatile T primaryClient, hedgeClient;
+        private volatile int primaryServerIndex = -1;
+
+        public HedgedCall(MethodDispatchTable.MethodInfo methodInfo, Object[] args) {
+            this.methodInfo = methodInfo;
+            this.args = args;
+        }
+
+        public void schedule(ScheduledExecutorService scheduler, long delayMs) {
+            timer = scheduler.schedule(this, delayMs, TimeUnit.MILLISECONDS);
+        }
+
+        public void cancelTimer() {
+            ScheduledFuture<?> timer = this.timer;
+            if (timer != null) {
+                timer.cancel(false);
+            }
+        }
+
+        public int getState() {
+            return state.get();
+        }
+
+        /**
+         * Called when the primary call succeeds; aborts the hedge if it is in
+         * flight.
+         * 
+         * @return {@code false} if the hedge has won and its result must be
+         *         used instead
+         */
+        public boolean primarySucceeded() {
+            while (true) {
+                int s = state.get();
+                if (s == HEDGE_WON) {
+                    return false;
+                }
+                if (s == HEDGE_FAILED || s == PRIMARY_DONE) {
+                    return true;
+                }
+                if (state.compareAndSet(s, PRIMARY_DONE)) {
+                    if (s == LAUNCHED) {
+                        closeTransport(hedgeClient);
                     }
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Called when the primary call fails.
+         * 
+         * @return {@code true} if the hedge has been launched (or has won) and
+         *         its result must be waited for
+         */
+        public boolean primaryFailed() {
+            while (true) {
+                int s = state.get();
+                if (s == HEDGE_WON || s == LAUNCHED) {
+                    return true;
+                }
+                if (s != PENDING || state.compareAndSet(PENDING, PRIMARY_DONE)) {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * Has the attempt on the given client been aborted because the other
+         * attempt won?
+         * 
+         * @param clientObj
+         * @return
+         */
+        public boolean isAborted(T clientObj) {
+            int s = state.get();
+            return (s == HEDGE_WON && clientObj == primaryClient)
+                    || (s == PRIMARY_DONE && clientObj == hedgeClient);
+        }
+
+        public void setPrimary(T primaryClient, int primaryServerIndex) {
+            this.primaryClient = primaryClient;
+            this.primaryServerIndex = primaryServerIndex;
+        }
+
+        public Object getHedgeResult() throws Throwable {
+            try {
+                return hedgeResult.get();
+            } catch (ExecutionException e) {
+                throw e.getCause();
+            }
+        }
+
+        /**
+         * Waits for the hedge's result; the hedge is aborted if it does not
+         * complete in time.
+         * 
+         * @param maxWaitMs
+         *            {@link Long#MAX_VALUE} for no limit
+         * @return
+         * @throws Throwable
+         */
+        public Object getHedgeResult(long maxWaitMs) throws Throwable {
+            if (maxWaitMs == Long.MAX_VALUE) {
+                return getHedgeResult();
+            }
+            try {
+                return hedgeResult.get(Math.max(0, maxWaitMs), TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                throw e.getCause();
+            } catch (TimeoutException e) {
+                if (state.compareAndSet(LAUNCHED, PRIMARY_DONE)) {
+                    closeTransport(hedgeClient);
                     throw e;
                 }
+                // won meanwhile, or failed
+                return getHedgeResult();
+            }
+        }
+
+        /**
+         * Bound of the hedged call's duration: the method's timeout, or the
+         * socket timeout of the hedge's (or primary call's) connection.
+         * 
+         * @return {@code 0} if unknown or unbounded
+         */
+        public int getCallTimeoutMs() {
+            int timeoutMs = methodInfo.getTimeoutMs();
+            if (timeoutMs >= 0) {
+                return timeoutMs;
+            }
+            T clientObj = hedgeClient != null ? hedgeClient : primaryClient;
+            Socket socket = clientObj != null ? SocketLiveness.findSocket(clientObj
+                    .getInputProtocol().getTransport()) : null;
+            try {
+                return socket != null ? socket.getSoTimeout() : 0;
+            } catch (SocketException e) {
+                return 0;
+            }
+        }
+
+        private void closeTransport(T clientObj) {
+            if (clientObj != null) {
+                try {
+                    clientObj.getInputProtocol().getTransport().close();
+                } catch (Exception e) {
+                }
+            }
+        }
+
+        /**
+         * Fires after the hedge delay (on the hedge scheduler): launches the
+         * hedged request if the primary call is still pending.
+         */
+        @Override
+        public void run() {
+            ExecutorService executor = hedgeExecutor;
+            if (state.get() != PENDING || executor == null
+                    || (retryBudget != null && !retryBudget.tryAcquireRetry())) {
+                return;
+            }
+            if (!state.compareAndSet(PENDING, LAUNCHED)) {
+                return;
+            }
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        hedge();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                state.compareAndSet(LAUNCHED, HEDGE_FAILED);
+                hedgeResult.completeExceptionally(e);
+            }
+        }
+
+        private void hedge() {
+            I client = null;
+            ReconnectingClientProxy handler = null;
+            try {
+                if (state.get() != LAUNCHED) {
+                    throw new CancellationException();
+                }
+                // never wait for a client: a hedge is only worth sending now
+                client = borrowObject(primaryServerIndex, false);
+                if (client == null) {
+                    throw new NoSuchElementException("No idle client for hedge");
+                }
+                handler = getProxyHandler(client);
+                T clientObj = handler.connectForHedge(primaryServerIndex);
+                hedgeClient = clientObj;
+                if (state.get() != LAUNCHED) {
+                    throw new CancellationException();
+                }
+                Object result = handler.invokeTracked(methodInfo, clientObj, args, this);
+                if (retryBudget != null) {
+                    retryBudget.recordSuccess();
+                }
+                if (!state.compareAndSet(LAUNCHED, HEDGE_WON)) {
+                    throw new CancellationException();
+                }
+                hedgeResult.complete(result);
+                // abort the primary call
+                closeTransport(primaryClient);
+            } catch (Throwable t) {
+                boolean lost = !state.compareAndSet(LAUNCHED, HEDGE_FAILED);
+                if (handler != null && (lost || t instanceof TTransportException)) {
+                    // aborted or connection state unknown
+                    handler.destroy();
+                }
+                hedgeResult.completeExceptionally(t);
+            } finally {
+                if (client != null) {
+                    try {
+                        returnObject(client);
+                    } catch (Exception e) {
+                        LOGGER.warn(e.getMessage(), e);
+                    }
+                }
             }
-            return null;
         }
     }
 }
@@ -0,0 +1,109 @@
+package com.github.ddth.thriftpool;
+
+/**
+ * Management interface of a {@link ThriftClientPool}, registered as
+ * {@code com.github.ddth.thriftpool:type=ThriftClientPool,name=...} (see
+ * {@link ThriftClientPool#setJmxName(String)}).
+ *
+ * <p>
+ * Writable attributes are applied to the running pool: pool limits to the
+ * pool (or per-server sub-pools, shared proportionally to server weights),
+ * retry settings to pooled clients from their next call.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+public interface ThriftClientPoolMXBean {
+
+    public String getClientInterface();
+
+    public int getNumActive();
+
+    public int getNumIdle();
+
+    public int getNumWaiters();
+
+    /**
+     * Total number of clients created (all sub-pools).
+     *
+     * @return
+     */
+    public long getCreatedCount();
+
+    /**
+     * Total number of clients destroyed (all sub-pools).
+     *
+     * @return
+     */
+    public long getDestroyedCount();
+
+    /**
+     * Mean time borrowers waited for a client (average of sub-pools).
+     *
+     * @return
+     */
+    public long getMeanBorrowWaitTimeMillis();
+
+    /**
+     * Current maximum number of clients, see
+     * {@link ThriftClientPool#getEffectiveMaxActive()}.
+     *
+     * @return
+     */
+    public int getEffectiveMaxActive();
+
+    /**
+     * Status of each server: availability (drained, unhealthy, ejected,
+     * circuit breaker state), pooled clients and call counters.
+     *
+     * @return
+     */
+    public String[] getServers();
+
+    /**
+     * Configured maximum number of clients; the adaptive pool sizer, if any,
+     * adjusts the limit in effect below it (see
+     * {@link #getEffectiveMaxActive()}).
+     *
+     * @return
+     */
+    public int getMaxActive();
+
+    public void setMaxActive(int maxActive);
+
+    public int getMaxIdle();
+
+    public void setMaxIdle(int maxIdle);
+
+    public int getMinIdle();
+
+    public void setMinIdle(int minIdle);
+
+    public long getMaxWaitTime();
+
+    public void setMaxWaitTime(long maxWaitTime);
+
+    public int getNumRetries();
+
+    public void setNumRetries(int numRetries);
+
+    public long getSleepMsBetweenRetries();
+
+    public void setSleepMsBetweenRetries(long sleepMsBetweenRetries);
+
+    /**
+     * See {@link ThriftClientPool#drainServer(int)}.
+     *
+     * @param serverIndex
+     */
+    public void drainServer(int serverIndex);
+
+    /**
+     * See {@link ThriftClientPool#undrainServer(int)}.
+     *
+     * @param serverIndex
+     */
+    public void undrainServer(int serverIndex);
+
+}
@@ -0,0 +1,254 @@
+package com.github.ddth.thriftpool;
+
+import java.util.List;
+
+/**
+ * {@link ThriftClientPoolMXBean} of a {@link ThriftClientPool}.
+ *
+ * <p>
+ * Attributes are the pool's configured settings (the adaptive pool sizer may
+ * apply a lower {@code maxActive}, see {@link #getEffectiveMaxActive()}).
+ * Attribute changes are read-modify-write of these settings; concurrent
+ * changes of different attributes may overwrite each other.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+final class ThriftClientPoolManagement implements ThriftClientPoolMXBean {
+
+    private final ThriftClientPool<?, ?> pool;
+
+    public ThriftClientPoolManagement(ThriftClientPool<?, ?> pool) {
+        this.pool = pool;
+    }
+
+    private PoolConfig poolConfig() {
+        if (pool.getRuntimePoolConfig() == null) {
+            throw new IllegalStateException("Pool not initialized");
+        }
+        PoolConfig poolConfig = pool.getPoolConfig();
+        return poolConfig != null ? poolConfig : new PoolConfig();
+    }
+
+    private RetryPolicy retryPolicy() {
+        try {
+            return pool.getRetryPolicy().clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*----------------------------------------------------------------------*/
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getClientInterface() {
+        Class<?> clientInterface = pool.getClientInterface();
+        return clientInterface != null ? clientInterface.getName() : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumActive() {
+        return pool.getNumActive();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumIdle() {
+        return pool.getNumIdle();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumWaiters() {
+        return pool.getNumWaiters();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCreatedCount() {
+        long result = 0;
+        for (IPoolEngine<?> engine : pool.getPoolEngines()) {
+            result += engine.getCreatedCount();
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getDestroyedCount() {
+        long result = 0;
+        for (IPoolEngine<?> engine : pool.getPoolEngines()) {
+            result += engine.getDestroyedCount();
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMeanBorrowWaitTimeMillis() {
+        List<IPoolEngine<?>> engines = pool.getPoolEngines();
+        long sum = 0;
+        for (IPoolEngine<?> engine : engines) {
+            sum += engine.getMeanBorrowWaitTimeMillis();
+        }
+        return engines.isEmpty() ? 0 : sum / engines.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getEffectiveMaxActive() {
+        return pool.getEffectiveMaxActive();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String[] getServers() {
+        List<ServerNode> serverNodes = pool.getServerNodes();
+        String[] result = new String[serverNodes.size()];
+        for (int i = 0; i < result.length; i++) {
+            ServerNode node = serverNodes.get(i);
+            String status = node.isDrained() ? "DRAINED" : !node.isHealthy() ? "UNHEALTHY" : node
+                    .isEjected() ? "EJECTED" : "UP";
+            result[i] = String.format("[%d] %s status=%s circuit=%s weight=%d active=%d idle=%d"
+                    + " inFlight=%d calls=%d failures=%d latencyEwmaMs=%.3f", node.getIndex(),
+                    node, status, node.getCircuitState() != null ? node.getCircuitState() : "NONE",
+                    node.getWeight(), node.getNumActive(),
+                    node.getNumIdle(), node.getNumInFlight(), node.getNumCalls(),
+                    node.getNumFailures(), node.getLatencyEwmaNs() / 1E6);
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxActive() {
+        return poolConfig().getMaxActive();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMaxActive(int maxActive) {
+        pool.reconfigure(poolConfig().clone().setMaxActive(maxActive), null, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxIdle() {
+        return poolConfig().getMaxIdle();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMaxIdle(int maxIdle) {
+        pool.reconfigure(poolConfig().clone().setMaxIdle(maxIdle), null, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMinIdle() {
+        return poolConfig().getMinIdle();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMinIdle(int minIdle) {
+        pool.reconfigure(poolConfig().clone().setMinIdle(minIdle), null, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMaxWaitTime() {
+        return poolConfig().getMaxWaitTime();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMaxWaitTime(long maxWaitTime) {
+        pool.reconfigure(poolConfig().clone().setMaxWaitTime(maxWaitTime), null, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumRetries() {
+        return pool.getRetryPolicy().getNumRetries();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setNumRetries(int numRetries) {
+        pool.reconfigure(null, retryPolicy().setNumRetries(numRetries), null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getSleepMsBetweenRetries() {
+        return pool.getRetryPolicy().getSleepMsBetweenRetries();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setSleepMsBetweenRetries(long sleepMsBetweenRetries) {
+        pool.reconfigure(null,
+                retryPolicy().setSleepMsBetweenRetries(sleepMsBetweenRetries), null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void drainServer(int serverIndex) {
+        pool.drainServer(serverIndex);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void undrainServer(int serverIndex) {
+        pool.undrainServer(serverIndex);
+    }
+}
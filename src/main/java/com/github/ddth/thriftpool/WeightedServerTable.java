@@ -0,0 +1,145 @@
+package com.github.ddth.thriftpool;
+
+import java.util.List;
+
+import com.github.ddth.thriftpool.AbstractTProtocolFactory.HostAndPort;
+
+/**
+ * Immutable O(1) weighted server picker.
+ *
+ * <p>
+ * Servers are laid out in a slot table of {@code sum(weights) / gcd(weights)}
+ * entries, where server {@code i} occupies {@code weight(i) / gcd} slots;
+ * slots are ordered by smooth weighted round-robin so that consecutive hashes
+ * spread over servers. A hash is mapped to a server via
+ * {@code slots[hash % slots.length]}.
+ * </p>
+ *
+ * @author Thanh Nguyen <btnguyen2k@gmail.com>
+ * @since 0.2.3
+ */
+public final class WeightedServerTable {
+
+    /**
+     * Builds the table from a host list.
+     *
+     * @param hostAndPortList
+     * @return {@code null} if all servers have the same weight (plain
+     *         {@code hash % numServers} selection is equivalent)
+     */
+    public static WeightedServerTable build(List<HostAndPort> hostAndPortList) {
+        if (hostAndPortList == null || hostAndPortList.isEmpty()) {
+            return null;
+        }
+        int[] weights = new int[hostAndPortList.size()];
+        for (int i = 0; i < weights.length; i++) {
+            HostAndPort hostAndPort = hostAndPortList.get(i);
+            weights[i] = hostAndPort != null ? hostAndPort.weight : 1;
+        }
+        return build(weights);
+    }
+
+    /**
+     * Builds the table from server weights.
+     *
+     * @param weights
+     * @return {@code null} if all servers have the same weight
+     */
+    public static WeightedServerTable build(int[] weights) {
+        WeightedServerTable table = new WeightedServerTable(weights);
+        return table.isUniform() ? null : table;
+    }
+
+    private static int gcd(int a, int b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+
+    private final int[] weights;
+    private final int totalWeight;
+    private final int[] slots;
+
+    /**
+     * @param weights
+     *            weight of each server, values less than {@code 1} are
+     *            treated as {@code 1}
+     */
+    public WeightedServerTable(int[] weights) {
+        if (weights.length == 0) {
+            throw new IllegalArgumentException("No server weight");
+        }
+        this.weights = new int[weights.length];
+        int gcd = 0, total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            this.weights[i] = Math.max(1, weights[i]);
+            gcd = gcd(this.weights[i], gcd);
+            total += this.weights[i];
+        }
+        this.totalWeight = total;
+
+        // smooth weighted round-robin over the reduced weights
+        int numSlots = total / gcd;
+        slots = new int[numSlots];
+        int[] current = new int[weights.length];
+        for (int s = 0; s < numSlots; s++) {
+            int best = 0;
+            for (int i = 0; i < weights.length; i++) {
+                current[i] += this.weights[i] / gcd;
+                if (current[i] > current[best]) {
+                    best = i;
+                }
+            }
+            current[best] -= numSlots;
+            slots[s] = best;
+        }
+    }
+
+    public int getNumServers() {
+        return weights.length;
+    }
+
+    public int getWeight(int serverIndex) {
+        return weights[serverIndex];
+    }
+
+    public int getTotalWeight() {
+        return totalWeight;
+    }
+
+    /**
+     * Do all servers have the same weight?
+     *
+     * @return
+     */
+    public boolean isUniform() {
+        return slots.length == weights.length;
+    }
+
+    /**
+     * Maps a hash to a server, proportionally to weights.
+     *
+     * @param hash
+     * @return server index
+     */
+    public int pick(int hash) {
+        return slots[Math.abs(hash % slots.length)];
+    }
+
+    /**
+     * Maps a hash to a server other than {@code excludedIndex}, proportionally
+     * to weights.
+     *
+     * @param hash
+     * @param excludedIndex
+     * @return server index, {@code excludedIndex} if it is the only server
+     */
+    public int pick(int hash, int excludedIndex) {
+        int slot = Math.abs(hash % slots.length);
+        for (int i = 0; i < slots.length; i++) {
+            int serverIndex = slots[(slot + i) % slots.length];
+            if (serverIndex != excludedIndex) {
+                return serverIndex;
+            }
+        }
+        return excludedIndex;
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.ddth.thriftpool.qnd;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import scribe.thrift.scribe;
+
+import com.github.ddth.thriftpool.AdaptivePoolSizer;
+import com.github.ddth.thriftpool.PoolConfig;
+import com.github.ddth.thriftpool.RetryPolicy;
+import com.github.ddth.thriftpool.ThriftClientPool;
+
+/**
+ * Effective {@code maxActive} of a pool with {@link AdaptivePoolSizer} under
+ * changing load: low load, burst, server slowdown, low load again.
+ */
+public class QndAdaptivePoolSizing {
+
+    final static int MAX_WORKERS = 32;
+    final static long SERVER_DELAY_MS = 5, SLOW_SERVER_DELAY_MS = 25;
+
+    static void run(AdaptivePoolSizer.Mode mode) throws Exception {
+        final QndLocalScribeCluster cluster = new QndLocalScribeCluster(19097, SERVER_DELAY_MS)
+                .start();
+        final AdaptivePoolSizer sizer = new AdaptivePoolSizer(mode).setIntervalMs(250)
+                .setMinActive(2).setMaxActive(64);
+        final ThriftClientPool<scribe.Client, scribe.Iface> pool = new ThriftClientPool<scribe.Client, scribe.Iface>(
+                scribe.Client.class, scribe.Iface.class, cluster.createProtocolFactory(),
+                new PoolConfig().setMaxActive(8).setMaxIdle(64).setMaxWaitTime(10000),
+                new RetryPolicy(3, 100, RetryPolicy.RetryType.ROUND_ROBIN));
+        pool.setAdaptivePoolSizer(sizer).init();
+
+        final AtomicInteger numWorkers = new AtomicInteger();
+        final AtomicInteger numCalls = new AtomicInteger();
+        final boolean[] stop = { false };
+        for (int i = 0; i < MAX_WORKERS; i++) {
+            final int id = i;
+            Thread t = new Thread() {
+                public void run() {
+                    while (!stop[0]) {
+                        try {
+                            if (id >= numWorkers.get()) {
+                                Thread.sleep(10);
+                                continue;
+                            }
+                            scribe.Iface client = pool.borrowObject();
+                            try {
+                                client.getName();
+                            } finally {
+                                pool.returnObject(client);
+                            }
+                            numCalls.incrementAndGet();
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            };
+            t.setDaemon(true);
+            t.start();
+        }
+
+        System.out.println("== " + mode);
+        Object[][] phases = { { "low load", 4, SERVER_DELAY_MS },
+                { "burst", MAX_WORKERS, SERVER_DELAY_MS },
+                { "slow server", MAX_WORKERS, SLOW_SERVER_DELAY_MS },
+                { "low load", 4, SERVER_DELAY_MS } };
+        for (Object[] phase : phases) {
+            numWorkers.set((Integer) phase[1]);
+            cluster.nodes.get(0).delayMs = (Long) phase[2];
+            for (int i = 0; i < 4; i++) {
+                Thread.sleep(500);
+                System.out.println(String.format(
+                        "%-12s workers: %2d\tlimit: %2d\tactive: %2d\twaiters: %2d"
+                                + "\tconcurrency: %5.1f\tlatency: %5.1fms\tcalls: %d",
+                        phase[0], phase[1], pool.getEffectiveMaxActive(),
+                        pool.getNumActive(), pool.getNumWaiters(),
+                        sizer.getLastConcurrency(), sizer.getLastLatencyNs() / 1E6,
+                        numCalls.getAndSet(0)));
+            }
+        }
+        stop[0] = true;
+        pool.destroy();
+        cluster.stop();
+    }
+
+    public static void main(String[] args) throws Exception {
+        run(AdaptivePoolSizer.Mode.LITTLES_LAW);
+        run(AdaptivePoolSizer.Mode.AIMD);
+        System.exit(0);
+    }
+}
@@ -0,0 +1,114 @@
+package com.github.ddth.thriftpool.qnd;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.thrift.protocol.TProtocol;
+
+import scribe.thrift.scribe;
+
+import com.github.ddth.thriftpool.AbstractTProtocolFactory;
+import com.github.ddth.thriftpool.ConcurrentBagPoolEngine;
+import com.github.ddth.thriftpool.GenericPoolEngine;
+import com.github.ddth.thriftpool.IPoolEngineFactory;
+import com.github.ddth.thriftpool.PoolConfig;
+import com.github.ddth.thriftpool.RetryPolicy;
+import com.github.ddth.thriftpool.ThriftClientPool;
+
+/**
+ * Traffic burst on a cold pool against a local server with injected connect
+ * latency: connections made by borrowers vs. by connector threads
+ * ({@link PoolConfig#setConnectorThreads(int)}).
+ */
+public class QndConnectBurstBenchmark {
+
+    final static int NUM_THREADS = 64, CALLS_PER_THREAD = 50;
+    final static long MIN_CONNECT_MS = 10, MAX_CONNECT_MS = 200;
+
+    static void benchmark(String name, QndLocalScribeCluster cluster,
+            IPoolEngineFactory poolEngineFactory, int connectorThreads) throws Exception {
+        final AbstractTProtocolFactory clusterFactory = cluster.createProtocolFactory();
+        final AtomicInteger numConnects = new AtomicInteger();
+        AbstractTProtocolFactory slowConnectFactory = new AbstractTProtocolFactory(
+                cluster.getHostsAndPorts()) {
+            @Override
+            protected TProtocol create(HostAndPort hostAndPort) throws Exception {
+                numConnects.incrementAndGet();
+                Thread.sleep(ThreadLocalRandom.current().nextLong(MIN_CONNECT_MS, MAX_CONNECT_MS));
+                return clusterFactory.create(0);
+            }
+        };
+        PoolConfig poolConfig = new PoolConfig().setMaxActive(NUM_THREADS)
+                .setMaxIdle(NUM_THREADS).setMinIdle(0).setMaxWaitTime(10000)
+                .setConnectorThreads(connectorThreads);
+        final ThriftClientPool<scribe.Client, scribe.Iface> pool = new ThriftClientPool<scribe.Client, scribe.Iface>(
+                scribe.Client.class, scribe.Iface.class, slowConnectFactory, poolConfig,
+                new RetryPolicy(3, 100, RetryPolicy.RetryType.ROUND_ROBIN));
+        pool.setPoolEngineFactory(poolEngineFactory).init();
+
+        final long[] latenciesNs = new long[NUM_THREADS * CALLS_PER_THREAD];
+        final AtomicInteger counter = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1), done = new CountDownLatch(
+                NUM_THREADS);
+        for (int i = 0; i < NUM_THREADS; i++) {
+            new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < CALLS_PER_THREAD; j++) {
+                            long t = System.nanoTime();
+                            scribe.Iface client = pool.borrowObject();
+                            try {
+                                client.getName();
+                            } finally {
+                                pool.returnObject(client);
+                            }
+                            latenciesNs[counter.getAndIncrement()] = System.nanoTime() - t;
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        long t = System.nanoTime();
+        start.countDown();
+        done.await();
+        long totalMs = (System.nanoTime() - t) / 1000000;
+        pool.destroy();
+
+        long[] sorted = Arrays.copyOf(latenciesNs, counter.get());
+        Arrays.sort(sorted);
+        long sum = 0;
+        for (long ns : sorted) {
+            sum += ns;
+        }
+        System.out.println(String.format(
+                "%-28s total: %5d ms\tavg: %6.2f ms\tp50: %6.2f ms\tp99: %6.2f ms"
+                        + "\tmax: %6.2f ms\tconnects: %d", name, totalMs, sum / 1E6
+                        / sorted.length, sorted[sorted.length / 2] / 1E6,
+                sorted[sorted.length * 99 / 100] / 1E6, sorted[sorted.length - 1] / 1E6,
+                numConnects.get()));
+    }
+
+    public static void main(String[] args) throws Exception {
+        QndLocalScribeCluster cluster = new QndLocalScribeCluster(19095, 1).start();
+        try {
+            for (int i = 0; i < 2; i++) {
+                benchmark("GenericPoolEngine", cluster, GenericPoolEngine.FACTORY, 0);
+                benchmark("ConcurrentBag", cluster, ConcurrentBagPoolEngine.FACTORY, 0);
+                benchmark("ConcurrentBag/connectors=4", cluster,
+                        ConcurrentBagPoolEngine.FACTORY, 4);
+                benchmark("ConcurrentBag/connectors=16", cluster,
+                        ConcurrentBagPoolEngine.FACTORY, 16);
+            }
+        } finally {
+            cluster.stop();
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,92 @@
+package com.github.ddth.thriftpool.qnd;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.TServiceClient;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TMemoryBuffer;
+
+import com.github.ddth.thriftpool.ITProtocolFactory;
+import com.github.ddth.thriftpool.ThriftClientPool;
+
+/**
+ * Compares {@link ThriftClientPool.DispatchMode#REFLECTION} and
+ * {@link ThriftClientPool.DispatchMode#METHOD_HANDLE} dispatching overhead
+ * using a no-IO Thrift client.
+ */
+public class QndDispatchBenchmark {
+
+    public static interface EchoIface {
+        public int echo(int value, String tag) throws TException;
+    }
+
+    public static class EchoClient extends TServiceClient implements EchoIface {
+        public EchoClient(TProtocol prot) {
+            super(prot);
+        }
+
+        @Override
+        public int echo(int value, String tag) throws TException {
+            return value + tag.length();
+        }
+    }
+
+    final static int NUM_WARMUP_ROUNDS = 5;
+    final static int NUM_ROUNDS = 10;
+    final static int NUM_CALLS_PER_ROUND = 2000000;
+
+    static long runRound(EchoIface client) throws TException {
+        long sum = 0;
+        for (int i = 0; i < NUM_CALLS_PER_ROUND; i++) {
+            sum += client.echo(i, "tag");
+        }
+        return sum;
+    }
+
+    static void benchmark(ThriftClientPool.DispatchMode dispatchMode) throws Exception {
+        ITProtocolFactory protocolFactory = new ITProtocolFactory() {
+            @Override
+            public TProtocol create(int hash) {
+                return new TBinaryProtocol(new TMemoryBuffer(16));
+            }
+
+            @Override
+            public int getNumServers() {
+                return 1;
+            }
+        };
+
+        ThriftClientPool<EchoClient, EchoIface> pool = new ThriftClientPool<EchoClient, EchoIface>(
+                EchoClient.class, EchoIface.class, protocolFactory);
+        pool.setDispatchMode(dispatchMode).init();
+        try {
+            EchoIface client = pool.borrowObject();
+            try {
+                long blackhole = 0;
+                for (int i = 0; i < NUM_WARMUP_ROUNDS; i++) {
+                    blackhole += runRound(client);
+                }
+                long totalNs = 0;
+                for (int i = 0; i < NUM_ROUNDS; i++) {
+                    long t = System.nanoTime();
+                    blackhole += runRound(client);
+                    totalNs += System.nanoTime() - t;
+                }
+                double nsPerOp = (double) totalNs / ((long) NUM_ROUNDS * NUM_CALLS_PER_ROUND);
+                System.out.println(String.format("%-15s %8.2f ns/op (blackhole: %d)",
+                        dispatchMode, nsPerOp, blackhole));
+            } finally {
+                pool.returnObject(client);
+            }
+        } finally {
+            pool.destroy();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int i = 0; i < 2; i++) {
+            benchmark(ThriftClientPool.DispatchMode.REFLECTION);
+            benchmark(ThriftClientPool.DispatchMode.METHOD_HANDLE);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.github.ddth.thriftpool.qnd;
+
+import scribe.thrift.scribe;
+
+import com.github.ddth.thriftpool.DnsServerListProvider;
+import com.github.ddth.thriftpool.PoolConfig;
+import com.github.ddth.thriftpool.ThriftClientPool;
+
+/**
+ * Server list from DNS ({@link DnsServerListProvider}) served by a local
+ * {@link QndDnsStub}: changes SRV and A records and measures how long the
+ * pool takes to see each change.
+ */
+public class QndDnsServerListProvider {
+
+    final static String SRV_NAME = "_scribe._tcp.qnd.local";
+    final static String A_NAME = "scribe.qnd.local";
+
+    static void awaitChange(ThriftClientPool<scribe.Client, scribe.Iface> pool, String before,
+            long startTimestamp, String description) throws Exception {
+        while (pool.getServerNodes().toString().equals(before)
+                && System.currentTimeMillis() - startTimestamp < 5000) {
+            Thread.sleep(5);
+        }
+        scribe.Iface client = pool.borrowObject();
+        try {
+            System.out.println(String.format("%-40s -> %s in %dms, call: %s", description,
+                    pool.getServerNodes(), System.currentTimeMillis() - startTimestamp,
+                    client.getName()));
+        } finally {
+            pool.returnObject(client);
+        }
+    }
+
+    static void run(QndLocalScribeCluster cluster, QndDnsStub dns, DnsServerListProvider provider,
+            Runnable... changes) throws Exception {
+        ThriftClientPool<scribe.Client, scribe.Iface> pool = new ThriftClientPool<scribe.Client, scribe.Iface>(
+                scribe.Client.class, scribe.Iface.class, cluster.createProtocolFactory());
+        pool.setPoolConfig(new PoolConfig().setPerServerPool(true))
+                .setServerListProvider(
+                        provider.setDnsServer("dns://127.0.0.1:" + dns.getPort())
+                                .setRefreshIntervalMs(500)).init();
+        try {
+            System.out.println(provider);
+            System.out.println("initial: " + pool.getServerNodes());
+            for (Runnable change : changes) {
+                String before = pool.getServerNodes().toString();
+                long t = System.currentTimeMillis();
+                change.run();
+                awaitChange(pool, before, t, change.toString());
+            }
+        } finally {
+            pool.destroy();
+        }
+    }
+
+    static Runnable change(final String description, final Runnable change) {
+        return new Runnable() {
+            public void run() {
+                change.run();
+            }
+
+            public String toString() {
+                return description;
+            }
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        QndLocalScribeCluster cluster = new QndLocalScribeCluster(19490, 0, 0, 0).start();
+        final QndDnsStub dns = new QndDnsStub().start();
+        try {
+            dns.setSrv(SRV_NAME, "10 1 19490 localhost.", "20 1 19491 localhost.");
+            run(cluster, dns, new DnsServerListProvider(SRV_NAME),
+                    change("SRV: add 19491 at priority 10", new Runnable() {
+                        public void run() {
+                            dns.setSrv(SRV_NAME, "10 1 19490 localhost.",
+                                    "10 1 19491 localhost.");
+                        }
+                    }), change("SRV: add 19492 (weight 3)", new Runnable() {
+                        public void run() {
+                            dns.setSrv(SRV_NAME, "10 1 19490 localhost.",
+                                    "10 1 19491 localhost.", "10 3 19492 localhost.");
+                        }
+                    }), change("SRV: remove 19490", new Runnable() {
+                        public void run() {
+                            dns.setSrv(SRV_NAME, "10 1 19491 localhost.",
+                                    "10 3 19492 localhost.");
+                        }
+                    }));
+
+            dns.setA(A_NAME, "127.0.0.1");
+            run(cluster, dns, new DnsServerListProvider(A_NAME, 19490),
+                    change("A: add 127.0.0.2", new Runnable() {
+                        public void run() {
+                            dns.setA(A_NAME, "127.0.0.2", "127.0.0.1");
+                        }
+                    }), change("A: remove 127.0.0.1", new Runnable() {
+                        public void run() {
+                            dns.setA(A_NAME, "127.0.0.2");
+                        }
+                    }));
+        } finally {
+            dns.stop();
+            cluster.stop();
+        }
+    }
+}
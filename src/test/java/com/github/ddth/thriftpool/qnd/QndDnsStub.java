@@ -0,0 +1,140 @@
+package com.github.ddth.thriftpool.qnd;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Minimal in-process DNS server (UDP, SRV and A records only), for service
+ * discovery demos. Records can be changed at any time.
+ */
+public class QndDnsStub {
+
+    final static int TYPE_A = 1, TYPE_SRV = 33;
+
+    private final DatagramSocket socket;
+    private final Map<String, List<String>> srvRecords = new ConcurrentHashMap<String, List<String>>();
+    private final Map<String, List<String>> aRecords = new ConcurrentHashMap<String, List<String>>();
+
+    public QndDnsStub() throws IOException {
+        socket = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+    }
+
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    /**
+     * @param name
+     * @param records
+     *            {@code priority weight port target}
+     */
+    public QndDnsStub setSrv(String name, String... records) {
+        srvRecords.put(name.toLowerCase(), Arrays.asList(records));
+        return this;
+    }
+
+    public QndDnsStub setA(String name, String... addresses) {
+        aRecords.put(name.toLowerCase(), Arrays.asList(addresses));
+        return this;
+    }
+
+    public QndDnsStub start() {
+        Thread t = new Thread() {
+            public void run() {
+                byte[] buf = new byte[512];
+                while (!socket.isClosed()) {
+                    try {
+                        DatagramPacket request = new DatagramPacket(buf, buf.length);
+                        socket.receive(request);
+                        byte[] response = answer(Arrays.copyOf(request.getData(),
+                                request.getLength()));
+                        socket.send(new DatagramPacket(response, response.length, request
+                                .getSocketAddress()));
+                    } catch (IOException e) {
+                        // closed
+                    }
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+        return this;
+    }
+
+    public void stop() {
+        socket.close();
+    }
+
+    private static void writeName(DataOutputStream out, String name) throws IOException {
+        for (String label : name.split("\\.")) {
+            if (!label.isEmpty()) {
+                out.writeByte(label.length());
+                out.writeBytes(label);
+            }
+        }
+        out.writeByte(0);
+    }
+
+    private byte[] answer(byte[] query) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(query);
+        int id = in.getShort() & 0xFFFF;
+        in.position(12);
+        StringBuilder name = new StringBuilder();
+        for (int len = in.get(); len > 0; len = in.get()) {
+            byte[] label = new byte[len];
+            in.get(label);
+            name.append(name.length() > 0 ? "." : "").append(new String(label, "US-ASCII"));
+        }
+        int type = in.getShort() & 0xFFFF;
+        in.getShort();
+        int questionEnd = in.position();
+
+        Map<String, List<String>> records = type == TYPE_SRV ? srvRecords : aRecords;
+        List<String> values = records.get(name.toString().toLowerCase());
+        boolean known = srvRecords.containsKey(name.toString().toLowerCase())
+                || aRecords.containsKey(name.toString().toLowerCase());
+        if (values == null || (type != TYPE_SRV && type != TYPE_A)) {
+            values = new ArrayList<String>();
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(id);
+        out.writeShort(0x8580 | (known ? 0 : 3)); // response, authoritative, NXDOMAIN
+        out.writeShort(1);
+        out.writeShort(values.size());
+        out.writeShort(0);
+        out.writeShort(0);
+        out.write(query, 12, questionEnd - 12);
+        for (String value : values) {
+            out.writeShort(0xC00C); // name: pointer to the question
+            out.writeShort(type);
+            out.writeShort(1);
+            out.writeInt(5); // TTL
+            ByteArrayOutputStream rdata = new ByteArrayOutputStream();
+            DataOutputStream rout = new DataOutputStream(rdata);
+            if (type == TYPE_SRV) {
+                String[] tokens = value.split("\\s+");
+                rout.writeShort(Integer.parseInt(tokens[0]));
+                rout.writeShort(Integer.parseInt(tokens[1]));
+                rout.writeShort(Integer.parseInt(tokens[2]));
+                writeName(rout, tokens[3]);
+            } else {
+                rout.write(InetAddress.getByName(value).getAddress());
+            }
+            out.writeShort(rdata.size());
+            out.write(rdata.toByteArray());
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,102 @@
+package com.github.ddth.thriftpool.qnd;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.TServiceClient;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TMemoryBuffer;
+
+import com.github.ddth.thriftpool.ITProtocolFactory;
+import com.github.ddth.thriftpool.PoolConfig;
+import com.github.ddth.thriftpool.ThriftClientPool;
+import com.github.ddth.thriftpool.qnd.QndDispatchBenchmark.EchoIface;
+
+/**
+ * Thousands of concurrent callers sharing a small pool of clients to a slow
+ * backend: {@link ThriftClientPool.ExecutionMode#PLATFORM} vs
+ * {@link ThriftClientPool.ExecutionMode#VIRTUAL} (Java 21+).
+ */
+public class QndExecutionModeBenchmark {
+
+    final static int NUM_CALLERS = 5000;
+    final static int MAX_ACTIVE = 16;
+    final static long LATENCY_MS = 5;
+
+    /**
+     * Simulates a backend with {@link #LATENCY_MS} response time.
+     */
+    public static class SlowEchoClient extends TServiceClient implements EchoIface {
+        public SlowEchoClient(TProtocol prot) {
+            super(prot);
+        }
+
+        @Override
+        public int echo(int value, String tag) throws TException {
+            try {
+                Thread.sleep(LATENCY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return value + tag.length();
+        }
+    }
+
+    static void benchmark(ThriftClientPool.ExecutionMode executionMode) throws Exception {
+        ITProtocolFactory protocolFactory = new ITProtocolFactory() {
+            @Override
+            public TProtocol create(int hash) {
+                return new TBinaryProtocol(new TMemoryBuffer(16));
+            }
+
+            @Override
+            public int getNumServers() {
+                return 1;
+            }
+        };
+        PoolConfig poolConfig = new PoolConfig().setMaxActive(MAX_ACTIVE).setMaxIdle(MAX_ACTIVE)
+                .setMaxWaitTime(60000);
+        ThriftClientPool<SlowEchoClient, EchoIface> pool = new ThriftClientPool<SlowEchoClient, EchoIface>(
+                SlowEchoClient.class, EchoIface.class, protocolFactory, poolConfig);
+        try {
+            pool.setExecutionMode(executionMode).init();
+        } catch (IllegalStateException e) {
+            System.out.println(String.format("%-10s not supported: %s", executionMode,
+                    e.getMessage()));
+            return;
+        }
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        threadMXBean.resetPeakThreadCount();
+        try {
+            CompletableFuture<?>[] futures = new CompletableFuture<?>[NUM_CALLERS];
+            long t = System.currentTimeMillis();
+            for (int i = 0; i < NUM_CALLERS; i++) {
+                final int value = i;
+                futures[i] = pool.submit(new ThriftClientPool.IClientCallable<EchoIface, Integer>() {
+                    @Override
+                    public Integer call(EchoIface client) throws Exception {
+                        return client.echo(value, "tag");
+                    }
+                });
+            }
+            CompletableFuture.allOf(futures).join();
+            long d = System.currentTimeMillis() - t;
+            System.out.println(String.format(
+                    "%-10s callers: %d\ttime: %6d ms\t%8.0f calls/s\tpeak platform threads: %d",
+                    executionMode, NUM_CALLERS, d, NUM_CALLERS * 1000.0 / d,
+                    threadMXBean.getPeakThreadCount()));
+        } finally {
+            pool.destroy();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int i = 0; i < 2; i++) {
+            benchmark(ThriftClientPool.ExecutionMode.PLATFORM);
+            benchmark(ThriftClientPool.ExecutionMode.VIRTUAL);
+        }
+    }
+}
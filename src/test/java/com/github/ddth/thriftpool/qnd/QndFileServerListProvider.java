@@ -0,0 +1,66 @@
+package com.github.ddth.thriftpool.qnd;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import scribe.thrift.scribe;
+
+import com.github.ddth.thriftpool.FileServerListProvider;
+import com.github.ddth.thriftpool.PoolConfig;
+import com.github.ddth.thriftpool.ThriftClientPool;
+
+/**
+ * Server list from a temp file ({@link FileServerListProvider}): rewrites the
+ * file and measures how long the pool takes to see each change.
+ */
+public class QndFileServerListProvider {
+
+    static void write(Path file, String content) throws Exception {
+        Path tmp = Files.createTempFile(file.getParent(), "servers", ".tmp");
+        Files.write(tmp, content.getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static void main(String[] args) throws Exception {
+        QndLocalScribeCluster cluster = new QndLocalScribeCluster(19390, 0, 0, 0).start();
+        Path dir = Files.createTempDirectory("thriftpool");
+        Path file = dir.resolve("servers.txt");
+        write(file, "# initial\nlocalhost:19390\n");
+
+        ThriftClientPool<scribe.Client, scribe.Iface> pool = new ThriftClientPool<scribe.Client, scribe.Iface>(
+                scribe.Client.class, scribe.Iface.class, cluster.createProtocolFactory());
+        pool.setPoolConfig(new PoolConfig().setPerServerPool(true))
+                .setServerListProvider(new FileServerListProvider(file)).init();
+        try {
+            System.out.println("initial: " + pool.getServerNodes());
+            String[] steps = { "localhost:19390\nlocalhost:19391\n",
+                    "localhost:19390, localhost:19391, localhost:19392:2 # weighted\n", "",
+                    "localhost:19392\n" };
+            for (String step : steps) {
+                String before = pool.getServerNodes().toString();
+                long t = System.currentTimeMillis();
+                write(file, step);
+                while (pool.getServerNodes().toString().equals(before)
+                        && System.currentTimeMillis() - t < 2000) {
+                    Thread.sleep(5);
+                }
+                scribe.Iface client = pool.borrowObject();
+                try {
+                    System.out.println(String.format("%-75s -> %s in %dms, call: %s",
+                            step.replace("\n", "\\n"), pool.getServerNodes(),
+                            System.currentTimeMillis() - t, client.getName()));
+                } finally {
+                    pool.returnObject(client);
+                }
+            }
+        } finally {
+            pool.destroy();
+            cluster.stop();
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        }
+    }
+}
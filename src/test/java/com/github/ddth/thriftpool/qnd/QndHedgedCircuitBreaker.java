@@ -0,0 +1,83 @@
+package com.github.ddth.thriftpool.qnd;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import scribe.thrift.scribe;
+
+import com.github.ddth.thriftpool.CircuitBreaker;
+import com.github.ddth.thriftpool.MethodConfig;
+import com.github.ddth.thriftpool.PoolConfig;
+import com.github.ddth.thriftpool.ServerNode;
+import com.github.ddth.thriftpool.ThriftClientPool;
+
+/**
+ * Hedged calls against a local 2-node cluster with one slow (but healthy)
+ * node: the hedge sent to the fast node wins and the primary call on the slow
+ * node is aborted. Aborted attempts are not failures, so the slow node's
+ * circuit breaker stays CLOSED and it is not penalised.
+ */
+public class QndHedgedCircuitBreaker {
+
+    final static int NUM_THREADS = 4;
+    final static long DURATION_MS = 3000;
+    final static long SLOW_MS = 100, FAST_MS = 1, HEDGE_DELAY_MS = 20;
+
+    public static void main(String[] args) throws Exception {
+        QndLocalScribeCluster cluster = new QndLocalScribeCluster(19590, SLOW_MS, FAST_MS).start();
+        final ThriftClientPool<scribe.Client, scribe.Iface> pool = new ThriftClientPool<scribe.Client, scribe.Iface>(
+                scribe.Client.class, scribe.Iface.class, cluster.createProtocolFactory());
+        pool.setPoolConfig(
+                new PoolConfig().setMaxActive(NUM_THREADS * 4).setMaxIdle(NUM_THREADS * 4)
+                        .setPerServerPool(true))
+                .setCircuitBreaker(new CircuitBreaker().setMinimumNumberOfCalls(10))
+                .setMethodConfig("getName",
+                        new MethodConfig(true, true).setHedgeDelayMs(HEDGE_DELAY_MS)).init();
+        try {
+            final AtomicBoolean running = new AtomicBoolean(true);
+            final AtomicLong numCalls = new AtomicLong(), numFailures = new AtomicLong();
+            final CountDownLatch done = new CountDownLatch(NUM_THREADS);
+            for (int i = 0; i < NUM_THREADS; i++) {
+                new Thread() {
+                    public void run() {
+                        try {
+                            while (running.get()) {
+                                try {
+                                    scribe.Iface client = pool.borrowObject();
+                                    try {
+                                        client.getName();
+                                    } finally {
+                                        pool.returnObject(client);
+                                    }
+                                    numCalls.incrementAndGet();
+                                } catch (Exception e) {
+                                    numFailures.incrementAndGet();
+                                }
+                            }
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                }.start();
+            }
+            Thread.sleep(DURATION_MS);
+            running.set(false);
+            done.await();
+
+            // calls received by the slow node were aborted by a winning hedge
+            System.out.println("calls=" + numCalls + " failures=" + numFailures
+                    + " server calls: " + cluster.resetCallCounters());
+            for (ServerNode node : pool.getServerNodes()) {
+                System.out.println(String.format(
+                        "%-16s breaker=%-6s calls=%-5d failures=%-3d ewma=%.1fms inFlight=%d",
+                        node, node.getCircuitState(), node.getNumCalls(), node.getNumFailures(),
+                        node.getLatencyEwmaNs() / 1E6, node.getNumInFlight()));
+            }
+        } finally {
+            pool.destroy();
+            cluster.stop();
+        }
+        System.exit(0);
+    }
+}
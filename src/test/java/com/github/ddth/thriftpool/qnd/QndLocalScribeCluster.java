@@ -0,0 +1,199 @@
+package com.github.ddth.thriftpool.qnd;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.server.TThreadPoolServer;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TServerSocket;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransport;
+
+import scribe.thrift.LogEntry;
+import scribe.thrift.ResultCode;
+import scribe.thrift.scribe;
+
+import com.facebook.fb303.fb_status;
+import com.github.ddth.thriftpool.AbstractTProtocolFactory;
+
+/**
+ * Local stand-in cluster of in-process scribe servers, for benchmarks. Each
+ * node's response time can be set to simulate slow servers.
+ */
+public class QndLocalScribeCluster {
+
+    public static class Node implements scribe.Iface {
+        public final int port;
+        public final AtomicLong numCalls = new AtomicLong();
+        public volatile long delayMs;
+        private TServer server;
+
+        public Node(int port, long delayMs) {
+            this.port = port;
+            this.delayMs = delayMs;
+        }
+
+        private void delay() {
+            numCalls.incrementAndGet();
+            if (delayMs > 0) {
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        public void start() throws Exception {
+            TServerSocket serverSocket = new TServerSocket(port);
+            server = new TThreadPoolServer(new TThreadPoolServer.Args(serverSocket)
+                    .processor(new scribe.Processor<scribe.Iface>(this))
+                    .transportFactory(new TFramedTransport.Factory())
+                    .protocolFactory(new TBinaryProtocol.Factory()).minWorkerThreads(4)
+                    .maxWorkerThreads(512));
+            Thread t = new Thread() {
+                public void run() {
+                    server.serve();
+                }
+            };
+            t.setDaemon(true);
+            t.start();
+        }
+
+        public void stop() {
+            server.stop();
+        }
+
+        @Override
+        public ResultCode Log(List<LogEntry> messages) {
+            delay();
+            return ResultCode.OK;
+        }
+
+        @Override
+        public String getName() {
+            delay();
+            return "localhost:" + port;
+        }
+
+        @Override
+        public String getVersion() {
+            return "1";
+        }
+
+        @Override
+        public fb_status getStatus() {
+            return fb_status.ALIVE;
+        }
+
+        @Override
+        public String getStatusDetails() {
+            return "";
+        }
+
+        @Override
+        public Map<String, Long> getCounters() {
+            return new HashMap<String, Long>();
+        }
+
+        @Override
+        public long getCounter(String key) {
+            return 0;
+        }
+
+        @Override
+        public void setOption(String key, String value) {
+        }
+
+        @Override
+        public String getOption(String key) {
+            return "";
+        }
+
+        @Override
+        public Map<String, String> getOptions() {
+            return new HashMap<String, String>();
+        }
+
+        @Override
+        public String getCpuProfile(int profileDurationInSec) {
+            return "";
+        }
+
+        @Override
+        public long aliveSince() {
+            return 0;
+        }
+
+        @Override
+        public void reinitialize() {
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+
+    public final List<Node> nodes = new ArrayList<Node>();
+
+    /**
+     * @param basePort
+     * @param delaysMs
+     *            response time of each node
+     */
+    public QndLocalScribeCluster(int basePort, long... delaysMs) {
+        for (int i = 0; i < delaysMs.length; i++) {
+            nodes.add(new Node(basePort + i, delaysMs[i]));
+        }
+    }
+
+    public QndLocalScribeCluster start() throws Exception {
+        for (Node node : nodes) {
+            node.start();
+        }
+        Thread.sleep(200);
+        return this;
+    }
+
+    public void stop() {
+        for (Node node : nodes) {
+            node.stop();
+        }
+    }
+
+    public String getHostsAndPorts() {
+        StringBuilder sb = new StringBuilder();
+        for (Node node : nodes) {
+            sb.append(sb.length() > 0 ? "," : "").append("localhost:").append(node.port);
+        }
+        return sb.toString();
+    }
+
+    public String resetCallCounters() {
+        StringBuilder sb = new StringBuilder();
+        for (Node node : nodes) {
+            sb.append(sb.length() > 0 ? " " : "").append(node.port).append("=")
+                    .append(node.numCalls.getAndSet(0));
+        }
+        return sb.toString();
+    }
+
+    public AbstractTProtocolFactory createProtocolFactory() {
+        return new AbstractTProtocolFactory(getHostsAndPorts()) {
+            @Override
+            protected TProtocol create(HostAndPort hostAndPort) throws Exception {
+                TSocket socket = new TSocket(hostAndPort.host, hostAndPort.port);
+                socket.setTimeout(10000);
+                TTransport transport = new TFramedTransport(socket);
+                transport.open();
+                return new TBinaryProtocol(transport);
+            }
+        };
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.ddth.thriftpool.qnd;
+
+import java.util.ArrayList;
+
+import org.apache.thrift.transport.TTransportException;
+
+import scribe.thrift.LogEntry;
+import scribe.thrift.scribe;
+
+import com.github.ddth.thriftpool.MethodConfig;
+import com.github.ddth.thriftpool.RetryPolicy;
+import com.github.ddth.thriftpool.ThriftClientPool;
+
+/**
+ * Per-method socket timeout ({@link MethodConfig#setTimeoutMs(int)}) against
+ * a local server answering in 200ms: {@code getName} times out after 50ms,
+ * other methods keep the connection's own 10s timeout.
+ */
+public class QndMethodTimeout {
+
+    public static void main(String[] args) throws Exception {
+        QndLocalScribeCluster cluster = new QndLocalScribeCluster(19690, 200).start();
+        ThriftClientPool<scribe.Client, scribe.Iface> pool = new ThriftClientPool<scribe.Client, scribe.Iface>(
+                scribe.Client.class, scribe.Iface.class, cluster.createProtocolFactory());
+        pool.setRetryPolicy(new RetryPolicy(0, 0))
+                .setMethodConfig("getName", new MethodConfig().setTimeoutMs(50)).init();
+        try {
+            for (int i = 0; i < 2; i++) {
+                scribe.Iface client = pool.borrowObject();
+                try {
+                    long t = System.currentTimeMillis();
+                    try {
+                        client.getName();
+                        System.out.println("getName: OK in "
+                                + (System.currentTimeMillis() - t) + "ms");
+                    } catch (TTransportException e) {
+                        System.out.println("getName: " + e.getMessage() + " (type "
+                                + e.getType() + ") in " + (System.currentTimeMillis() - t)
+                                + "ms");
+                    }
+                    t = System.currentTimeMillis();
+                    System.out.println("getVersion: " + client.getVersion() + " in "
+                            + (System.currentTimeMillis() - t) + "ms");
+                    t = System.currentTimeMillis();
+                    client.Log(new ArrayList<LogEntry>());
+                    System.out.println("Log (200ms, connection timeout): OK in "
+                            + (System.currentTimeMillis() - t) + "ms");
+                } finally {
+                    pool.returnObject(client);
+                }
+            }
+        } finally {
+            pool.destroy();
+            cluster.stop();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.github.ddth.thriftpool.qnd;
+
+import java.lang.management.ManagementFactory;
+
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TMemoryBuffer;
+
+import com.github.ddth.thriftpool.IMetricsRegistry;
+import com.github.ddth.thriftpool.ITProtocolFactory;
+import com.github.ddth.thriftpool.NoopMetricsRegistry;
+import com.github.ddth.thriftpool.SimpleMetricsRegistry;
+import com.github.ddth.thriftpool.ThriftClientPool;
+import com.github.ddth.thriftpool.qnd.QndDispatchBenchmark.EchoClient;
+import com.github.ddth.thriftpool.qnd.QndDispatchBenchmark.EchoIface;
+
+/**
+ * Per-call overhead (time and allocation) of metrics: borrow, no-IO call and
+ * return with {@link NoopMetricsRegistry} vs {@link SimpleMetricsRegistry}.
+ */
+public class QndMetricsOverhead {
+
+    final static int NUM_WARMUP_ROUNDS = 5;
+    final static int NUM_ROUNDS = 10;
+    final static int NUM_CALLS_PER_ROUND = 500000;
+
+    static long runRound(ThriftClientPool<EchoClient, EchoIface> pool) throws Exception {
+        long sum = 0;
+        for (int i = 0; i < NUM_CALLS_PER_ROUND; i++) {
+            EchoIface client = pool.borrowObject();
+            try {
+                sum += client.echo(i, "tag");
+            } finally {
+                pool.returnObject(client);
+            }
+        }
+        return sum;
+    }
+
+    @SuppressWarnings("restriction")
+    static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    static void benchmark(String name, IMetricsRegistry metricsRegistry) throws Exception {
+        ITProtocolFactory protocolFactory = new ITProtocolFactory() {
+            @Override
+            public TProtocol create(int hash) {
+                return new TBinaryProtocol(new TMemoryBuffer(16));
+            }
+
+            @Override
+            public int getNumServers() {
+                return 1;
+            }
+        };
+
+        ThriftClientPool<EchoClient, EchoIface> pool = new ThriftClientPool<EchoClient, EchoIface>(
+                EchoClient.class, EchoIface.class, protocolFactory);
+        pool.setDispatchMode(ThriftClientPool.DispatchMode.METHOD_HANDLE)
+                .setMetricsRegistry(metricsRegistry).init();
+        try {
+            long blackhole = 0;
+            for (int i = 0; i < NUM_WARMUP_ROUNDS; i++) {
+                blackhole += runRound(pool);
+            }
+            long totalNs = 0, totalBytes = 0;
+            for (int i = 0; i < NUM_ROUNDS; i++) {
+                long bytes = allocatedBytes();
+                long t = System.nanoTime();
+                blackhole += runRound(pool);
+                totalNs += System.nanoTime() - t;
+                totalBytes += allocatedBytes() - bytes;
+            }
+            long numOps = (long) NUM_ROUNDS * NUM_CALLS_PER_ROUND;
+            System.out.println(String.format("%-10s %8.2f ns/op\t%6.1f bytes/op (blackhole: %d)",
+                    name, (double) totalNs / numOps, (double) totalBytes / numOps, blackhole));
+        } finally {
+            pool.destroy();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        SimpleMetricsRegistry metricsRegistry = null;
+        for (int i = 0; i < 2; i++) {
+            benchmark("noop", NoopMetricsRegistry.INSTANCE);
+            benchmark("simple", metricsRegistry = new SimpleMetricsRegistry());
+        }
+        System.out.println(metricsRegistry);
+    }
+}
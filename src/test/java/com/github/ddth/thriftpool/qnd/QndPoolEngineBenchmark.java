@@ -0,0 +1,100 @@
+package com.github.ddth.thriftpool.qnd;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TMemoryBuffer;
+
+import com.github.ddth.thriftpool.ConcurrentBagPoolEngine;
+import com.github.ddth.thriftpool.GenericPoolEngine;
+import com.github.ddth.thriftpool.IPoolEngineFactory;
+import com.github.ddth.thriftpool.ITProtocolFactory;
+import com.github.ddth.thriftpool.PoolConfig;
+import com.github.ddth.thriftpool.ThriftClientPool;
+import com.github.ddth.thriftpool.qnd.QndDispatchBenchmark.EchoClient;
+import com.github.ddth.thriftpool.qnd.QndDispatchBenchmark.EchoIface;
+
+/**
+ * Borrow/return contention benchmark: {@link GenericPoolEngine} vs
+ * {@link ConcurrentBagPoolEngine}, 1-128 threads sharing a pool of 8 clients.
+ */
+public class QndPoolEngineBenchmark {
+
+    final static int[] NUM_THREADS = { 1, 2, 4, 8, 16, 32, 64, 128 };
+    final static long DURATION_MS = 2000;
+    final static int MAX_ACTIVE = 8;
+
+    static void benchmark(String name, IPoolEngineFactory poolEngineFactory, final int numThreads)
+            throws Exception {
+        ITProtocolFactory protocolFactory = new ITProtocolFactory() {
+            @Override
+            public TProtocol create(int hash) {
+                return new TBinaryProtocol(new TMemoryBuffer(16));
+            }
+
+            @Override
+            public int getNumServers() {
+                return 1;
+            }
+        };
+        PoolConfig poolConfig = new PoolConfig().setMaxActive(MAX_ACTIVE).setMaxIdle(MAX_ACTIVE)
+                .setMaxWaitTime(60000);
+        final ThriftClientPool<EchoClient, EchoIface> pool = new ThriftClientPool<EchoClient, EchoIface>(
+                EchoClient.class, EchoIface.class, protocolFactory, poolConfig);
+        pool.setPoolEngineFactory(poolEngineFactory).init();
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong numOps = new AtomicLong(), borrowNs = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(numThreads);
+        for (int i = 0; i < numThreads; i++) {
+            Thread t = new Thread() {
+                public void run() {
+                    long ops = 0, ns = 0;
+                    try {
+                        while (running.get()) {
+                            long t = System.nanoTime();
+                            EchoIface client = pool.borrowObject();
+                            ns += System.nanoTime() - t;
+                            try {
+                                client.echo(1, "tag");
+                            } finally {
+                                pool.returnObject(client);
+                            }
+                            ops++;
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        numOps.addAndGet(ops);
+                        borrowNs.addAndGet(ns);
+                        done.countDown();
+                    }
+                }
+            };
+            t.start();
+        }
+        Thread.sleep(DURATION_MS);
+        running.set(false);
+        done.await();
+        pool.destroy();
+
+        long ops = numOps.get();
+        System.out.println(String.format("%-15s threads: %3d\t%12.0f ops/s\tborrow: %8.1f ns/op",
+                name, numThreads, ops * 1000.0 / DURATION_MS,
+                ops > 0 ? (double) borrowNs.get() / ops : 0.0));
+    }
+
+    public static void main(String[] args) throws Exception {
+        // warm up
+        benchmark("warmup", GenericPoolEngine.FACTORY, 8);
+        benchmark("warmup", ConcurrentBagPoolEngine.FACTORY, 8);
+
+        for (int numThreads : NUM_THREADS) {
+            benchmark("GENERIC", GenericPoolEngine.FACTORY, numThreads);
+            benchmark("CONCURRENT_BAG", ConcurrentBagPoolEngine.FACTORY, numThreads);
+        }
+    }
+}
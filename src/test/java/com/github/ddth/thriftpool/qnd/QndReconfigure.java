@@ -0,0 +1,109 @@
+package com.github.ddth.thriftpool.qnd;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TMemoryBuffer;
+
+import com.github.ddth.thriftpool.IServerBalancer;
+import com.github.ddth.thriftpool.ITProtocolFactory;
+import com.github.ddth.thriftpool.LeastActiveServerBalancer;
+import com.github.ddth.thriftpool.PoolConfig;
+import com.github.ddth.thriftpool.PowerOfTwoChoicesServerBalancer;
+import com.github.ddth.thriftpool.RetryPolicy;
+import com.github.ddth.thriftpool.ThriftClientPool;
+import com.github.ddth.thriftpool.qnd.QndDispatchBenchmark.EchoClient;
+import com.github.ddth.thriftpool.qnd.QndDispatchBenchmark.EchoIface;
+
+/**
+ * Reconfigures a pool under load (pool limits, retry policy, server balancer)
+ * and checks that no call fails and that connections are not churned.
+ */
+public class QndReconfigure {
+
+    final static int NUM_THREADS = 8;
+    final static int NUM_SERVERS = 3;
+
+    static PoolConfig poolConfig(int maxActive) {
+        return new PoolConfig().setMaxActive(maxActive).setMaxIdle(maxActive)
+                .setPerServerPool(true);
+    }
+
+    public static void main(String[] args) throws Exception {
+        ITProtocolFactory protocolFactory = new ITProtocolFactory() {
+            @Override
+            public TProtocol create(int hash) {
+                return new TBinaryProtocol(new TMemoryBuffer(16));
+            }
+
+            @Override
+            public int getNumServers() {
+                return NUM_SERVERS;
+            }
+        };
+
+        final ThriftClientPool<EchoClient, EchoIface> pool = new ThriftClientPool<EchoClient, EchoIface>(
+                EchoClient.class, EchoIface.class, protocolFactory);
+        pool.setPoolConfig(poolConfig(16))
+                .setRetryPolicy(new RetryPolicy(3, 10)).init();
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            final AtomicBoolean running = new AtomicBoolean(true);
+            final AtomicLong numCalls = new AtomicLong(), numFailures = new AtomicLong();
+            Thread[] threads = new Thread[NUM_THREADS];
+            for (int i = 0; i < NUM_THREADS; i++) {
+                threads[i] = new Thread() {
+                    public void run() {
+                        int n = 0;
+                        while (running.get()) {
+                            try {
+                                EchoIface client = pool.borrowObject();
+                                try {
+                                    client.echo(n++, "tag");
+                                    numCalls.incrementAndGet();
+                                } finally {
+                                    pool.returnObject(client);
+                                }
+                            } catch (Exception e) {
+                                numFailures.incrementAndGet();
+                            }
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+
+            Object[][] steps = {
+                    { "maxActive=8", poolConfig(8), null, null },
+                    { "numRetries=1", null, new RetryPolicy(1, 0), null },
+                    { "p2c balancer", null, null, new PowerOfTwoChoicesServerBalancer() },
+                    { "maxActive=32", poolConfig(32), null, null },
+                    { "all", poolConfig(16), new RetryPolicy(3, 10),
+                            new LeastActiveServerBalancer() } };
+            for (Object[] step : steps) {
+                Thread.sleep(1000);
+                pool.reconfigure((PoolConfig) step[1], (RetryPolicy) step[2],
+                        (IServerBalancer) step[3]);
+                System.out.println(String.format(
+                        "%-14s calls=%d failures=%d effectiveMaxActive=%d created=%s destroyed=%s",
+                        step[0], numCalls.get(), numFailures.get(),
+                        pool.getEffectiveMaxActive(),
+                        mbeanServer.getAttribute(pool.getRegisteredJmxName(), "CreatedCount"),
+                        mbeanServer.getAttribute(pool.getRegisteredJmxName(), "DestroyedCount")));
+            }
+            Thread.sleep(1000);
+            running.set(false);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            System.out.println("calls=" + numCalls + " failures=" + numFailures);
+        } finally {
+            pool.destroy();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.github.ddth.thriftpool.qnd;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.thrift.transport.TNonblockingSocket;
+import org.apache.thrift.transport.TNonblockingTransport;
+
+import scribe.thrift.scribe;
+
+import com.facebook.fb303.FacebookService;
+import com.github.ddth.thriftpool.AbstractTNonblockingTransportFactory;
+import com.github.ddth.thriftpool.AbstractTProtocolFactory.HostAndPort;
+import com.github.ddth.thriftpool.AsyncThriftClientPool;
+import com.github.ddth.thriftpool.ITNonblockingTransportFactory;
+import com.github.ddth.thriftpool.PoolConfig;
+
+public class QndScribeAsyncClient {
+
+    final static String SCRIBE_HOST = "localhost";
+    final static int SCRIBE_PORT = 1463;
+
+    public static void main(String[] args) throws Exception {
+        ITNonblockingTransportFactory transportFactory = new AbstractTNonblockingTransportFactory(
+                SCRIBE_HOST + ":" + SCRIBE_PORT) {
+            @Override
+            protected TNonblockingTransport create(HostAndPort hostAndPort) throws Exception {
+                return new TNonblockingSocket(hostAndPort.host, hostAndPort.port);
+            }
+        };
+
+        AsyncThriftClientPool<scribe.AsyncClient, scribe.AsyncIface> pool = new AsyncThriftClientPool<scribe.AsyncClient, scribe.AsyncIface>();
+        PoolConfig poolConfig = new PoolConfig();
+        poolConfig.setMaxActive(2);
+        pool.setClientClass(scribe.AsyncClient.class).setClientInterface(scribe.AsyncIface.class)
+                .setPoolConfig(poolConfig);
+        pool.setTransportFactory(transportFactory);
+        pool.init();
+
+        CompletableFuture<String> name = pool.execute((client, callback) -> client
+                .getName(callback), (FacebookService.AsyncClient.getName_call call) -> call
+                .getResult());
+        CompletableFuture<Long> aliveSince = pool.execute((client, callback) -> client
+                .aliveSince(callback), (FacebookService.AsyncClient.aliveSince_call call) -> call
+                .getResult());
+        System.out.println("Name:\t\t" + name.get());
+        System.out.println("Alive since:\t" + aliveSince.get());
+
+        pool.destroy();
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.ddth.thriftpool.qnd;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import scribe.thrift.scribe;
+
+import com.github.ddth.thriftpool.AbstractTProtocolFactory;
+import com.github.ddth.thriftpool.PoolConfig;
+import com.github.ddth.thriftpool.ThriftClientPool;
+
+/**
+ * Changes the server list of a running pool under load (servers added,
+ * removed, re-weighted): calls should not fail, removed servers should stop
+ * receiving calls and added servers should get their share.
+ */
+public class QndServerListUpdate {
+
+    final static int NUM_THREADS = 8;
+
+    static void run(boolean perServerPool) throws Exception {
+        QndLocalScribeCluster cluster = new QndLocalScribeCluster(19290, 1, 1, 1, 1).start();
+        String s0 = "localhost:19290", s1 = "localhost:19291", s2 = "localhost:19292", s3 = "localhost:19293";
+        AbstractTProtocolFactory protocolFactory = cluster.createProtocolFactory();
+        protocolFactory.setHostsAndPorts(s0 + "," + s1);
+
+        final ThriftClientPool<scribe.Client, scribe.Iface> pool = new ThriftClientPool<scribe.Client, scribe.Iface>(
+                scribe.Client.class, scribe.Iface.class, protocolFactory);
+        pool.setPoolConfig(new PoolConfig().setMaxActive(16).setMaxIdle(16)
+                .setPerServerPool(perServerPool)).init();
+        try {
+            final AtomicBoolean running = new AtomicBoolean(true);
+            final AtomicLong numCalls = new AtomicLong(), numFailures = new AtomicLong();
+            Thread[] threads = new Thread[NUM_THREADS];
+            for (int i = 0; i < NUM_THREADS; i++) {
+                threads[i] = new Thread() {
+                    public void run() {
+                        while (running.get()) {
+                            try {
+                                scribe.Iface client = pool.borrowObject();
+                                try {
+                                    client.getName();
+                                    numCalls.incrementAndGet();
+                                } finally {
+                                    pool.returnObject(client);
+                                }
+                            } catch (Exception e) {
+                                numFailures.incrementAndGet();
+                            }
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+
+            String[] steps = { s0 + "," + s1 + "," + s2, s0 + "," + s1 + "," + s2 + "," + s3,
+                    s1 + "," + s2 + "," + s3, s1 + ":1," + s2 + ":1," + s3 + ":4", s3 };
+            System.out.println("perServerPool=" + perServerPool);
+            Thread.sleep(1000);
+            System.out.println(String.format("  %-60s calls: %s", "[initial]",
+                    cluster.resetCallCounters()));
+            for (String step : steps) {
+                protocolFactory.setHostsAndPorts(step);
+                Thread.sleep(1000);
+                System.out.println(String.format("  %-60s calls: %s", step,
+                        cluster.resetCallCounters()));
+            }
+            running.set(false);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            System.out.println("  calls=" + numCalls + " failures=" + numFailures + " servers="
+                    + pool.getServerNodes());
+        } finally {
+            pool.destroy();
+            cluster.stop();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        run(true);
+        run(false);
+    }
+}
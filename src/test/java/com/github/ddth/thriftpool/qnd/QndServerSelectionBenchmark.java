@@ -0,0 +1,104 @@
+package com.github.ddth.thriftpool.qnd;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import scribe.thrift.scribe;
+
+import com.github.ddth.thriftpool.IServerBalancer;
+import com.github.ddth.thriftpool.LeastActiveServerBalancer;
+import com.github.ddth.thriftpool.PoolConfig;
+import com.github.ddth.thriftpool.PowerOfTwoChoicesServerBalancer;
+import com.github.ddth.thriftpool.RetryPolicy;
+import com.github.ddth.thriftpool.ServerNode;
+import com.github.ddth.thriftpool.ThriftClientPool;
+
+/**
+ * Server selection against a local 4-node cluster with one slow node:
+ * {@link RetryPolicy.RetryType}s (shared pool, a new connection per call) and
+ * {@link IServerBalancer}s (per-server sub-pools).
+ */
+public class QndServerSelectionBenchmark {
+
+    final static int NUM_THREADS = 32;
+    final static long DURATION_MS = 3000;
+    final static long FAST_MS = 2, SLOW_MS = 20;
+
+    static void benchmark(String name, QndLocalScribeCluster cluster, PoolConfig poolConfig,
+            RetryPolicy.RetryType retryType, IServerBalancer serverBalancer) throws Exception {
+        final ThriftClientPool<scribe.Client, scribe.Iface> pool = new ThriftClientPool<scribe.Client, scribe.Iface>(
+                scribe.Client.class, scribe.Iface.class, cluster.createProtocolFactory(),
+                poolConfig, new RetryPolicy(3, 100, retryType));
+        pool.setServerBalancer(serverBalancer).init();
+        cluster.resetCallCounters();
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong numCalls = new AtomicLong(), totalNs = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(NUM_THREADS);
+        for (int i = 0; i < NUM_THREADS; i++) {
+            new Thread() {
+                public void run() {
+                    try {
+                        while (running.get()) {
+                            long t = System.nanoTime();
+                            scribe.Iface client = pool.borrowObject();
+                            try {
+                                client.getName();
+                            } finally {
+                                pool.returnObject(client);
+                            }
+                            totalNs.addAndGet(System.nanoTime() - t);
+                            numCalls.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        Thread.sleep(DURATION_MS);
+        running.set(false);
+        done.await();
+
+        StringBuilder ewma = new StringBuilder();
+        for (ServerNode node : pool.getServerNodes()) {
+            ewma.append(String.format(" %.1f", node.getLatencyEwmaNs() / 1E6));
+        }
+        pool.destroy();
+        long n = numCalls.get();
+        System.out.println(String.format(
+                "%-28s %8.0f calls/s\tavg: %6.2f ms\tcalls: %s\tewma(ms):%s", name, n * 1000.0
+                        / DURATION_MS, n > 0 ? totalNs.get() / 1E6 / n : 0.0,
+                cluster.resetCallCounters(), ewma));
+    }
+
+    public static void main(String[] args) throws Exception {
+        QndLocalScribeCluster cluster = new QndLocalScribeCluster(19090, SLOW_MS, FAST_MS,
+                FAST_MS, FAST_MS).start();
+        try {
+            // shared pool, no idle connections: server is selected per call
+            PoolConfig sharedPool = new PoolConfig().setMaxActive(NUM_THREADS).setMaxIdle(0)
+                    .setMinIdle(0);
+            for (RetryPolicy.RetryType retryType : new RetryPolicy.RetryType[] {
+                    RetryPolicy.RetryType.ROUND_ROBIN, RetryPolicy.RetryType.RANDOM,
+                    RetryPolicy.RetryType.LEAST_LOADED }) {
+                benchmark("shared/" + retryType, cluster, sharedPool, retryType,
+                        new LeastActiveServerBalancer());
+            }
+
+            // per-server sub-pools: server is selected per borrow
+            PoolConfig perServerPool = new PoolConfig().setMaxActive(NUM_THREADS * 2)
+                    .setMaxIdle(NUM_THREADS * 2).setPerServerPool(true);
+            benchmark("perServer/LeastActive", cluster, perServerPool,
+                    RetryPolicy.RetryType.ROUND_ROBIN, new LeastActiveServerBalancer());
+            benchmark("perServer/PowerOfTwoChoices", cluster, perServerPool,
+                    RetryPolicy.RetryType.ROUND_ROBIN, new PowerOfTwoChoicesServerBalancer());
+        } finally {
+            cluster.stop();
+        }
+        System.exit(0);
+    }
+}